@@ -0,0 +1,81 @@
+/*
+ * Copyright 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.datastax.driver.core;
+
+import java.lang.reflect.Proxy;
+import java.nio.ByteBuffer;
+
+/**
+ * Stand-in driver objects for benchmarking statement binding without a Cassandra node.
+ * <p>
+ * Lives in the driver package to reach the package-private constructors
+ * of the prepared statement metadata.
+ */
+public final class StandInStatements {
+
+	private StandInStatements() {
+	}
+
+	/**
+	 * Create a {@link PreparedStatement} for the query with bind variables of the provided types.
+	 * @param query the query string.
+	 * @param types the bind variable types.
+	 * @return the prepared statement to bind values to.
+	 */
+	public static PreparedStatement prepared(String query, DataType... types) {
+		ColumnDefinitions.Definition[] definitions = new ColumnDefinitions.Definition[types.length];
+		for (int i = 0; i < types.length; i++) {
+			definitions[i] = new ColumnDefinitions.Definition("benchmark", "benchmark", "c" + i, types[i]);
+		}
+		ColumnDefinitions variables = new ColumnDefinitions(definitions, CodecRegistry.DEFAULT_INSTANCE);
+		PreparedId preparedId = new PreparedId(
+				new PreparedId.PreparedMetadata(MD5Digest.wrap(new byte[16]), variables),
+				new PreparedId.PreparedMetadata(null, ColumnDefinitions.EMPTY),
+				new int[] { 0 }, ProtocolVersion.NEWEST_SUPPORTED);
+
+		return (PreparedStatement) Proxy.newProxyInstance(StandInStatements.class.getClassLoader(),
+				new Class<?>[] { PreparedStatement.class },
+				(proxy, method, args) -> {
+					switch (method.getName()) {
+						case "bind":
+							BoundStatement boundStatement = new BoundStatement((PreparedStatement) proxy);
+							return args != null && args.length > 0 ? boundStatement.bind((Object[]) args[0])
+									: boundStatement;
+						case "getVariables":
+							return variables;
+						case "getPreparedId":
+							return preparedId;
+						case "getCodecRegistry":
+							return CodecRegistry.DEFAULT_INSTANCE;
+						case "getQueryString":
+							return query;
+						case "getRoutingKey":
+							return (ByteBuffer) null;
+						case "isTracing":
+							return false;
+						case "hashCode":
+							return System.identityHashCode(proxy);
+						case "equals":
+							return proxy == args[0];
+						case "toString":
+							return query;
+						default:
+							return null;
+					}
+				});
+	}
+
+}
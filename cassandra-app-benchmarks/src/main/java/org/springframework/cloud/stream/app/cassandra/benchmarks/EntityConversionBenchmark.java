@@ -0,0 +1,150 @@
+/*
+ * Copyright 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.springframework.cloud.stream.app.cassandra.benchmarks;
+
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import org.springframework.data.cassandra.core.convert.MappingCassandraConverter;
+import org.springframework.data.cassandra.core.mapping.PrimaryKey;
+import org.springframework.data.cassandra.core.mapping.Table;
+
+import com.datastax.driver.core.querybuilder.Insert;
+import com.datastax.driver.core.querybuilder.QueryBuilder;
+
+/**
+ * Benchmarks for the conversion of a mapped entity (like the {@code Book} test entity)
+ * into the values and the insert statement of the entity mode of the sink.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class EntityConversionBenchmark {
+
+	private final MappingCassandraConverter converter = new MappingCassandraConverter();
+
+	private Book book;
+
+	@Setup
+	public void setup() {
+		this.converter.afterPropertiesSet();
+		this.book = new Book();
+		this.book.setIsbn(UUID.randomUUID());
+		this.book.setTitle("Spring Cloud Data Flow Guide");
+		this.book.setAuthor("SCDF Guru");
+		this.book.setPages(521);
+		this.book.setSaleDate(new Date());
+		this.book.setInStock(true);
+	}
+
+	@Benchmark
+	public Map<String, Object> toMap() {
+		Map<String, Object> values = new LinkedHashMap<>();
+		this.converter.write(this.book, values);
+		return values;
+	}
+
+	@Benchmark
+	public Insert toInsert() {
+		Insert insert = QueryBuilder.insertInto("book");
+		this.converter.write(this.book, insert);
+		return insert;
+	}
+
+	@Table("book")
+	public static class Book {
+
+		@PrimaryKey
+		private UUID isbn;
+
+		private String title;
+
+		private String author;
+
+		private int pages;
+
+		private Date saleDate;
+
+		private boolean inStock;
+
+		public UUID getIsbn() {
+			return this.isbn;
+		}
+
+		public void setIsbn(UUID isbn) {
+			this.isbn = isbn;
+		}
+
+		public String getTitle() {
+			return this.title;
+		}
+
+		public void setTitle(String title) {
+			this.title = title;
+		}
+
+		public String getAuthor() {
+			return this.author;
+		}
+
+		public void setAuthor(String author) {
+			this.author = author;
+		}
+
+		public int getPages() {
+			return this.pages;
+		}
+
+		public void setPages(int pages) {
+			this.pages = pages;
+		}
+
+		public Date getSaleDate() {
+			return this.saleDate;
+		}
+
+		public void setSaleDate(Date saleDate) {
+			this.saleDate = saleDate;
+		}
+
+		public boolean isInStock() {
+			return this.inStock;
+		}
+
+		public void setInStock(boolean inStock) {
+			this.inStock = inStock;
+		}
+
+	}
+
+}
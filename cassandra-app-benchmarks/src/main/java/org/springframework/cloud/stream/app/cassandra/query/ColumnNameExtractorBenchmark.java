@@ -0,0 +1,77 @@
+/*
+ * Copyright 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.springframework.cloud.stream.app.cassandra.query;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmarks for the {@link InsertQueryColumnNameExtractor} and {@link UpdateQueryColumnNameExtractor}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ColumnNameExtractorBenchmark {
+
+	private static final String INSERT_QUERY =
+			"insert into book (isbn, title, author, pages, saleDate, inStock) values (?, ?, ?, ?, ?, ?)";
+
+	private static final String INSERT_NAMED_QUERY =
+			"insert into book (isbn, title, author, pages, saleDate, inStock) " +
+					"values (:myIsbn, :myTitle, :myAuthor, ?, ?, ?)";
+
+	private static final String UPDATE_QUERY =
+			"update book set inStock = :inStock, author = :author, pages = :pages, " +
+					"saleDate = :saleDate, title = :title where isbn = :isbn";
+
+	private final ColumnNameExtractor insertExtractor = new InsertQueryColumnNameExtractor();
+
+	private final ColumnNameExtractor updateExtractor = new UpdateQueryColumnNameExtractor();
+
+	@Benchmark
+	public List<String> insert() {
+		return this.insertExtractor.extract(INSERT_QUERY);
+	}
+
+	@Benchmark
+	public List<String> insertNamedParameters() {
+		return this.insertExtractor.extract(INSERT_NAMED_QUERY);
+	}
+
+	@Benchmark
+	public List<String> insertBoundColumns() {
+		return this.insertExtractor.extractBoundColumns(INSERT_NAMED_QUERY);
+	}
+
+	@Benchmark
+	public List<String> update() {
+		return this.updateExtractor.extract(UPDATE_QUERY);
+	}
+
+}
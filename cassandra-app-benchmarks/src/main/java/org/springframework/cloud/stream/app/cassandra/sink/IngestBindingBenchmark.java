@@ -0,0 +1,130 @@
+/*
+ * Copyright 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.springframework.cloud.stream.app.cassandra.sink;
+
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import org.springframework.data.cassandra.ReactiveResultSet;
+import org.springframework.data.cassandra.ReactiveSession;
+import org.springframework.data.cassandra.core.ReactiveCassandraTemplate;
+
+import com.datastax.driver.core.DataType;
+import com.datastax.driver.core.PreparedStatement;
+import com.datastax.driver.core.StandInStatements;
+import reactor.core.publisher.Mono;
+
+/**
+ * Benchmarks for the ingest write path of the {@link CassandraSinkMessageHandler}:
+ * statement preparation caching, row binding and the optional partition batching,
+ * executed against a local stand-in session which completes each statement immediately.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class IngestBindingBenchmark {
+
+	private static final String INGEST_QUERY =
+			"insert into book (isbn, title, author, pages, saleDate, inStock) values (?, ?, ?, ?, ?, ?)";
+
+	@Param({ "1", "100", "1000" })
+	public int rows;
+
+	@Param({ "1", "10" })
+	public int rowsPerPartition;
+
+	@Param({ "false", "true" })
+	public boolean partitionBatching;
+
+	private CassandraSinkMessageHandler messageHandler;
+
+	private List<List<?>> payload;
+
+	@Setup
+	public void setup() {
+		PreparedStatement preparedStatement = StandInStatements.prepared(INGEST_QUERY,
+				DataType.uuid(), DataType.text(), DataType.text(), DataType.cint(), DataType.timestamp(),
+				DataType.cboolean());
+		ReactiveResultSet resultSet = standIn(ReactiveResultSet.class, null, null);
+		ReactiveSession session = standIn(ReactiveSession.class, preparedStatement, resultSet);
+
+		this.messageHandler = new CassandraSinkMessageHandler(new ReactiveCassandraTemplate(session));
+		this.messageHandler.setIngestQuery(INGEST_QUERY);
+		if (this.partitionBatching) {
+			this.messageHandler.setPartitionBatching(() -> new int[] { 0 }, 100, 0);
+		}
+
+		this.payload = new ArrayList<>(this.rows);
+		Date saleDate = new Date();
+		UUID isbn = null;
+		for (int i = 0; i < this.rows; i++) {
+			if (i % this.rowsPerPartition == 0) {
+				isbn = UUID.randomUUID();
+			}
+			this.payload.add(Arrays.asList(isbn, "Spring Cloud Data Flow Guide", "SCDF Guru", i, saleDate, true));
+		}
+	}
+
+	@Benchmark
+	public void ingest() {
+		this.messageHandler.ingest(this.payload).block();
+	}
+
+	private static <T> T standIn(Class<T> type, PreparedStatement preparedStatement, ReactiveResultSet resultSet) {
+		return type.cast(Proxy.newProxyInstance(IngestBindingBenchmark.class.getClassLoader(), new Class<?>[] { type },
+				(proxy, method, args) -> {
+					switch (method.getName()) {
+						case "prepare":
+							return Mono.just(preparedStatement);
+						case "execute":
+							return Mono.just(resultSet);
+						case "isClosed":
+							return false;
+						case "wasApplied":
+							return true;
+						case "hashCode":
+							return System.identityHashCode(proxy);
+						case "equals":
+							return proxy == args[0];
+						case "toString":
+							return type.getSimpleName();
+						default:
+							return null;
+					}
+				}));
+	}
+
+}
@@ -0,0 +1,136 @@
+/*
+ * Copyright 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.springframework.cloud.stream.app.cassandra.sink;
+
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import org.springframework.cloud.stream.app.cassandra.query.InsertQueryColumnNameExtractor;
+
+import com.datastax.driver.core.CodecRegistry;
+import com.datastax.driver.core.DataType;
+
+/**
+ * Benchmarks for the {@link PayloadToMatrixTransformer} over JSON arrays of various sizes and widths,
+ * with the heuristic and the schema-aware (typed) column converters.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PayloadToMatrixTransformerBenchmark {
+
+	@Param({ "1", "100", "10000" })
+	public int rows;
+
+	@Param({ "4", "16" })
+	public int columns;
+
+	@Param({ "heuristic", "typed" })
+	public String converters;
+
+	private PayloadToMatrixTransformer transformer;
+
+	private byte[] payload;
+
+	@Setup
+	public void setup() {
+		StringBuilder names = new StringBuilder();
+		StringBuilder markers = new StringBuilder();
+		ColumnConverters columnConverters = new ColumnConverters(new DateTimeParser());
+		ColumnConverter[] typedConverters = new ColumnConverter[this.columns];
+		for (int i = 0; i < this.columns; i++) {
+			if (i > 0) {
+				names.append(", ");
+				markers.append(", ");
+			}
+			names.append("c").append(i);
+			markers.append('?');
+			typedConverters[i] = columnConverters.forType(columnType(i), CodecRegistry.DEFAULT_INSTANCE);
+		}
+		String query = "insert into benchmark (" + names + ") values (" + markers + ")";
+		this.transformer = new PayloadToMatrixTransformer(query, new InsertQueryColumnNameExtractor(),
+				columnConverters);
+		if ("typed".equals(this.converters)) {
+			this.transformer.setColumnConvertersResolver(() -> typedConverters);
+		}
+
+		StringBuilder json = new StringBuilder("[");
+		for (int row = 0; row < this.rows; row++) {
+			if (row > 0) {
+				json.append(',');
+			}
+			json.append('{');
+			for (int i = 0; i < this.columns; i++) {
+				if (i > 0) {
+					json.append(',');
+				}
+				json.append("\"c").append(i).append("\":").append(columnValue(i, row));
+			}
+			json.append(",\"ignored\":{\"nested\":[1,2,3]}}");
+		}
+		json.append(']');
+		this.payload = json.toString().getBytes(StandardCharsets.UTF_8);
+	}
+
+	@Benchmark
+	public List<List<Object>> transform() throws Exception {
+		return this.transformer.transformPayload(this.payload);
+	}
+
+	private static DataType columnType(int column) {
+		switch (column % 4) {
+			case 0:
+				return DataType.uuid();
+			case 1:
+				return DataType.text();
+			case 2:
+				return DataType.cint();
+			default:
+				return DataType.timestamp();
+		}
+	}
+
+	private static String columnValue(int column, int row) {
+		switch (column % 4) {
+			case 0:
+				return "\"" + new UUID(column, row) + "\"";
+			case 1:
+				return "\"value " + row + "\"";
+			case 2:
+				return Integer.toString(row);
+			default:
+				return "\"2019-03-14T10:15:" + (10 + row % 50) + ".123Z\"";
+		}
+	}
+
+}
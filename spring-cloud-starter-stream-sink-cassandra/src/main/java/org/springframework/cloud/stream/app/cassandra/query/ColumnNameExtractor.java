@@ -26,4 +26,15 @@ public interface ColumnNameExtractor {
 
 	List<String> extract(String query);
 
+	/**
+	 * Extract the table column names bound by the query parameters, in the parameter order.
+	 * By default the same as {@link #extract(String)}, which is the case when parameters
+	 * are named after the columns they are bound to.
+	 * @param query the query to parse.
+	 * @return the list of bound table columns.
+	 */
+	default List<String> extractBoundColumns(String query) {
+		return extract(query);
+	}
+
 }
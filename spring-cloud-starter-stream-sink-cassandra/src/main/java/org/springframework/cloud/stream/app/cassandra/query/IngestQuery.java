@@ -0,0 +1,937 @@
+/*
+ * Copyright 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.cloud.stream.app.cassandra.query;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * The parsed {@code INSERT} or {@code UPDATE} ingest query: the bind markers of the query
+ * in their positional order, each with the payload field it is bound from
+ * and the table column or the {@code USING} option it is bound to.
+ * <p>
+ * The query is tokenized according to the CQL lexical rules, so quoted identifiers,
+ * string literals and comments are not mistaken for the query structure.
+ * The {@code IF NOT EXISTS} and {@code IF} clauses, the {@code USING TTL} and {@code USING TIMESTAMP}
+ * options and the {@code AND}-separated {@code WHERE} relations are supported.
+ * A bind marker must be a whole term: a value, a counter increment or decrement
+ * ({@code c = c + ?}) or a collection append or prepend ({@code c = c + ?}, {@code c = ? + c});
+ * the bind markers nested in other terms (function arguments, collection literals etc.) are rejected.
+ * <p>
+ * A positional marker ({@code ?}) reads the field named after its column, or {@code ttl}
+ * and {@code timestamp} for the options; a named marker ({@code :name}) reads the field of its name.
+ * <p>
+ * The {@code SET} assignments of an update, the conditions and the calls of the functions
+ * producing a new value per execution are recorded to tell if the query is idempotent.
+ */
+public final class IngestQuery {
+
+	/**
+	 * The bound column name of a {@code USING TTL} bind marker, as named by the driver.
+	 */
+	public static final String TTL_COLUMN = "[ttl]";
+
+	/**
+	 * The bound column name of a {@code USING TIMESTAMP} bind marker, as named by the driver.
+	 */
+	public static final String TIMESTAMP_COLUMN = "[timestamp]";
+
+	private final String query;
+
+	private final boolean update;
+
+	private final String table;
+
+	private final List<Parameter> parameters;
+
+	private final List<Assignment> assignments;
+
+	private final int ttlOffset;
+
+	private final boolean using;
+
+	private final boolean conditional;
+
+	private final boolean uniqueValueFunctions;
+
+	private IngestQuery(String query, boolean update, String table, Parser parser) {
+		this.query = query;
+		this.update = update;
+		this.table = table;
+		this.parameters = Collections.unmodifiableList(parser.parameters);
+		this.assignments = Collections.unmodifiableList(parser.assignments);
+		this.ttlOffset = parser.ttlOffset;
+		this.using = parser.using;
+		this.conditional = parser.conditional;
+		this.uniqueValueFunctions = parser.uniqueValueFunctions;
+	}
+
+	/**
+	 * Parse the {@code INSERT} or {@code UPDATE} query.
+	 * @param query the query to parse.
+	 * @return the parsed query.
+	 * @throws IllegalArgumentException if the query is not a supported {@code INSERT} or {@code UPDATE}.
+	 */
+	public static IngestQuery parse(String query) {
+		return new Parser(query).parse();
+	}
+
+	public String getQuery() {
+		return this.query;
+	}
+
+	public boolean isUpdate() {
+		return this.update;
+	}
+
+	/**
+	 * Return the target table as it appears in the query, possibly qualified with a keyspace.
+	 * @return the target table.
+	 */
+	public String getTable() {
+		return this.table;
+	}
+
+	public List<Parameter> getParameters() {
+		return this.parameters;
+	}
+
+	/**
+	 * Return the {@code SET} assignments of an update, except the ones of collection elements
+	 * and UDT fields ({@code c[k] = v}, {@code c.f = v}).
+	 * @return the assignments in the query order.
+	 */
+	public List<Assignment> getAssignments() {
+		return this.assignments;
+	}
+
+	/**
+	 * Check if the query is a lightweight transaction: {@code IF [NOT] EXISTS} or {@code IF} conditions.
+	 * @return true for the conditional query.
+	 */
+	public boolean isConditional() {
+		return this.conditional;
+	}
+
+	/**
+	 * Check if the query calls the functions which produce a new value per execution:
+	 * {@code now()}, {@code uuid()} or {@code currentTimeUUID()}.
+	 * @return true if the query calls the unique value functions.
+	 */
+	public boolean hasUniqueValueFunctions() {
+		return this.uniqueValueFunctions;
+	}
+
+	/**
+	 * Return the payload field names of the bind markers in the positional order.
+	 * @return the payload field names.
+	 */
+	public List<String> getParameterNames() {
+		List<String> names = new ArrayList<>(this.parameters.size());
+		for (Parameter parameter : this.parameters) {
+			names.add(parameter.getName());
+		}
+		return names;
+	}
+
+	/**
+	 * Return the table columns or the option columns ({@link #TTL_COLUMN}, {@link #TIMESTAMP_COLUMN})
+	 * bound by the bind markers in the positional order;
+	 * the case-sensitive column names are double-quoted.
+	 * @return the bound columns.
+	 */
+	public List<String> getBoundColumns() {
+		List<String> columns = new ArrayList<>(this.parameters.size());
+		for (Parameter parameter : this.parameters) {
+			columns.add(parameter.getBoundColumn());
+		}
+		return columns;
+	}
+
+	/**
+	 * Return the positions of the bind markers in the {@code WHERE} clause of an update.
+	 * @return the key positions.
+	 */
+	public int[] getKeyPositions() {
+		int[] positions = new int[this.parameters.size()];
+		int keys = 0;
+		for (int i = 0; i < this.parameters.size(); i++) {
+			if (this.parameters.get(i).isKey()) {
+				positions[keys++] = i;
+			}
+		}
+		int[] keyPositions = new int[keys];
+		System.arraycopy(positions, 0, keyPositions, 0, keys);
+		return keyPositions;
+	}
+
+	/**
+	 * Return the position of the {@code USING TTL} bind marker.
+	 * @return the TTL position or -1 if the TTL is not bound.
+	 */
+	public int getTtlPosition() {
+		for (int i = 0; i < this.parameters.size(); i++) {
+			if (TTL_COLUMN.equals(this.parameters.get(i).getColumn())) {
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * Check if the query has a {@code USING TTL} option, either bound or literal.
+	 * @return true if the query sets the TTL.
+	 */
+	public boolean hasTtl() {
+		return this.ttlOffset < 0;
+	}
+
+	/**
+	 * Return the variant of the query with a positional {@code USING TTL} bind marker,
+	 * to write with a TTL per statement; the other bind markers keep their order around it.
+	 * @return the query with the TTL bind marker.
+	 * @throws IllegalStateException if the query has a {@code USING TTL} option already.
+	 */
+	public IngestQuery withTtlMarker() {
+		if (hasTtl()) {
+			throw new IllegalStateException("The query has a USING TTL option already: " + this.query);
+		}
+		return parse(this.query.substring(0, this.ttlOffset)
+				+ (this.using ? " AND TTL ?" : " USING TTL ?")
+				+ this.query.substring(this.ttlOffset));
+	}
+
+	/**
+	 * A bind marker of the query.
+	 */
+	public static final class Parameter {
+
+		private final String name;
+
+		private final String column;
+
+		private final boolean quoted;
+
+		private final boolean key;
+
+		Parameter(String name, String column, boolean quoted, boolean key) {
+			this.name = name;
+			this.column = column;
+			this.quoted = quoted;
+			this.key = key;
+		}
+
+		/**
+		 * Return the payload field name for the bind marker.
+		 * @return the field name.
+		 */
+		public String getName() {
+			return this.name;
+		}
+
+		/**
+		 * Return the column name as written in the query, without quotes,
+		 * or the option column for the {@code USING} options.
+		 * @return the column name.
+		 */
+		public String getColumn() {
+			return this.column;
+		}
+
+		/**
+		 * Return the column name in the form to look up the table metadata with:
+		 * double-quoted if it is case-sensitive.
+		 * @return the bound column.
+		 */
+		public String getBoundColumn() {
+			return boundColumn(this.column, this.quoted);
+		}
+
+		/**
+		 * Check if the bind marker is in the {@code WHERE} clause.
+		 * @return true for the key bind markers.
+		 */
+		public boolean isKey() {
+			return this.key;
+		}
+
+		@Override
+		public String toString() {
+			return this.name + "->" + getBoundColumn();
+		}
+
+	}
+
+	private static String boundColumn(String column, boolean quoted) {
+		return quoted ? '"' + column.replace("\"", "\"\"") + '"' : column;
+	}
+
+	/**
+	 * The operation of a {@code SET} assignment.
+	 */
+	public enum Operation {
+
+		/**
+		 * {@code c = term}.
+		 */
+		SET,
+
+		/**
+		 * {@code c = c + term}: a counter increment or a collection append.
+		 */
+		ADD,
+
+		/**
+		 * {@code c = c - term}: a counter decrement or a collection element removal.
+		 */
+		REMOVE,
+
+		/**
+		 * {@code c = term + c}: a list prepend.
+		 */
+		PREPEND
+
+	}
+
+	/**
+	 * The kind of the term an assignment operates with.
+	 */
+	public enum TermType {
+
+		BIND_MARKER, LIST_LITERAL, SET_OR_MAP_LITERAL, OTHER
+
+	}
+
+	/**
+	 * A {@code SET} assignment of an update.
+	 */
+	public static final class Assignment {
+
+		private final String column;
+
+		private final boolean quoted;
+
+		private final Operation operation;
+
+		private final TermType termType;
+
+		Assignment(String column, boolean quoted, Operation operation, TermType termType) {
+			this.column = column;
+			this.quoted = quoted;
+			this.operation = operation;
+			this.termType = termType;
+		}
+
+		/**
+		 * Return the column name in the form to look up the table metadata with:
+		 * double-quoted if it is case-sensitive.
+		 * @return the assigned column.
+		 */
+		public String getBoundColumn() {
+			return boundColumn(this.column, this.quoted);
+		}
+
+		public Operation getOperation() {
+			return this.operation;
+		}
+
+		public TermType getTermType() {
+			return this.termType;
+		}
+
+		@Override
+		public String toString() {
+			return getBoundColumn() + ' ' + this.operation + ' ' + this.termType;
+		}
+
+	}
+
+	private enum TokenType {
+
+		IDENTIFIER, QUOTED_IDENTIFIER, MARKER, NAMED_MARKER, LITERAL, SYMBOL
+
+	}
+
+	private static final class Token {
+
+		private final TokenType type;
+
+		private final String text;
+
+		private final int end;
+
+		Token(TokenType type, String text, int end) {
+			this.type = type;
+			this.text = text;
+			this.end = end;
+		}
+
+		boolean isKeyword(String keyword) {
+			return this.type == TokenType.IDENTIFIER && this.text.equalsIgnoreCase(keyword);
+		}
+
+		boolean isSymbol(String symbol) {
+			return this.type == TokenType.SYMBOL && this.text.equals(symbol);
+		}
+
+		boolean isIdentifier() {
+			return this.type == TokenType.IDENTIFIER || this.type == TokenType.QUOTED_IDENTIFIER;
+		}
+
+		boolean isMarker() {
+			return this.type == TokenType.MARKER || this.type == TokenType.NAMED_MARKER;
+		}
+
+		@Override
+		public String toString() {
+			return this.text;
+		}
+
+	}
+
+	private static final class Parser {
+
+		private final String query;
+
+		private final List<Token> tokens;
+
+		private final List<Parameter> parameters = new ArrayList<>();
+
+		private final List<Assignment> assignments = new ArrayList<>();
+
+		private int position;
+
+		private int ttlOffset;
+
+		private boolean using;
+
+		private boolean conditional;
+
+		private boolean uniqueValueFunctions;
+
+		Parser(String query) {
+			this.query = query;
+			this.tokens = tokenize(query);
+		}
+
+		IngestQuery parse() {
+			for (int i = 0; i + 1 < this.tokens.size(); i++) {
+				Token token = this.tokens.get(i);
+				if ((token.isKeyword("now") || token.isKeyword("uuid") || token.isKeyword("currenttimeuuid"))
+						&& this.tokens.get(i + 1).isSymbol("(")) {
+
+					this.uniqueValueFunctions = true;
+				}
+			}
+			if (peekKeyword("insert")) {
+				return parseInsert();
+			}
+			else if (peekKeyword("update")) {
+				return parseUpdate();
+			}
+			throw invalid("expected INSERT or UPDATE");
+		}
+
+		/*
+		 * INSERT INTO table (columns) VALUES (terms) [IF NOT EXISTS] [USING options]
+		 */
+		private IngestQuery parseInsert() {
+			expectKeyword("insert");
+			expectKeyword("into");
+			String table = parseTable();
+			if (peekKeyword("json")) {
+				throw invalid("INSERT JSON is not supported");
+			}
+			expectSymbol("(");
+			List<Token> columns = new ArrayList<>();
+			do {
+				columns.add(expectIdentifier());
+			}
+			while (acceptSymbol(","));
+			expectSymbol(")");
+			expectKeyword("values");
+			expectSymbol("(");
+			List<List<Token>> terms = splitTerms(")");
+			expectSymbol(")");
+			if (terms.size() != columns.size()) {
+				throw invalid("the number of values does not match the number of columns");
+			}
+			for (int i = 0; i < columns.size(); i++) {
+				List<Token> term = terms.get(i);
+				if (isSingleMarker(term)) {
+					addParameter(term.get(0), columns.get(i), false);
+				}
+				else {
+					assertNoMarkers(term);
+				}
+			}
+			while (this.position < this.tokens.size() && !peekSymbol(";")) {
+				if (acceptKeyword("if")) {
+					expectKeyword("not");
+					expectKeyword("exists");
+					this.conditional = true;
+				}
+				else if (acceptKeyword("using")) {
+					parseUsing();
+				}
+				else {
+					throw invalid("unexpected '" + peek() + "'");
+				}
+			}
+			if (this.ttlOffset == 0) {
+				this.ttlOffset = lastEnd();
+			}
+			expectEnd();
+			return new IngestQuery(this.query, false, table, this);
+		}
+
+		/*
+		 * UPDATE table [USING options] SET assignments WHERE relations [IF EXISTS | IF conditions]
+		 */
+		private IngestQuery parseUpdate() {
+			expectKeyword("update");
+			String table = parseTable();
+			if (acceptKeyword("using")) {
+				parseUsing();
+			}
+			if (this.ttlOffset == 0) {
+				this.ttlOffset = lastEnd();
+			}
+			expectKeyword("set");
+			for (List<Token> assignment : splitClause("where")) {
+				parseAssignment(assignment);
+			}
+			expectKeyword("where");
+			for (List<Token> relation : splitClause("if")) {
+				parseRelation(relation, true);
+			}
+			if (acceptKeyword("if")) {
+				this.conditional = true;
+				if (!acceptKeyword("exists")) {
+					for (List<Token> condition : splitClause(null)) {
+						parseRelation(condition, false);
+					}
+				}
+			}
+			expectEnd();
+			return new IngestQuery(this.query, true, table, this);
+		}
+
+		private String parseTable() {
+			StringBuilder table = new StringBuilder(expectIdentifier().text);
+			if (acceptSymbol(".")) {
+				table.append('.').append(expectIdentifier().text);
+			}
+			return table.toString();
+		}
+
+		/*
+		 * The query with a TTL option can't have the TTL added: the TTL offset is -1.
+		 */
+		private void parseUsing() {
+			this.using = true;
+			do {
+				String option;
+				if (acceptKeyword("ttl")) {
+					option = "ttl";
+					this.ttlOffset = -1;
+				}
+				else if (acceptKeyword("timestamp")) {
+					option = "timestamp";
+				}
+				else {
+					throw invalid("expected TTL or TIMESTAMP");
+				}
+				Token value = next();
+				if (value.isMarker()) {
+					String name = value.type == TokenType.NAMED_MARKER ? markerName(value) : option;
+					String column = "ttl".equals(option) ? TTL_COLUMN : TIMESTAMP_COLUMN;
+					this.parameters.add(new Parameter(name, column, false, false));
+				}
+			}
+			while (acceptKeyword("and"));
+		}
+
+		/*
+		 * column = term | column = column (+|-) term | column = term + column
+		 */
+		private void parseAssignment(List<Token> assignment) {
+			Token column = assignment.get(0);
+			if (!column.isIdentifier() || assignment.size() < 3 || !assignment.get(1).isSymbol("=")) {
+				assertNoMarkers(assignment);
+				return;
+			}
+			List<Token> value = assignment.subList(2, assignment.size());
+			Operation operation = Operation.SET;
+			List<Token> term = value;
+			if (value.size() > 2 && isSameColumn(value.get(0), column)
+					&& (value.get(1).isSymbol("+") || value.get(1).isSymbol("-"))) {
+
+				operation = value.get(1).isSymbol("+") ? Operation.ADD : Operation.REMOVE;
+				term = value.subList(2, value.size());
+			}
+			else if (value.size() > 2 && value.get(value.size() - 2).isSymbol("+")
+					&& isSameColumn(value.get(value.size() - 1), column)) {
+
+				operation = Operation.PREPEND;
+				term = value.subList(0, value.size() - 2);
+			}
+			if (isSingleMarker(term)) {
+				addParameter(term.get(0), column, false);
+			}
+			else {
+				assertNoMarkers(assignment);
+			}
+			this.assignments.add(new Assignment(unquote(column), column.type == TokenType.QUOTED_IDENTIFIER,
+					operation, termType(term)));
+		}
+
+		private static TermType termType(List<Token> term) {
+			if (isSingleMarker(term)) {
+				return TermType.BIND_MARKER;
+			}
+			else if (term.get(0).isSymbol("[")) {
+				return TermType.LIST_LITERAL;
+			}
+			else if (term.get(0).isSymbol("{")) {
+				return TermType.SET_OR_MAP_LITERAL;
+			}
+			return TermType.OTHER;
+		}
+
+		/*
+		 * column (=|<|>|<=|>=|!=|IN|CONTAINS [KEY]|LIKE) term
+		 */
+		private void parseRelation(List<Token> relation, boolean key) {
+			Token column = relation.get(0);
+			int operator = 1;
+			if (column.isIdentifier() && relation.size() > 2 && relation.get(1).isKeyword("contains")
+					&& relation.get(2).isKeyword("key")) {
+
+				operator = 2;
+			}
+			List<Token> value = relation.subList(Math.min(operator + 1, relation.size()), relation.size());
+			if (column.isIdentifier() && relation.size() > operator && isOperator(relation.get(operator))
+					&& isSingleMarker(value)) {
+
+				addParameter(value.get(0), column, key);
+			}
+			else {
+				assertNoMarkers(relation);
+			}
+		}
+
+		private static boolean isOperator(Token token) {
+			return token.type == TokenType.SYMBOL
+					? token.text.equals("=") || token.text.equals("<") || token.text.equals(">")
+							|| token.text.equals("<=") || token.text.equals(">=") || token.text.equals("!=")
+					: token.isKeyword("in") || token.isKeyword("contains") || token.isKeyword("like");
+		}
+
+		private static boolean isSameColumn(Token token, Token column) {
+			return token.type == column.type
+					&& (token.type == TokenType.QUOTED_IDENTIFIER
+							? token.text.equals(column.text)
+							: token.text.equalsIgnoreCase(column.text));
+		}
+
+		private void addParameter(Token marker, Token column, boolean key) {
+			String name = marker.type == TokenType.NAMED_MARKER ? markerName(marker) : unquote(column);
+			this.parameters.add(new Parameter(name, unquote(column), column.type == TokenType.QUOTED_IDENTIFIER,
+					key));
+		}
+
+		private static String markerName(Token marker) {
+			String name = marker.text.substring(1);
+			return name.startsWith("\"") ? unquote(name) : name;
+		}
+
+		private static String unquote(Token identifier) {
+			return identifier.type == TokenType.QUOTED_IDENTIFIER ? unquote(identifier.text) : identifier.text;
+		}
+
+		private static String unquote(String quoted) {
+			return quoted.substring(1, quoted.length() - 1).replace("\"\"", "\"");
+		}
+
+		private static boolean isSingleMarker(List<Token> term) {
+			return term.size() == 1 && term.get(0).isMarker();
+		}
+
+		private void assertNoMarkers(List<Token> tokens) {
+			for (Token token : tokens) {
+				if (token.isMarker()) {
+					throw invalid("unsupported bind marker in '" + join(tokens) + "'");
+				}
+			}
+		}
+
+		/*
+		 * The comma-separated terms up to the closing symbol at the current nesting level.
+		 */
+		private List<List<Token>> splitTerms(String closing) {
+			List<List<Token>> terms = new ArrayList<>();
+			List<Token> term = new ArrayList<>();
+			int depth = 0;
+			while (this.position < this.tokens.size()) {
+				Token token = peek();
+				if (depth == 0 && token.isSymbol(closing)) {
+					break;
+				}
+				this.position++;
+				if (depth == 0 && token.isSymbol(",")) {
+					terms.add(term);
+					term = new ArrayList<>();
+					continue;
+				}
+				depth += depthChange(token);
+				term.add(token);
+			}
+			if (term.isEmpty()) {
+				throw invalid("empty term");
+			}
+			terms.add(term);
+			return terms;
+		}
+
+		/*
+		 * The comma-separated assignments or the AND-separated relations up to the next clause keyword.
+		 */
+		private List<List<Token>> splitClause(String nextClause) {
+			List<List<Token>> parts = new ArrayList<>();
+			List<Token> part = new ArrayList<>();
+			int depth = 0;
+			while (this.position < this.tokens.size()) {
+				Token token = peek();
+				if (depth == 0 && (token.isSymbol(";") || (nextClause != null && token.isKeyword(nextClause)))) {
+					break;
+				}
+				this.position++;
+				if (depth == 0 && (token.isSymbol(",") || token.isKeyword("and"))) {
+					parts.add(part);
+					part = new ArrayList<>();
+					continue;
+				}
+				depth += depthChange(token);
+				part.add(token);
+			}
+			parts.add(part);
+			for (List<Token> clausePart : parts) {
+				if (clausePart.isEmpty()) {
+					throw invalid("empty assignment or condition");
+				}
+			}
+			return parts;
+		}
+
+		private static int depthChange(Token token) {
+			if (token.isSymbol("(") || token.isSymbol("[") || token.isSymbol("{")) {
+				return 1;
+			}
+			else if (token.isSymbol(")") || token.isSymbol("]") || token.isSymbol("}")) {
+				return -1;
+			}
+			return 0;
+		}
+
+		/*
+		 * The offset in the query right after the last consumed token.
+		 */
+		private int lastEnd() {
+			return this.position > 0 ? this.tokens.get(this.position - 1).end : 0;
+		}
+
+		private Token peek() {
+			return this.position < this.tokens.size() ? this.tokens.get(this.position) : null;
+		}
+
+		private Token next() {
+			if (this.position >= this.tokens.size()) {
+				throw invalid("unexpected end of query");
+			}
+			return this.tokens.get(this.position++);
+		}
+
+		private boolean peekKeyword(String keyword) {
+			Token token = peek();
+			return token != null && token.isKeyword(keyword);
+		}
+
+		private boolean peekSymbol(String symbol) {
+			Token token = peek();
+			return token != null && token.isSymbol(symbol);
+		}
+
+		private boolean acceptKeyword(String keyword) {
+			if (peekKeyword(keyword)) {
+				this.position++;
+				return true;
+			}
+			return false;
+		}
+
+		private boolean acceptSymbol(String symbol) {
+			if (peekSymbol(symbol)) {
+				this.position++;
+				return true;
+			}
+			return false;
+		}
+
+		private void expectKeyword(String keyword) {
+			if (!acceptKeyword(keyword)) {
+				throw invalid("expected " + keyword.toUpperCase(Locale.ROOT));
+			}
+		}
+
+		private void expectSymbol(String symbol) {
+			if (!acceptSymbol(symbol)) {
+				throw invalid("expected '" + symbol + "'");
+			}
+		}
+
+		private Token expectIdentifier() {
+			Token token = next();
+			if (!token.isIdentifier()) {
+				throw invalid("expected an identifier, but got '" + token + "'");
+			}
+			return token;
+		}
+
+		private void expectEnd() {
+			acceptSymbol(";");
+			if (this.position < this.tokens.size()) {
+				throw invalid("unexpected '" + peek() + "'");
+			}
+		}
+
+		private IllegalArgumentException invalid(String reason) {
+			return new IllegalArgumentException("Invalid CQL ingest query syntax (" + reason + "): " + this.query);
+		}
+
+		private static String join(List<Token> tokens) {
+			StringBuilder text = new StringBuilder();
+			for (Token token : tokens) {
+				if (text.length() > 0) {
+					text.append(' ');
+				}
+				text.append(token.text);
+			}
+			return text.toString();
+		}
+
+		private static List<Token> tokenize(String query) {
+			List<Token> tokens = new ArrayList<>();
+			int length = query.length();
+			int i = 0;
+			while (i < length) {
+				char c = query.charAt(i);
+				if (Character.isWhitespace(c)) {
+					i++;
+				}
+				else if ((c == '-' || c == '/') && i + 1 < length && query.charAt(i + 1) == c) {
+					while (i < length && query.charAt(i) != '\n') {
+						i++;
+					}
+				}
+				else if (c == '/' && i + 1 < length && query.charAt(i + 1) == '*') {
+					int end = query.indexOf("*/", i + 2);
+					i = end < 0 ? length : end + 2;
+				}
+				else if (c == '\'' || c == '"') {
+					int end = quotedEnd(query, i, c);
+					tokens.add(new Token(c == '"' ? TokenType.QUOTED_IDENTIFIER : TokenType.LITERAL,
+							query.substring(i, end), end));
+					i = end;
+				}
+				else if (c == '$' && query.startsWith("$$", i)) {
+					int end = query.indexOf("$$", i + 2);
+					end = end < 0 ? length : end + 2;
+					tokens.add(new Token(TokenType.LITERAL, query.substring(i, end), end));
+					i = end;
+				}
+				else if (c == '?') {
+					tokens.add(new Token(TokenType.MARKER, "?", i + 1));
+					i++;
+				}
+				else if (c == ':' && i + 1 < length
+						&& (Character.isLetter(query.charAt(i + 1)) || query.charAt(i + 1) == '"')) {
+
+					int end = query.charAt(i + 1) == '"' ? quotedEnd(query, i + 1, '"') : wordEnd(query, i + 1);
+					tokens.add(new Token(TokenType.NAMED_MARKER, query.substring(i, end), end));
+					i = end;
+				}
+				else if (Character.isLetter(c)) {
+					int end = wordEnd(query, i);
+					tokens.add(new Token(TokenType.IDENTIFIER, query.substring(i, end), end));
+					i = end;
+				}
+				else if (Character.isDigit(c)) {
+					int end = i;
+					while (end < length && (isWordPart(query.charAt(end)) || query.charAt(end) == '.')) {
+						end++;
+					}
+					tokens.add(new Token(TokenType.LITERAL, query.substring(i, end), end));
+					i = end;
+				}
+				else if ((c == '<' || c == '>' || c == '!') && i + 1 < length && query.charAt(i + 1) == '=') {
+					tokens.add(new Token(TokenType.SYMBOL, query.substring(i, i + 2), i + 2));
+					i += 2;
+				}
+				else {
+					tokens.add(new Token(TokenType.SYMBOL, String.valueOf(c), i + 1));
+					i++;
+				}
+			}
+			return tokens;
+		}
+
+		/*
+		 * The end of a quoted string or identifier; the doubled quote is an escaped one.
+		 */
+		private static int quotedEnd(String query, int start, char quote) {
+			int i = start + 1;
+			while (i < query.length()) {
+				if (query.charAt(i) == quote) {
+					if (i + 1 < query.length() && query.charAt(i + 1) == quote) {
+						i += 2;
+						continue;
+					}
+					return i + 1;
+				}
+				i++;
+			}
+			throw new IllegalArgumentException("Unterminated quoted text in CQL query: " + query);
+		}
+
+		private static int wordEnd(String query, int start) {
+			int i = start;
+			while (i < query.length() && isWordPart(query.charAt(i))) {
+				i++;
+			}
+			return i;
+		}
+
+		private static boolean isWordPart(char c) {
+			return Character.isLetterOrDigit(c) || c == '_';
+		}
+
+	}
+
+}
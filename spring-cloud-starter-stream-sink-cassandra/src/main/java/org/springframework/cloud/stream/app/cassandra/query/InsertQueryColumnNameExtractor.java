@@ -15,42 +15,33 @@
 
 package org.springframework.cloud.stream.app.cassandra.query;
 
-import java.util.LinkedList;
 import java.util.List;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
-
-import org.springframework.util.StringUtils;
 
 /**
+ * Extracts the payload field names of the {@code INSERT} query bind markers,
+ * see {@link IngestQuery} for the supported syntax.
+ *
  * @author Akos Ratku
  * @author Artem Bilan
  */
 public class InsertQueryColumnNameExtractor implements ColumnNameExtractor {
 
-	private static final Pattern PATTERN = Pattern.compile(".+\\((.+)\\).+(?:values\\s*\\((.+)\\))");
-
 	@Override
 	public List<String> extract(String query) {
-		List<String> extractedColumns = new LinkedList<>();
-		Matcher matcher = PATTERN.matcher(query);
-		if (matcher.matches()) {
-			String[] columns = StringUtils.delimitedListToStringArray(matcher.group(1), ",", " ");
-			String[] params = StringUtils.delimitedListToStringArray(matcher.group(2), ",", " ");
-			for (int i = 0; i < columns.length; i++) {
-				String param = params[i];
-				if (param.equals("?")) {
-					extractedColumns.add(columns[i]);
-				}
-				else if (param.startsWith(":")) {
-					extractedColumns.add(param.substring(1));
-				}
-			}
-		}
-		else {
+		return parse(query).getParameterNames();
+	}
+
+	@Override
+	public List<String> extractBoundColumns(String query) {
+		return parse(query).getBoundColumns();
+	}
+
+	private static IngestQuery parse(String query) {
+		IngestQuery ingestQuery = IngestQuery.parse(query);
+		if (ingestQuery.isUpdate()) {
 			throw new IllegalArgumentException("Invalid CQL insert query syntax: " + query);
 		}
-		return extractedColumns;
+		return ingestQuery;
 	}
 
 }
@@ -15,37 +15,71 @@
 
 package org.springframework.cloud.stream.app.cassandra.query;
 
-import java.util.LinkedList;
+import java.util.ArrayList;
 import java.util.List;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
 
 import org.springframework.util.StringUtils;
 
 /**
+ * Extracts the payload field names of the {@code UPDATE} query bind markers,
+ * see {@link IngestQuery} for the supported syntax.
+ * The bind markers bound to the table columns read the fields named after the columns.
+ *
  * @author Akos Ratku
  * @author Artem Bilan
  */
 public class UpdateQueryColumnNameExtractor implements ColumnNameExtractor {
 
-	private static final Pattern PATTERN = Pattern.compile("(?i)(?<=set)(.*)(?=where)where(.*)");
-
 	@Override
 	public List<String> extract(String query) {
-		List<String> extractedColumns = new LinkedList<>();
-		Matcher matcher = PATTERN.matcher(query);
-		if (matcher.find()) {
-			String[] settings = StringUtils.delimitedListToStringArray(matcher.group(1), ",", " ");
-			String[] where = StringUtils.delimitedListToStringArray(matcher.group(2), ",", " ");
-			readPairs(extractedColumns, settings);
-			readPairs(extractedColumns, where);
+		List<String> extractedColumns = new ArrayList<>();
+		for (IngestQuery.Parameter parameter : parse(query).getParameters()) {
+			extractedColumns.add(isOption(parameter) ? parameter.getName() : parameter.getColumn());
 		}
-		else {
+		return extractedColumns;
+	}
+
+	@Override
+	public List<String> extractBoundColumns(String query) {
+		return parse(query).getBoundColumns();
+	}
+
+	/**
+	 * Extract the column names bound in the {@code WHERE} clause.
+	 * @param query the query to parse.
+	 * @return the list of the key columns.
+	 * @see IngestQuery#getKeyPositions()
+	 */
+	public List<String> extractKeyColumns(String query) {
+		List<String> keyColumns = new ArrayList<>();
+		for (IngestQuery.Parameter parameter : parse(query).getParameters()) {
+			if (parameter.isKey()) {
+				keyColumns.add(parameter.getColumn());
+			}
+		}
+		return keyColumns;
+	}
+
+	private static IngestQuery parse(String query) {
+		IngestQuery ingestQuery = IngestQuery.parse(query);
+		if (!ingestQuery.isUpdate()) {
 			throw new IllegalArgumentException("Invalid CQL update query syntax: " + query);
 		}
-		return extractedColumns;
+		return ingestQuery;
+	}
+
+	private static boolean isOption(IngestQuery.Parameter parameter) {
+		return IngestQuery.TTL_COLUMN.equals(parameter.getColumn())
+				|| IngestQuery.TIMESTAMP_COLUMN.equals(parameter.getColumn());
 	}
 
+	/**
+	 * Add the columns of the {@code column = value} pairs with a bind marker value.
+	 * @param extractedColumns the list to add the columns to.
+	 * @param settings the {@code column = value} pairs.
+	 * @deprecated since the query is parsed with {@link IngestQuery}; not used by {@link #extract(String)}.
+	 */
+	@Deprecated
 	protected void readPairs(List<String> extractedColumns, String[] settings) {
 		for (String setting : settings) {
 			String[] columnValuePair = StringUtils.delimitedListToStringArray(setting, "=", " ");
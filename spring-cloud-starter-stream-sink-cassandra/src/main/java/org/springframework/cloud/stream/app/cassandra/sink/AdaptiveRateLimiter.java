@@ -0,0 +1,181 @@
+/*
+ * Copyright 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.cloud.stream.app.cassandra.sink;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+import org.springframework.util.Assert;
+
+import com.datastax.driver.core.exceptions.BusyPoolException;
+import com.datastax.driver.core.exceptions.NoHostAvailableException;
+import com.datastax.driver.core.exceptions.OperationTimedOutException;
+import com.datastax.driver.core.exceptions.OverloadedException;
+import com.datastax.driver.core.exceptions.WriteTimeoutException;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+
+/**
+ * The AIMD (additive-increase, multiplicative-decrease) rate limiter for the rows written to Cassandra.
+ * <p>
+ * The {@link #acquire(int)} paces the calling thread to the current rate limit.
+ * As a {@link WriteListener} the limiter halves the rate (down to the min rate) on overload signals:
+ * write timeouts, overloaded or busy coordinators and a p99 write latency above the target.
+ * Otherwise the rate grows by a hundredth of the max rate per second, up to the max rate.
+ * Decreases are applied at most once per {@link #DECREASE_INTERVAL_NANOS}, so a burst of
+ * failures from the same overload episode doesn't collapse the rate to the minimum.
+ * <p>
+ * As a {@link MeterBinder} the limiter exposes the current limit as
+ * the {@code cassandra.sink.write.rate.limit} gauge.
+ */
+class AdaptiveRateLimiter implements WriteListener, MeterBinder {
+
+	private static final long DECREASE_INTERVAL_NANOS = TimeUnit.MILLISECONDS.toNanos(500);
+
+	private static final int LATENCY_SAMPLES = 128;
+
+	private final Object monitor = new Object();
+
+	private final double maxRate;
+
+	private final double minRate;
+
+	private final double increment;
+
+	private final long targetLatencyNanos;
+
+	private final long[] latencies = new long[LATENCY_SAMPLES];
+
+	private int latencyCount;
+
+	private volatile double rate;
+
+	private long nextFreeNanos = System.nanoTime();
+
+	private long lastDecreaseNanos = System.nanoTime() - DECREASE_INTERVAL_NANOS;
+
+	/**
+	 * @param maxRate the max (and initial) number of rows per second.
+	 * @param minRate the min number of rows per second.
+	 * @param targetLatency the target p99 write latency in milliseconds; 0 to ignore the latency.
+	 */
+	AdaptiveRateLimiter(double maxRate, double minRate, long targetLatency) {
+		Assert.isTrue(maxRate > 0, "'maxRate' must be greater than 0");
+		Assert.isTrue(minRate > 0 && minRate <= maxRate, "'minRate' must be greater than 0 and not above 'maxRate'");
+		this.maxRate = maxRate;
+		this.minRate = minRate;
+		this.increment = maxRate / 100;
+		this.targetLatencyNanos = TimeUnit.MILLISECONDS.toNanos(targetLatency);
+		this.rate = maxRate;
+	}
+
+	/**
+	 * Wait until the rows are permitted by the current rate.
+	 * @param rows the number of rows to write.
+	 */
+	void acquire(int rows) {
+		long waitNanos;
+		synchronized (this.monitor) {
+			long now = System.nanoTime();
+			long next = Math.max(this.nextFreeNanos, now);
+			waitNanos = next - now;
+			this.nextFreeNanos = next + (long) (rows * 1_000_000_000d / this.rate);
+		}
+		while (waitNanos > 0 && !Thread.currentThread().isInterrupted()) {
+			long start = System.nanoTime();
+			LockSupport.parkNanos(waitNanos);
+			waitNanos -= System.nanoTime() - start;
+		}
+	}
+
+	double getRate() {
+		return this.rate;
+	}
+
+	@Override
+	public void onWriteSuccess(int rows, long latencyNanos) {
+		synchronized (this.monitor) {
+			if (this.targetLatencyNanos > 0 && p99Exceeded(latencyNanos)) {
+				decrease();
+			}
+			else {
+				this.rate = Math.min(this.maxRate, this.rate + this.increment * rows / this.rate);
+			}
+		}
+	}
+
+	@Override
+	public void onWriteFailure(int rows, long latencyNanos, Throwable cause) {
+		if (isOverload(cause)) {
+			synchronized (this.monitor) {
+				decrease();
+			}
+		}
+	}
+
+	private boolean p99Exceeded(long latencyNanos) {
+		this.latencies[this.latencyCount++] = latencyNanos;
+		if (this.latencyCount < LATENCY_SAMPLES) {
+			return false;
+		}
+		this.latencyCount = 0;
+		long[] sorted = this.latencies.clone();
+		Arrays.sort(sorted);
+		return sorted[(int) Math.ceil(LATENCY_SAMPLES * 0.99) - 1] > this.targetLatencyNanos;
+	}
+
+	private void decrease() {
+		long now = System.nanoTime();
+		if (now - this.lastDecreaseNanos >= DECREASE_INTERVAL_NANOS) {
+			this.lastDecreaseNanos = now;
+			this.rate = Math.max(this.minRate, this.rate / 2);
+		}
+	}
+
+	private static boolean isOverload(Throwable cause) {
+		for (Throwable current = cause; current != null; current = current.getCause()) {
+			if (current instanceof WriteTimeoutException
+					|| current instanceof OverloadedException
+					|| current instanceof OperationTimedOutException
+					|| current instanceof BusyPoolException) {
+
+				return true;
+			}
+			if (current instanceof NoHostAvailableException) {
+				for (Throwable error : ((NoHostAvailableException) current).getErrors().values()) {
+					if (isOverload(error)) {
+						return true;
+					}
+				}
+			}
+			if (current.getCause() == current) {
+				break;
+			}
+		}
+		return false;
+	}
+
+	@Override
+	public void bindTo(MeterRegistry registry) {
+		Gauge.builder("cassandra.sink.write.rate.limit", this, AdaptiveRateLimiter::getRate)
+				.description("The current limit of rows per second written to Cassandra")
+				.register(registry);
+	}
+
+}
@@ -0,0 +1,81 @@
+/*
+ * Copyright 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.cloud.stream.app.cassandra.sink;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+
+import org.springframework.core.io.Resource;
+import org.springframework.util.MimeType;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.dataformat.avro.AvroMapper;
+import com.fasterxml.jackson.dataformat.avro.AvroSchema;
+
+/**
+ * The {@link JacksonPayloadCodec} for Avro binary payloads (a single record or a sequence of records
+ * without a container) with the provided writer schema.
+ * With a reader schema the records are resolved from the writer schema according to the Avro
+ * schema resolution rules, e.g. for the fields added or removed by the producers.
+ */
+class AvroPayloadCodec extends JacksonPayloadCodec {
+
+	static final MimeType[] CONTENT_TYPES = {
+			MimeType.valueOf("application/avro"),
+			MimeType.valueOf("avro/binary")
+	};
+
+	private final AvroSchema schema;
+
+	/**
+	 * @param writerSchema the schema the payloads are written with.
+	 * @param readerSchema the schema to resolve the records to; may be null.
+	 */
+	AvroPayloadCodec(Resource writerSchema, Resource readerSchema) {
+		this(new AvroMapper(), writerSchema, readerSchema);
+	}
+
+	private AvroPayloadCodec(AvroMapper avroMapper, Resource writerSchema, Resource readerSchema) {
+		super(avroMapper.getFactory(), CONTENT_TYPES);
+		try {
+			AvroSchema schema = schema(avroMapper, writerSchema);
+			if (readerSchema != null) {
+				schema = schema.withReaderSchema(schema(avroMapper, readerSchema));
+			}
+			this.schema = schema;
+		}
+		catch (IOException ex) {
+			throw new UncheckedIOException("Cannot resolve Avro schema from " + writerSchema
+					+ (readerSchema != null ? " to " + readerSchema : ""), ex);
+		}
+	}
+
+	@Override
+	public JsonParser createParser(Object payload) throws IOException {
+		JsonParser parser = super.createParser(payload);
+		parser.setSchema(this.schema);
+		return parser;
+	}
+
+	private static AvroSchema schema(AvroMapper avroMapper, Resource resource) throws IOException {
+		try (InputStream inputStream = resource.getInputStream()) {
+			return avroMapper.schemaFrom(inputStream);
+		}
+	}
+
+}
@@ -17,18 +17,24 @@
 package org.springframework.cloud.stream.app.cassandra.sink;
 
 import java.util.ArrayList;
-import java.util.LinkedList;
 import java.util.List;
-import java.util.Map;
-import java.util.UUID;
+import java.util.function.BiFunction;
+import java.util.function.Supplier;
 
+import org.springframework.beans.factory.ObjectProvider;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.boot.autoconfigure.cassandra.CassandraProperties;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnExpression;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
 import org.springframework.boot.context.properties.EnableConfigurationProperties;
 import org.springframework.cloud.stream.annotation.EnableBinding;
 import org.springframework.cloud.stream.app.cassandra.CassandraAppClusterConfiguration;
 import org.springframework.cloud.stream.app.cassandra.query.ColumnNameExtractor;
+import org.springframework.cloud.stream.app.cassandra.query.IngestQuery;
 import org.springframework.cloud.stream.app.cassandra.query.InsertQueryColumnNameExtractor;
 import org.springframework.cloud.stream.app.cassandra.query.UpdateQueryColumnNameExtractor;
+import org.springframework.cloud.stream.binding.BinderAwareChannelResolver;
 import org.springframework.cloud.stream.messaging.Sink;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Import;
@@ -41,14 +47,20 @@ import org.springframework.integration.annotation.ServiceActivator;
 import org.springframework.integration.cassandra.outbound.CassandraMessageHandler;
 import org.springframework.integration.handler.AbstractMessageProducingHandler;
 import org.springframework.integration.handler.BridgeHandler;
-import org.springframework.integration.support.json.Jackson2JsonObjectMapper;
-import org.springframework.integration.transformer.AbstractPayloadTransformer;
+import org.springframework.integration.support.IntegrationMessageHeaderAccessor;
 import org.springframework.integration.transformer.MessageTransformingHandler;
 import org.springframework.messaging.MessageHandler;
+import org.springframework.util.Assert;
+import org.springframework.util.MimeType;
 import org.springframework.util.StringUtils;
 
-import com.fasterxml.jackson.databind.DeserializationFeature;
-import com.fasterxml.jackson.databind.util.StdDateFormat;
+import com.datastax.driver.core.Cluster;
+import com.datastax.driver.core.TableMetadata;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.cbor.CBORFactory;
+import com.fasterxml.jackson.dataformat.smile.SmileFactory;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.composite.CompositeMeterRegistry;
 
 /**
  * @author Artem Bilan
@@ -67,31 +79,251 @@ public class CassandraSinkConfiguration {
 	@Bean
 	@Primary
 	@ServiceActivator(inputChannel = Sink.INPUT)
-	public MessageHandler bridgeMessageHandler() {
+	public MessageHandler bridgeMessageHandler(Cluster cluster, CassandraProperties cassandraProperties,
+			SinkMetrics sinkMetrics, ObjectProvider<PayloadCodec> payloadCodecs) {
+
 		AbstractMessageProducingHandler messageHandler;
-		if (StringUtils.hasText(this.cassandraSinkProperties.getIngestQuery())) {
-			messageHandler = new MessageTransformingHandler(
-					new PayloadToMatrixTransformer(this.cassandraSinkProperties.getIngestQuery(),
-							CassandraMessageHandler.Type.UPDATE == this.cassandraSinkProperties.getQueryType()
-									? new UpdateQueryColumnNameExtractor()
-									: new InsertQueryColumnNameExtractor()));
+		String ingestQuery = this.cassandraSinkProperties.getIngestQuery();
+		if (StringUtils.hasText(ingestQuery)) {
+			ColumnNameExtractor columnNameExtractor = columnNameExtractor();
+			ColumnConverters columnConverters =
+					new ColumnConverters(new DateTimeParser(this.cassandraSinkProperties.getDateTimePatterns()));
+			PayloadToMatrixTransformer transformer =
+					new PayloadToMatrixTransformer(ingestQuery, columnNameExtractor, columnConverters);
+			transformer.setColumnConvertersResolver(() ->
+					columnConverters.forIngestQuery(cluster, cassandraProperties.getKeyspaceName(), ingestQuery,
+							columnNameExtractor));
+			transformer.setMetrics(sinkMetrics);
+			transformer.setPayloadCodecs(payloadCodecs(payloadCodecs));
+			transformer.setLenientConversion(this.cassandraSinkProperties.isIngestErrorIsolation());
+			transformer.setUnsetAbsent(this.cassandraSinkProperties.isIngestUnsetAbsentFields());
+			transformer.setUnsetNulls(this.cassandraSinkProperties.isIngestUnsetNullFields());
+			if (this.cassandraSinkProperties.getIngestChunkSize() > 0) {
+				PayloadToMatrixSplitter splitter =
+						new PayloadToMatrixSplitter(transformer, this.cassandraSinkProperties.getIngestChunkSize());
+				splitter.setCompletionChunk(this.cassandraSinkProperties.isAckAfterWrite());
+				messageHandler = splitter;
+			}
+			else {
+				messageHandler = new MessageTransformingHandler(transformer);
+			}
 		}
 		else {
 			messageHandler = new BridgeHandler();
 		}
-		messageHandler.setOutputChannelName("toSink");
+		if (StringUtils.hasText(ingestQuery) && this.cassandraSinkProperties.getCounterFlushInterval() > 0) {
+			messageHandler.setOutputChannelName("toCounterAggregator");
+		}
+		else if (StringUtils.hasText(ingestQuery) && this.cassandraSinkProperties.getIngestWindowSize() > 0) {
+			messageHandler.setOutputChannelName("toIngestWindow");
+		}
+		else {
+			messageHandler.setOutputChannelName(writeChannelName());
+		}
 		return messageHandler;
 	}
 
+	private List<PayloadCodec> payloadCodecs(ObjectProvider<PayloadCodec> customCodecs) {
+		List<PayloadCodec> payloadCodecs = new ArrayList<>();
+		customCodecs.orderedStream().forEach(payloadCodecs::add);
+		if (this.cassandraSinkProperties.getAvroSchema() != null) {
+			payloadCodecs.add(new AvroPayloadCodec(this.cassandraSinkProperties.getAvroSchema(),
+					this.cassandraSinkProperties.getAvroReaderSchema()));
+		}
+		payloadCodecs.add(new CsvPayloadCodec(this.cassandraSinkProperties.getCsvColumnSeparator()));
+		payloadCodecs.add(new JacksonPayloadCodec(new ObjectMapper(new CBORFactory()).getFactory(),
+				MimeType.valueOf("application/cbor")));
+		payloadCodecs.add(new JacksonPayloadCodec(new ObjectMapper(new SmileFactory()).getFactory(),
+				MimeType.valueOf("application/x-jackson-smile")));
+		return payloadCodecs;
+	}
+
+	@Bean
+	public SinkMetrics sinkMetrics(ObjectProvider<MeterRegistry> meterRegistry,
+			CassandraProperties cassandraProperties) {
+
+		CassandraMessageHandler.Type queryType = this.cassandraSinkProperties.getQueryType();
+		// the same registry the MeterBinder beans are bound to; no-op meters without it
+		return new SinkMetrics(meterRegistry.getIfUnique(CompositeMeterRegistry::new),
+				cassandraProperties.getKeyspaceName(),
+				(queryType != null ? queryType : CassandraMessageHandler.Type.INSERT).name());
+	}
+
+	@Bean
+	@ConditionalOnExpression("${cassandra.ingest-window-size:0} > 0")
+	@ServiceActivator(inputChannel = "toIngestWindow")
+	public IngestWindowHandler ingestWindowHandler(ObjectProvider<Deduplicator> deduplicator) {
+		Assert.state(StringUtils.hasText(this.cassandraSinkProperties.getDeadLetterDestination()),
+				"The ingest windows require the dead-letter-destination: "
+						+ "the windows are written after their messages are acknowledged");
+		IngestWindowHandler ingestWindowHandler =
+				new IngestWindowHandler(this.cassandraSinkProperties.getIngestWindowSize(),
+						this.cassandraSinkProperties.getIngestWindowBytes(),
+						this.cassandraSinkProperties.getIngestWindowTimeout());
+		if (this.cassandraSinkProperties.getIngestWindowTargetLatency() > 0) {
+			ingestWindowHandler.setAdaptive(this.cassandraSinkProperties.getIngestWindowTargetLatency());
+		}
+		String dedupKeyHeader = this.cassandraSinkProperties.getDedupKeyHeader();
+		if (StringUtils.hasText(dedupKeyHeader)) {
+			deduplicator.ifAvailable(dedup -> ingestWindowHandler.setDeduplicator(dedup, dedupKeyHeader));
+		}
+		if (isIngestWindowCoalesce()) {
+			Assert.state(this.cassandraSinkProperties.isIngestUnsetAbsentFields(),
+					"The ingest window coalescing requires the ingest-unset-absent-fields: "
+							+ "the absent fields written as nulls would override the earlier updates");
+			ingestWindowHandler.setCoalescing(updateKeyPositions(this.cassandraSinkProperties.getIngestQuery()));
+		}
+		ingestWindowHandler.setOutputChannelName(writeChannelName());
+		return ingestWindowHandler;
+	}
+
+	@Bean
+	@ConditionalOnExpression("${cassandra.counter-flush-interval:0} > 0")
+	@ServiceActivator(inputChannel = "toCounterAggregator")
+	public CounterAggregator counterAggregator() {
+		String ingestQuery = this.cassandraSinkProperties.getIngestQuery();
+		Assert.state(StringUtils.hasText(ingestQuery)
+						&& CassandraMessageHandler.Type.UPDATE == this.cassandraSinkProperties.getQueryType(),
+				"The counter aggregation requires an UPDATE ingest query");
+		Assert.state(StringUtils.hasText(this.cassandraSinkProperties.getDeadLetterDestination()),
+				"The counter aggregation requires the dead-letter-destination: "
+						+ "the summed increments are written after their messages are acknowledged");
+		IngestQuery counterQuery = IngestQuery.parse(ingestQuery);
+		int[] keyPositions = counterQuery.getKeyPositions();
+		Assert.state(keyPositions.length > 0 && keyPositions[0] > 0,
+				"The counter update ingest query must have SET and WHERE clause parameters");
+		List<IngestQuery.Assignment> assignments = counterQuery.getAssignments();
+		Assert.state(assignments.size() == keyPositions[0]
+						&& assignments.stream().allMatch(assignment ->
+								assignment.getTermType() == IngestQuery.TermType.BIND_MARKER
+										&& (assignment.getOperation() == IngestQuery.Operation.ADD
+												|| assignment.getOperation() == IngestQuery.Operation.REMOVE)),
+				() -> "The counter aggregation requires only 'c = c + ?' or 'c = c - ?' assignments, but got: "
+						+ assignments);
+		int[] counterPositions = new int[keyPositions[0]];
+		for (int i = 0; i < counterPositions.length; i++) {
+			counterPositions[i] = i;
+		}
+		CounterAggregator counterAggregator =
+				new CounterAggregator(counterPositions, keyPositions,
+						this.cassandraSinkProperties.getCounterFlushInterval(),
+						this.cassandraSinkProperties.getCounterMaxKeys());
+		counterAggregator.setOutputChannelName(writeChannelName());
+		return counterAggregator;
+	}
+
+	@Bean
+	@ConditionalOnExpression("${cassandra.write-lanes:0} > 0")
+	@ServiceActivator(inputChannel = "toWriteLanes")
+	public WriteLanes writeLanes(ReactiveCassandraOperations cassandraOperations, Cluster cluster,
+			CassandraProperties cassandraProperties) {
+
+		WriteLanes writeLanes =
+				new WriteLanes(this.cassandraSinkProperties.getWriteLanes(),
+						this.cassandraSinkProperties.getWriteLaneCapacity());
+		if (this.cassandraSinkProperties.isWriteLaneVirtualThreads()) {
+			writeLanes.setSharedThreads(this.cassandraSinkProperties.getWriteLaneMaxPlatformThreads());
+		}
+		if (StringUtils.hasText(this.cassandraSinkProperties.getIngestQuery())) {
+			writeLanes.setKeyPositionsResolvers(
+					ingestKeyPositions(cluster, cassandraProperties, IngestQueryTable::partitionKeyPositions),
+					ingestKeyPositions(cluster, cassandraProperties, IngestQueryTable::primaryKeyPositions));
+		}
+		writeLanes.setEntityKeyResolver(
+				WriteLanes.entityPartitionKey(cassandraOperations.getConverter().getMappingContext()));
+		writeLanes.setOutputChannelName("toSink");
+		return writeLanes;
+	}
+
+	@Bean
+	@ConditionalOnProperty(prefix = "cassandra", name = "reactive", havingValue = "true")
+	@ServiceActivator(inputChannel = "toReactiveWriter")
+	public ReactiveWriter reactiveWriter(
+			@Qualifier("cassandraSinkMessageHandler") MessageHandler cassandraSinkMessageHandler) {
+
+		Assert.state(this.cassandraSinkProperties.getWriteLanes() == 0,
+				"The reactive mode cannot be combined with the write lanes");
+		Assert.state(StringUtils.hasText(this.cassandraSinkProperties.getDeadLetterDestination())
+						|| this.cassandraSinkProperties.isAckAfterWrite(),
+				"The reactive mode requires the dead-letter-destination or the ack-after-write mode: "
+						+ "the failed writes cannot fail their messages");
+		Assert.state(!this.cassandraSinkProperties.isAckAfterWrite()
+						|| this.cassandraSinkProperties.getReactiveWindowSize() == 0,
+				"The ack-after-write mode cannot be combined with the reactive windows");
+		ReactiveWriter reactiveWriter =
+				new ReactiveWriter(((CassandraSinkMessageHandler) cassandraSinkMessageHandler)::write,
+						this.cassandraSinkProperties.getReactiveConcurrency(),
+						this.cassandraSinkProperties.getReactiveMaxInFlight());
+		if (this.cassandraSinkProperties.getReactiveWindowSize() > 0) {
+			reactiveWriter.setWindow(this.cassandraSinkProperties.getReactiveWindowSize(),
+					this.cassandraSinkProperties.getReactiveWindowTimeout());
+		}
+		return reactiveWriter;
+	}
+
+	@Bean
+	@ConditionalOnExpression("${cassandra.dedup-window:0} > 0")
+	public Deduplicator deduplicator() {
+		return new Deduplicator(this.cassandraSinkProperties.getDedupMaxEntries(),
+				this.cassandraSinkProperties.getDedupWindow());
+	}
+
+	@Bean
+	@ConditionalOnExpression("${cassandra.max-in-flight-writes:0} > 0 or ${cassandra.max-in-flight-bytes:0} > 0")
+	public InFlightLimiter inFlightLimiter() {
+		return new InFlightLimiter(this.cassandraSinkProperties.getMaxInFlightWrites(),
+				this.cassandraSinkProperties.getMaxInFlightBytes());
+	}
+
+	@Bean
+	@ConditionalOnExpression("${cassandra.max-write-rate:0} > 0")
+	public AdaptiveRateLimiter adaptiveRateLimiter() {
+		return new AdaptiveRateLimiter(this.cassandraSinkProperties.getMaxWriteRate(),
+				this.cassandraSinkProperties.getMinWriteRate(),
+				this.cassandraSinkProperties.getWriteRateTargetLatency());
+	}
+
+	@Bean
+	@ConditionalOnProperty(prefix = "cassandra", name = "statement-expression")
+	public PreparedStatementCache preparedStatementCache() {
+		return new PreparedStatementCache(this.cassandraSinkProperties.getStatementCacheSize());
+	}
+
 	@Bean
 	@ServiceActivator(inputChannel = "toSink")
-	public MessageHandler cassandraSinkMessageHandler(ReactiveCassandraOperations cassandraOperations) {
-		CassandraMessageHandler cassandraMessageHandler =
+	public MessageHandler cassandraSinkMessageHandler(ReactiveCassandraOperations cassandraOperations,
+			ObjectProvider<IngestWindowHandler> ingestWindowHandler, ObjectProvider<InFlightLimiter> inFlightLimiter,
+			ObjectProvider<PreparedStatementCache> preparedStatementCache,
+			ObjectProvider<AdaptiveRateLimiter> adaptiveRateLimiter, ObjectProvider<Deduplicator> deduplicator,
+			SinkMetrics sinkMetrics, Cluster cluster,
+			CassandraProperties cassandraProperties, BinderAwareChannelResolver channelResolver) {
+
+		CassandraSinkMessageHandler cassandraMessageHandler =
 				this.cassandraSinkProperties.getQueryType() != null
-						? new CassandraMessageHandler(cassandraOperations, this.cassandraSinkProperties.getQueryType())
-						: new CassandraMessageHandler(cassandraOperations);
+						? new CassandraSinkMessageHandler(cassandraOperations,
+								this.cassandraSinkProperties.getQueryType())
+						: new CassandraSinkMessageHandler(cassandraOperations);
 		cassandraMessageHandler.setProducesReply(false);
-		cassandraMessageHandler.setAsync(this.cassandraSinkProperties.isAsync());
+		cassandraMessageHandler.setAsync((this.cassandraSinkProperties.isAsync()
+				|| this.cassandraSinkProperties.isAckAfterWrite())
+				&& this.cassandraSinkProperties.getWriteLanes() == 0);
+		if (this.cassandraSinkProperties.isAckAfterWrite()) {
+			Assert.state(this.cassandraSinkProperties.getIngestWindowSize() == 0
+							&& this.cassandraSinkProperties.getCounterFlushInterval() == 0
+							&& this.cassandraSinkProperties.getWriteLanes() == 0,
+					"The ack-after-write mode cannot be combined with the ingest windows, "
+							+ "the counter aggregation or the write lanes");
+			Assert.state(IntegrationMessageHeaderAccessor.ACKNOWLEDGMENT_CALLBACK
+							.equals(this.cassandraSinkProperties.getAckHeader())
+							|| StringUtils.hasText(this.cassandraSinkProperties.getDeadLetterDestination()),
+					"The ack-after-write mode requires the dead-letter-destination unless the ack-header is '"
+							+ IntegrationMessageHeaderAccessor.ACKNOWLEDGMENT_CALLBACK
+							+ "': a failed write stops the acknowledgments of its partition");
+			cassandraMessageHandler.setAcknowledger(
+					new WriteAcknowledger(this.cassandraSinkProperties.getAckHeader(),
+							this.cassandraSinkProperties.getAckPartitionHeader(),
+							textOrNull(this.cassandraSinkProperties.getAckOffsetHeader())));
+		}
 		if (this.cassandraSinkProperties.getConsistencyLevel() != null
 				|| this.cassandraSinkProperties.getTtl() > 0) {
 
@@ -117,87 +349,110 @@ public class CassandraSinkConfiguration {
 
 			cassandraMessageHandler.setWriteOptions(writeOptionsBuilder.build());
 		}
-		if (StringUtils.hasText(this.cassandraSinkProperties.getIngestQuery())) {
-			cassandraMessageHandler.setIngestQuery(this.cassandraSinkProperties.getIngestQuery());
+		String ingestQuery = this.cassandraSinkProperties.getIngestQuery();
+		if (StringUtils.hasText(ingestQuery)) {
+			cassandraMessageHandler.setIngestQuery(ingestQuery);
+			cassandraMessageHandler.setErrorIsolation(this.cassandraSinkProperties.isIngestErrorIsolation());
+			IngestQuery parsedIngestQuery = IngestQuery.parse(ingestQuery);
+			String keyspace = cassandraProperties.getKeyspaceName();
+			cassandraMessageHandler.setIngestIdempotenceResolver(() -> {
+				TableMetadata table = IngestQueryTable.resolve(cluster, keyspace, ingestQuery);
+				return table != null
+						? WriteRetryPolicy.isIdempotentQuery(parsedIngestQuery, IngestQueryTable.columnTypes(table))
+						: null;
+			});
+			String timestampHeader = textOrNull(this.cassandraSinkProperties.getWriteTimestampHeader());
+			String ttlHeader = textOrNull(this.cassandraSinkProperties.getWriteTtlHeader());
+			String consistencyLevelHeader = textOrNull(this.cassandraSinkProperties.getWriteConsistencyLevelHeader());
+			if (timestampHeader != null || ttlHeader != null || consistencyLevelHeader != null) {
+				Assert.state(this.cassandraSinkProperties.getIngestWindowSize() == 0
+								&& this.cassandraSinkProperties.getCounterFlushInterval() == 0
+								&& (!this.cassandraSinkProperties.isReactive()
+										|| this.cassandraSinkProperties.getReactiveWindowSize() == 0),
+						"The write option headers cannot be combined with the ingest windows, "
+								+ "the counter aggregation or the reactive windows: "
+								+ "the rows of many messages are written without their headers");
+				cassandraMessageHandler.setWriteOptionsResolver(
+						new MessageWriteOptions.Resolver(timestampHeader, ttlHeader, consistencyLevelHeader,
+								new DateTimeParser(this.cassandraSinkProperties.getDateTimePatterns())));
+			}
+			if (this.cassandraSinkProperties.isIngestBatchByPartition()) {
+				cassandraMessageHandler.setPartitionBatching(
+						ingestKeyPositions(cluster, cassandraProperties, IngestQueryTable::partitionKeyPositions),
+						this.cassandraSinkProperties.getIngestBatchSize(),
+						this.cassandraSinkProperties.getIngestBatchBytes());
+			}
 		}
 		else if (this.cassandraSinkProperties.getStatementExpression() != null) {
 			cassandraMessageHandler.setStatementExpression(this.cassandraSinkProperties.getStatementExpression());
+			preparedStatementCache.ifAvailable(cache ->
+					cassandraMessageHandler.setPreparedStatementCache(cache, cluster));
 		}
-		return cassandraMessageHandler;
-	}
-
-	private static boolean isUuid(String uuid) {
-		if (uuid.length() == 36) {
-			String[] parts = uuid.split("-");
-			if (parts.length == 5) {
-				return (parts[0].length() == 8) && (parts[1].length() == 4) &&
-						(parts[2].length() == 4) && (parts[3].length() == 4) &&
-						(parts[4].length() == 12);
-			}
+		String dedupKeyHeader = textOrNull(this.cassandraSinkProperties.getDedupKeyHeader());
+		Supplier<int[]> dedupKeyPositions = StringUtils.hasText(ingestQuery)
+				? ingestKeyPositions(cluster, cassandraProperties, IngestQueryTable::primaryKeyPositions)
+				: null;
+		deduplicator.ifAvailable(dedup ->
+				cassandraMessageHandler.setDeduplicator(dedup, dedupKeyHeader, dedupKeyPositions));
+		ingestWindowHandler.ifAvailable(cassandraMessageHandler::addWriteListener);
+		inFlightLimiter.ifAvailable(cassandraMessageHandler::setInFlightLimiter);
+		adaptiveRateLimiter.ifAvailable(cassandraMessageHandler::setRateLimiter);
+		cassandraMessageHandler.setMetrics(sinkMetrics);
+		if (this.cassandraSinkProperties.getWriteRetryMaxAttempts() > 1) {
+			cassandraMessageHandler.setRetryPolicy(
+					new WriteRetryPolicy(this.cassandraSinkProperties.getWriteRetryMaxAttempts(),
+							this.cassandraSinkProperties.getWriteRetryInitialInterval(),
+							this.cassandraSinkProperties.getWriteRetryMultiplier(),
+							this.cassandraSinkProperties.getWriteRetryMaxInterval(),
+							this.cassandraSinkProperties.getWriteRetryJitter()));
 		}
-		return false;
+		String deadLetterDestination = this.cassandraSinkProperties.getDeadLetterDestination();
+		if (StringUtils.hasText(deadLetterDestination)) {
+			cassandraMessageHandler.setDeadLetterChannel(channelResolver.resolveDestination(deadLetterDestination));
+		}
+		return cassandraMessageHandler;
 	}
 
+	private Supplier<int[]> ingestKeyPositions(Cluster cluster, CassandraProperties cassandraProperties,
+			BiFunction<TableMetadata, List<String>, int[]> keyPositions) {
 
-	private static class PayloadToMatrixTransformer extends AbstractPayloadTransformer<Object, List<List<Object>>> {
-
-		private final Jackson2JsonObjectMapper jsonObjectMapper = new Jackson2JsonObjectMapper();
-
-		private final List<String> columns = new LinkedList<>();
-
-		private final ISO8601StdDateFormat dateFormat = new ISO8601StdDateFormat();
-
-		PayloadToMatrixTransformer(String query, ColumnNameExtractor columnNameExtractor) {
-			this.columns.addAll(columnNameExtractor.extract(query));
-			this.jsonObjectMapper.getObjectMapper()
-					.configure(DeserializationFeature.ACCEPT_SINGLE_VALUE_AS_ARRAY, true);
-		}
-
-		@Override
-		@SuppressWarnings("unchecked")
-		protected List<List<Object>> transformPayload(Object payload) throws Exception {
-			if (payload instanceof List) {
-				return (List<List<Object>>) payload;
-			}
-			else {
-				List<Map<String, Object>> model = this.jsonObjectMapper.fromJson(payload, List.class);
-				List<List<Object>> data = new ArrayList<>(model.size());
-				for (Map<String, Object> entity : model) {
-					List<Object> row = new ArrayList<>(this.columns.size());
-					for (String column : this.columns) {
-						Object value = entity.get(column);
-						if (value instanceof String) {
-							String string = (String) value;
-							if (this.dateFormat.looksLikeISO8601(string)) {
-								synchronized (this.dateFormat) {
-									value = this.dateFormat.parse(string);
-								}
-							}
-							if (isUuid(string)) {
-								value = UUID.fromString(string);
-							}
-						}
-						row.add(value);
-					}
-					data.add(row);
-				}
-				return data;
-			}
-		}
+		String ingestQuery = this.cassandraSinkProperties.getIngestQuery();
+		List<String> boundColumns = columnNameExtractor().extractBoundColumns(ingestQuery);
+		String keyspace = cassandraProperties.getKeyspaceName();
+		return () -> {
+			TableMetadata table = IngestQueryTable.resolve(cluster, keyspace, ingestQuery);
+			return table != null ? keyPositions.apply(table, boundColumns) : null;
+		};
+	}
 
+	private static int[] updateKeyPositions(String updateQuery) {
+		return IngestQuery.parse(updateQuery).getKeyPositions();
 	}
 
 	/*
-	 * We need this to provide visibility to the protected method.
+	 * The channel of the write stage: the write lanes or the reactive writer, if any, or the sink handler.
 	 */
-	@SuppressWarnings("serial")
-	private static class ISO8601StdDateFormat extends StdDateFormat {
-
-		@Override
-		protected boolean looksLikeISO8601(String dateStr) {
-			return super.looksLikeISO8601(dateStr);
+	private String writeChannelName() {
+		if (this.cassandraSinkProperties.getWriteLanes() > 0) {
+			return "toWriteLanes";
 		}
+		return this.cassandraSinkProperties.isReactive() ? "toReactiveWriter" : "toSink";
+	}
+
+	private static String textOrNull(String text) {
+		return StringUtils.hasText(text) ? text : null;
+	}
+
+	private boolean isIngestWindowCoalesce() {
+		return this.cassandraSinkProperties.isIngestWindowCoalesce()
+				&& this.cassandraSinkProperties.getIngestWindowSize() > 0
+				&& CassandraMessageHandler.Type.UPDATE == this.cassandraSinkProperties.getQueryType();
+	}
 
+	private ColumnNameExtractor columnNameExtractor() {
+		return CassandraMessageHandler.Type.UPDATE == this.cassandraSinkProperties.getQueryType()
+				? new UpdateQueryColumnNameExtractor()
+				: new InsertQueryColumnNameExtractor();
 	}
 
 }
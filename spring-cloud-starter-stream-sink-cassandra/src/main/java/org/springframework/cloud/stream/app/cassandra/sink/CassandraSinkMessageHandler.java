@@ -0,0 +1,1017 @@
+/*
+ * Copyright 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.cloud.stream.app.cassandra.sink;
+
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+import org.springframework.cloud.stream.app.cassandra.query.IngestQuery;
+import org.springframework.data.cassandra.ReactiveResultSet;
+import org.springframework.data.cassandra.ReactiveSession;
+import org.springframework.data.cassandra.core.InsertOptions;
+import org.springframework.data.cassandra.core.ReactiveCassandraOperations;
+import org.springframework.data.cassandra.core.UpdateOptions;
+import org.springframework.data.cassandra.core.cql.QueryOptionsUtil;
+import org.springframework.data.cassandra.core.cql.ReactiveCqlOperations;
+import org.springframework.data.cassandra.core.cql.ReactiveSessionCallback;
+import org.springframework.data.cassandra.core.cql.WriteOptions;
+import org.springframework.expression.EvaluationContext;
+import org.springframework.expression.Expression;
+import org.springframework.expression.spel.SpelCompilerMode;
+import org.springframework.expression.spel.SpelParserConfiguration;
+import org.springframework.expression.spel.standard.SpelExpressionParser;
+import org.springframework.integration.cassandra.outbound.CassandraMessageHandler;
+import org.springframework.integration.expression.ExpressionUtils;
+import org.springframework.integration.support.MessageBuilder;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.MessageChannel;
+import org.springframework.messaging.MessageHandlingException;
+import org.springframework.messaging.MessageHeaders;
+import org.springframework.util.Assert;
+
+import com.datastax.driver.core.BatchStatement;
+import com.datastax.driver.core.BoundStatement;
+import com.datastax.driver.core.Cluster;
+import com.datastax.driver.core.CodecRegistry;
+import com.datastax.driver.core.PreparedStatement;
+import com.datastax.driver.core.RegularStatement;
+import com.datastax.driver.core.Statement;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.util.concurrent.Queues;
+
+/**
+ * The {@link CassandraMessageHandler} extension which performs the ingest writes
+ * ({@code List<List<?>>} payloads with an ingest query) on its own:
+ * the ingest query is prepared once into an {@link IngestBindingPlan} and each row is executed
+ * as a bound statement with the values serialized by the codecs of the plan.
+ * The {@link JsonRowReader#UNSET} row values are left unset in the bound statements
+ * and the {@link TimestampedRow}s are written with their timestamps.
+ * With a {@link MessageWriteOptions.Resolver} the write timestamp, TTL and consistency level
+ * of each message are taken from its headers; the TTL is written with the variant of the ingest query
+ * with a {@code USING TTL} bind marker, which is prepared once as well.
+ * The registered {@link WriteListener}s are notified about each completed write
+ * and the {@link SinkMetrics}, if provided, record the write latency, rows and errors;
+ * a write with dead-lettered rows is observed as failed and only its other rows are recorded as written.
+ * <p>
+ * With the partition batching enabled, the rows of each payload are grouped by their
+ * partition key values and each group is written as a size-capped {@code UNLOGGED} batch,
+ * so each batch is handled by the replicas of a single partition.
+ * <p>
+ * With an {@link AdaptiveRateLimiter} the writes are paced to the rate adapted to the write outcomes.
+ * With an {@link InFlightLimiter} the writes block the calling thread
+ * (and therefore the consumption from the input binding) while the in-flight limits are reached.
+ * <p>
+ * The statement expression is compiled with the SpEL compiler and, with a {@link PreparedStatementCache},
+ * the resulting statements are executed as bound statements of the statements prepared
+ * for their query string.
+ * <p>
+ * Failed writes are retried according to the {@link WriteRetryPolicy}: each ingest statement
+ * (a row or a partition batch) is retried on its own, and the writes with non-idempotent queries
+ * ({@code IF [NOT] EXISTS}, counters, list appends and prepends, {@code now()}) are not retried on timeouts.
+ * When the retries are exhausted, the payload of the failed write is sent to the dead letter channel,
+ * if any, instead of failing the request message.
+ * With the error isolation, an ingest row set failed with a non-transient error is bisected
+ * down to the bad rows, so only they are dead-lettered and all the other rows are written.
+ * <p>
+ * With a {@link Deduplicator} the messages (by a key header) or the ingest rows (by all their values,
+ * once the primary key columns are resolved) written within its window are dropped,
+ * e.g. when redelivered by the broker after a rebalance.
+ * <p>
+ * Single entities and statements are written by this handler as well;
+ * all other payloads are handled by the {@link CassandraMessageHandler} as is.
+ */
+class CassandraSinkMessageHandler extends CassandraMessageHandler {
+
+	static final String EXCEPTION_MESSAGE_HEADER = "x-exception-message";
+
+	static final String EXCEPTION_STACKTRACE_HEADER = "x-exception-stacktrace";
+
+	private final ReactiveCassandraOperations cassandraOperations;
+
+	private final ReactiveCqlOperations cqlOperations;
+
+	private final Type queryType;
+
+	private final List<WriteListener> writeListeners = new CopyOnWriteArrayList<>();
+
+	private String ingestQuery;
+
+	private String ingestTable;
+
+	private boolean ingestIdempotent = true;
+
+	private Supplier<Boolean> ingestIdempotenceResolver;
+
+	private volatile Boolean resolvedIngestIdempotent;
+
+	private WriteOptions writeOptions;
+
+	private volatile IngestBindingPlan ingestPlan;
+
+	private MessageWriteOptions.Resolver writeOptionsResolver;
+
+	private String ttlIngestQuery;
+
+	private int ttlPosition = -1;
+
+	private volatile IngestBindingPlan ttlIngestPlan;
+
+	private Supplier<int[]> partitionKeyPositionsResolver;
+
+	private volatile int[] partitionKeyPositions;
+
+	private int maxBatchSize;
+
+	private long maxBatchBytes;
+
+	private InFlightLimiter inFlightLimiter;
+
+	private AdaptiveRateLimiter rateLimiter;
+
+	private Expression statementExpression;
+
+	private EvaluationContext evaluationContext;
+
+	private PreparedStatementCache preparedStatementCache;
+
+	private Cluster cluster;
+
+	private SinkMetrics metrics;
+
+	private WriteRetryPolicy retryPolicy;
+
+	private MessageChannel deadLetterChannel;
+
+	private boolean errorIsolation;
+
+	private Deduplicator deduplicator;
+
+	private WriteAcknowledger acknowledger;
+
+	private String dedupKeyHeader;
+
+	private Supplier<int[]> dedupKeyPositionsResolver;
+
+	private volatile int[] dedupKeyPositions;
+
+	CassandraSinkMessageHandler(ReactiveCassandraOperations cassandraOperations) {
+		this(cassandraOperations, Type.INSERT);
+	}
+
+	CassandraSinkMessageHandler(ReactiveCassandraOperations cassandraOperations, Type queryType) {
+		super(cassandraOperations, queryType);
+		this.cassandraOperations = cassandraOperations;
+		this.cqlOperations = cassandraOperations.getReactiveCqlOperations();
+		this.queryType = queryType;
+	}
+
+	@Override
+	public void setIngestQuery(String ingestQuery) {
+		super.setIngestQuery(ingestQuery);
+		this.ingestQuery = ingestQuery;
+		this.ingestTable = SinkMetrics.tableOf(ingestQuery);
+		this.ingestIdempotent = WriteRetryPolicy.isIdempotentQuery(ingestQuery);
+	}
+
+	/**
+	 * Decide if the ingest query is idempotent by the types of the table columns, e.g. whether
+	 * {@code c = c + ?} is a set or a list append, instead of conservatively by the query alone.
+	 * @param ingestIdempotenceResolver the resolver for the idempotence of the ingest query;
+	 * called until it returns non-null.
+	 * @see WriteRetryPolicy#isIdempotentQuery(IngestQuery, Function)
+	 */
+	void setIngestIdempotenceResolver(Supplier<Boolean> ingestIdempotenceResolver) {
+		this.ingestIdempotenceResolver = ingestIdempotenceResolver;
+	}
+
+	@Override
+	public void setWriteOptions(WriteOptions writeOptions) {
+		super.setWriteOptions(writeOptions);
+		this.writeOptions = writeOptions;
+	}
+
+	@Override
+	public void setStatementExpression(Expression statementExpression) {
+		super.setStatementExpression(statementExpression);
+		SpelExpressionParser parser =
+				new SpelExpressionParser(new SpelParserConfiguration(SpelCompilerMode.MIXED, null));
+		this.statementExpression = parser.parseExpression(statementExpression.getExpressionString());
+	}
+
+	/**
+	 * Execute the statements produced by the statement expression as bound statements
+	 * of the statements prepared for their query string.
+	 * @param preparedStatementCache the cache for the prepared statements.
+	 * @param cluster the cluster to obtain the codec registry and protocol version for statement values from.
+	 */
+	void setPreparedStatementCache(PreparedStatementCache preparedStatementCache, Cluster cluster) {
+		this.preparedStatementCache = preparedStatementCache;
+		this.cluster = cluster;
+	}
+
+	/**
+	 * Enable grouping of the ingest rows into {@code UNLOGGED} batches per partition.
+	 * @param partitionKeyPositionsResolver the resolver for the ingest query parameter positions
+	 * of the partition key columns; called until it returns non-null; an empty array disables grouping.
+	 * @param maxBatchSize the max number of rows in a batch.
+	 * @param maxBatchBytes the max estimated size of a batch in bytes; 0 means no limit.
+	 */
+	void setPartitionBatching(Supplier<int[]> partitionKeyPositionsResolver, int maxBatchSize, long maxBatchBytes) {
+		Assert.notNull(partitionKeyPositionsResolver, "'partitionKeyPositionsResolver' must not be null");
+		Assert.isTrue(maxBatchSize > 0, "'maxBatchSize' must be greater than 0");
+		this.partitionKeyPositionsResolver = partitionKeyPositionsResolver;
+		this.maxBatchSize = maxBatchSize;
+		this.maxBatchBytes = maxBatchBytes;
+	}
+
+	void setInFlightLimiter(InFlightLimiter inFlightLimiter) {
+		this.inFlightLimiter = inFlightLimiter;
+	}
+
+	/**
+	 * Pace the writes to the rate of the provided limiter and adapt the rate to the write outcomes.
+	 * @param rateLimiter the rate limiter.
+	 */
+	void setRateLimiter(AdaptiveRateLimiter rateLimiter) {
+		this.rateLimiter = rateLimiter;
+		addWriteListener(rateLimiter);
+	}
+
+	void addWriteListener(WriteListener writeListener) {
+		this.writeListeners.add(writeListener);
+	}
+
+	void setMetrics(SinkMetrics metrics) {
+		this.metrics = metrics;
+	}
+
+	/**
+	 * Isolate the bad rows of failed ingest writes: a row set failed with a non-transient error
+	 * is split in halves which are written again until the failed rows are found.
+	 * All the good rows are written and the failed rows are sent to the dead letter channel, if any,
+	 * or fail the request message after all the rows are attempted otherwise.
+	 * @param errorIsolation true to isolate the bad rows.
+	 */
+	void setErrorIsolation(boolean errorIsolation) {
+		this.errorIsolation = errorIsolation;
+	}
+
+	void setRetryPolicy(WriteRetryPolicy retryPolicy) {
+		this.retryPolicy = retryPolicy;
+	}
+
+	/**
+	 * Send the payloads (rows for the ingest writes) of the writes failed after all the retries
+	 * to the provided channel instead of failing the request message.
+	 * The dead letter messages carry the {@link #EXCEPTION_MESSAGE_HEADER} and
+	 * {@link #EXCEPTION_STACKTRACE_HEADER} headers.
+	 * @param deadLetterChannel the channel for failed writes.
+	 */
+	void setDeadLetterChannel(MessageChannel deadLetterChannel) {
+		this.deadLetterChannel = deadLetterChannel;
+	}
+
+	/**
+	 * Write the ingest rows of each message with the timestamp, TTL and consistency level
+	 * from its headers instead of the global write options.
+	 * @param writeOptionsResolver the resolver of the write options from the message headers.
+	 */
+	void setWriteOptionsResolver(MessageWriteOptions.Resolver writeOptionsResolver) {
+		this.writeOptionsResolver = writeOptionsResolver;
+	}
+
+	/**
+	 * Acknowledge the request messages only after their writes complete,
+	 * so the writes can be performed asynchronously without losing the ones in flight on a crash.
+	 * @param acknowledger the acknowledger for the request messages.
+	 */
+	void setAcknowledger(WriteAcknowledger acknowledger) {
+		this.acknowledger = acknowledger;
+	}
+
+	/**
+	 * Drop the duplicates of the messages (or ingest rows) written within the {@link Deduplicator} window.
+	 * The messages are keyed by the provided header; the messages without the header are not checked.
+	 * Without a key header, the ingest rows are keyed by the values of the primary key columns
+	 * and all the other row values, so the later updates of a row with other values are not dropped.
+	 * The keys are recorded only after a successful write, so the redelivery of a failed message is not dropped;
+	 * the same goes for the message keys of an ingest window in its {@link IngestWindowHandler#DEDUP_KEYS_HEADER}.
+	 * @param deduplicator the record of the written keys.
+	 * @param keyHeader the message header for the key; may be null.
+	 * @param keyPositionsResolver the resolver for the ingest query parameter positions
+	 * of the primary key columns; called until it returns non-null; may be null.
+	 */
+	void setDeduplicator(Deduplicator deduplicator, String keyHeader, Supplier<int[]> keyPositionsResolver) {
+		Assert.notNull(deduplicator, "'deduplicator' must not be null");
+		this.deduplicator = deduplicator;
+		this.dedupKeyHeader = keyHeader;
+		this.dedupKeyPositionsResolver = keyHeader == null ? keyPositionsResolver : null;
+	}
+
+	@Override
+	protected void doInit() {
+		super.doInit();
+		this.evaluationContext = ExpressionUtils.createStandardEvaluationContext(getBeanFactory());
+		if (this.ingestQuery != null && this.writeOptionsResolver != null
+				&& this.writeOptionsResolver.isTtlResolved()) {
+
+			IngestQuery ttlQuery = IngestQuery.parse(this.ingestQuery).withTtlMarker();
+			this.ttlIngestQuery = ttlQuery.getQuery();
+			this.ttlPosition = ttlQuery.getTtlPosition();
+		}
+	}
+
+	@Override
+	protected Object handleRequestMessage(Message<?> requestMessage) {
+		PendingWrite pendingWrite = prepareWrite(requestMessage);
+		if (pendingWrite == null) {
+			return super.handleRequestMessage(requestMessage);
+		}
+		startWrite(requestMessage, pendingWrite);
+		return null;
+	}
+
+	/**
+	 * Write the message without blocking the calling thread: the returned {@link Mono} performs the write
+	 * with the same deduplication, retries, dead-lettering and acknowledgment as for the handled messages,
+	 * but without the rate and in-flight limiters, which block the calling thread.
+	 * Must be called in the order the messages are received for the acknowledgments to be in order.
+	 * Only the ingest rows, the entities and the statements are supported: the other payloads
+	 * (e.g. an {@link Iterable} of entities) are written by the {@link CassandraMessageHandler}
+	 * without a completion to wait for, so their writes fail with a {@link MessageHandlingException}.
+	 * @param requestMessage the message to write.
+	 * @return the {@link Mono} to subscribe for the write.
+	 */
+	Mono<Void> write(Message<?> requestMessage) {
+		PendingWrite pendingWrite = prepareWrite(requestMessage);
+		return pendingWrite != null
+				? pendingWrite.write
+				: Mono.error(new MessageHandlingException(requestMessage,
+						"Unsupported payload for the reactive writes: " + requestMessage.getPayload().getClass()));
+	}
+
+	/*
+	 * The write of the message, not subscribed yet, or null for the payloads
+	 * to be handled by the CassandraMessageHandler as is.
+	 */
+	@SuppressWarnings("unchecked")
+	private PendingWrite prepareWrite(Message<?> requestMessage) {
+		List<Message<?>> windowMessages = windowMessages(requestMessage.getHeaders());
+		if (windowMessages != null && this.dedupKeyHeader != null) {
+			requestMessage = withoutDuplicates(requestMessage, windowMessages);
+		}
+		Object payload = requestMessage.getPayload();
+		Object dedupKey = this.dedupKeyHeader != null ? requestMessage.getHeaders().get(this.dedupKeyHeader) : null;
+		if (dedupKey != null && this.deduplicator.isDuplicate(dedupKey)) {
+			return skip(requestMessage);
+		}
+		if (this.ingestQuery != null && payload instanceof List) {
+			List<List<?>> rows = (List<List<?>>) payload;
+			if (rows.isEmpty()) {
+				return skip(requestMessage);
+			}
+			List<Object> rowKeys = null;
+			int[] keyPositions = resolveDedupKeyPositions();
+			if (keyPositions != null && keyPositions.length > 0) {
+				List<List<?>> uniqueRows = new ArrayList<>(rows.size());
+				rowKeys = new ArrayList<>(rows.size());
+				for (List<?> row : rows) {
+					List<Object> key = rowKeyOf(row, keyPositions);
+					if (!this.deduplicator.isDuplicate(key)) {
+						uniqueRows.add(row);
+						rowKeys.add(key);
+					}
+				}
+				if (uniqueRows.isEmpty()) {
+					return skip(requestMessage);
+				}
+				rows = uniqueRows;
+			}
+			long bytes = 0;
+			if (this.inFlightLimiter != null) {
+				for (List<?> row : rows) {
+					bytes += RowSizes.estimate(row);
+				}
+			}
+			Mono<Void> write = ingest(rows, requestMessage.getHeaders());
+			if (rowKeys != null) {
+				List<Object> writtenKeys = rowKeys;
+				write = write.doOnSuccess(result -> writtenKeys.forEach(this.deduplicator::record));
+			}
+			return pendingWrite(requestMessage, write, rows.size(), bytes);
+		}
+		else if (this.statementExpression != null || payload instanceof Statement) {
+			Statement statement = payload instanceof Statement
+					? (Statement) payload
+					: this.statementExpression.getValue(this.evaluationContext, requestMessage, Statement.class);
+			Assert.state(statement != null, () -> "The statement expression returned null for: " + requestMessage);
+			return prepareStatementWrite(requestMessage, statement);
+		}
+		else if (this.queryType != Type.STATEMENT && !(payload instanceof Iterable)) {
+			boolean idempotent = !(this.writeOptions instanceof InsertOptions)
+					|| !((InsertOptions) this.writeOptions).isIfNotExists();
+			Mono<Void> write = observe(deadLetters ->
+					deadLetter(retry(writeEntity(payload), idempotent), payload, requestMessage.getHeaders(),
+							deadLetters),
+					entityTable(payload), 1);
+			return pendingWrite(requestMessage, write, 1, 0);
+		}
+		return null;
+	}
+
+	private PendingWrite prepareStatementWrite(Message<?> requestMessage, Statement statement) {
+		boolean idempotent = Boolean.TRUE.equals(statement.isIdempotent());
+		if (this.preparedStatementCache != null && statement instanceof RegularStatement) {
+			RegularStatement regularStatement = (RegularStatement) statement;
+			CodecRegistry codecRegistry = this.cluster.getConfiguration().getCodecRegistry();
+			String query = regularStatement.getQueryString(codecRegistry);
+			ByteBuffer[] values = regularStatement.getValues(
+					this.cluster.getConfiguration().getProtocolOptions().getProtocolVersion(), codecRegistry);
+			long bytes = 0;
+			if (values != null) {
+				for (ByteBuffer value : values) {
+					bytes += value != null ? value.remaining() : 0;
+				}
+			}
+			Mono<Void> write = observe(deadLetters ->
+					deadLetter(retry(execute(regularStatement, query, values), idempotent),
+							requestMessage.getPayload(), requestMessage.getHeaders(), deadLetters),
+					SinkMetrics.UNKNOWN_TABLE, 1);
+			return pendingWrite(requestMessage, write, 1, bytes);
+		}
+		else {
+			Mono<Void> write = observe(deadLetters ->
+					deadLetter(retry(this.cqlOperations.execute(statement).then(), idempotent),
+							requestMessage.getPayload(), requestMessage.getHeaders(), deadLetters),
+					SinkMetrics.UNKNOWN_TABLE, 1);
+			return pendingWrite(requestMessage, write, 1, 0);
+		}
+	}
+
+	private Mono<Void> writeEntity(Object entity) {
+		switch (this.queryType) {
+			case UPDATE:
+				return (this.writeOptions instanceof UpdateOptions
+						? this.cassandraOperations.update(entity, (UpdateOptions) this.writeOptions)
+						: this.cassandraOperations.update(entity))
+						.then();
+			case DELETE:
+				return (this.writeOptions != null
+						? this.cassandraOperations.delete(entity, this.writeOptions)
+						: this.cassandraOperations.delete(entity))
+						.then();
+			default:
+				return (this.writeOptions instanceof InsertOptions
+						? this.cassandraOperations.insert(entity, (InsertOptions) this.writeOptions)
+						: this.cassandraOperations.insert(entity))
+						.then();
+		}
+	}
+
+	private String entityTable(Object entity) {
+		if (this.metrics == null) {
+			return SinkMetrics.UNKNOWN_TABLE;
+		}
+		return this.cassandraOperations.getConverter().getMappingContext()
+				.getRequiredPersistentEntity(entity.getClass())
+				.getTableName()
+				.toCql();
+	}
+
+	private PendingWrite pendingWrite(Message<?> requestMessage, Mono<Void> write, int rows, long bytes) {
+		Mono<Void> result = write;
+		if (this.deduplicator != null) {
+			List<Message<?>> messages = windowMessages(requestMessage.getHeaders());
+			if (messages == null) {
+				messages = Collections.singletonList(requestMessage);
+			}
+			List<Object> writtenKeys = new ArrayList<>();
+			for (Message<?> message : messages) {
+				Object dedupKey = this.dedupKeyHeader != null ? message.getHeaders().get(this.dedupKeyHeader) : null;
+				if (dedupKey != null) {
+					writtenKeys.add(dedupKey);
+				}
+				Collection<?> windowKeys = message.getHeaders()
+						.get(IngestWindowHandler.DEDUP_KEYS_HEADER, Collection.class);
+				if (windowKeys != null) {
+					writtenKeys.addAll(windowKeys);
+				}
+			}
+			if (!writtenKeys.isEmpty()) {
+				result = result.doOnSuccess(written -> writtenKeys.forEach(this.deduplicator::record));
+			}
+		}
+		if (this.acknowledger != null) {
+			result = this.acknowledger.track(requestMessage, result);
+		}
+		return new PendingWrite(result, rows, bytes);
+	}
+
+	@SuppressWarnings("unchecked")
+	private static List<Message<?>> windowMessages(MessageHeaders headers) {
+		return headers != null ? headers.get(ReactiveWriter.WINDOW_MESSAGES_HEADER, List.class) : null;
+	}
+
+	/*
+	 * The window of the reactive writer without the messages written within the dedup window.
+	 */
+	private Message<?> withoutDuplicates(Message<?> window, List<Message<?>> windowMessages) {
+		List<Message<?>> uniqueMessages = new ArrayList<>(windowMessages.size());
+		for (Message<?> message : windowMessages) {
+			Object dedupKey = message.getHeaders().get(this.dedupKeyHeader);
+			if (dedupKey == null || !this.deduplicator.isDuplicate(dedupKey)) {
+				uniqueMessages.add(message);
+			}
+		}
+		return uniqueMessages.size() < windowMessages.size() ? ReactiveWriter.window(uniqueMessages) : window;
+	}
+
+	/*
+	 * The skipped messages are still acknowledged in order.
+	 */
+	private PendingWrite skip(Message<?> requestMessage) {
+		Mono<Void> write = this.acknowledger != null
+				? this.acknowledger.track(requestMessage, Mono.empty())
+				: Mono.empty();
+		return new PendingWrite(write, 0, 0);
+	}
+
+	private void startWrite(Message<?> requestMessage, PendingWrite pendingWrite) {
+		Mono<Void> result = pendingWrite.write;
+		if (pendingWrite.rows > 0) {
+			if (this.rateLimiter != null) {
+				this.rateLimiter.acquire(pendingWrite.rows);
+			}
+			if (this.inFlightLimiter != null) {
+				long bytes = pendingWrite.bytes;
+				try {
+					this.inFlightLimiter.acquire(bytes);
+				}
+				catch (InterruptedException ex) {
+					Thread.currentThread().interrupt();
+					throw new MessageHandlingException(requestMessage,
+							"Interrupted while waiting for in-flight writes", ex);
+				}
+				result = result.doFinally(signal -> this.inFlightLimiter.release(bytes));
+			}
+		}
+		if (isAsync()) {
+			result.subscribe(null, ex -> this.logger.error("Cassandra write failed for: " + requestMessage, ex));
+		}
+		else {
+			result.block();
+		}
+	}
+
+	/**
+	 * Notify the {@link WriteListener}s and record the {@link SinkMetrics} for the write.
+	 * The write with the rows sent to the dead letter channel is observed as failed.
+	 * @param write the factory of the write to observe for the record of its dead letters.
+	 * @param table the target table for metrics.
+	 * @param rows the number of rows in the write.
+	 * @return the observed write.
+	 */
+	private Mono<Void> observe(Function<DeadLetters, Mono<Void>> write, String table, int rows) {
+		SinkMetrics metrics = this.metrics;
+		if (metrics == null && this.writeListeners.isEmpty()) {
+			return Mono.defer(() -> write.apply(null));
+		}
+		return Mono.defer(() -> {
+			long start = System.nanoTime();
+			DeadLetters deadLetters = new DeadLetters();
+			return write.apply(deadLetters)
+					.doOnSuccess(v -> {
+						long latency = System.nanoTime() - start;
+						Throwable deadLetterCause = deadLetters.cause;
+						if (deadLetterCause != null) {
+							writeFailed(table, rows, rows - deadLetters.rows.get(), latency, deadLetterCause);
+							return;
+						}
+						if (metrics != null) {
+							metrics.recordWrite(table, rows, latency);
+						}
+						for (WriteListener writeListener : this.writeListeners) {
+							writeListener.onWriteSuccess(rows, latency);
+						}
+					})
+					.doOnError(ex -> writeFailed(table, rows, 0, System.nanoTime() - start, ex));
+		});
+	}
+
+	private void writeFailed(String table, int rows, int writtenRows, long latency, Throwable cause) {
+		if (this.metrics != null) {
+			this.metrics.recordWriteError(table, latency, cause);
+			if (writtenRows > 0) {
+				this.metrics.recordRows(table, writtenRows);
+			}
+		}
+		for (WriteListener writeListener : this.writeListeners) {
+			writeListener.onWriteFailure(rows, latency, cause);
+		}
+	}
+
+	private Mono<Void> execute(RegularStatement statement, String query, ByteBuffer[] values) {
+		return this.cqlOperations.execute((ReactiveSessionCallback<ReactiveResultSet>) session ->
+				this.preparedStatementCache.prepare(session, query)
+						.flatMap(preparedStatement -> session.execute(bind(preparedStatement, statement, values))))
+				.then();
+	}
+
+	private static BoundStatement bind(PreparedStatement preparedStatement, RegularStatement statement,
+			ByteBuffer[] values) {
+
+		BoundStatement boundStatement = preparedStatement.bind();
+		if (values != null) {
+			for (int i = 0; i < values.length; i++) {
+				boundStatement.setBytesUnsafe(i, values[i]);
+			}
+		}
+		if (statement.getConsistencyLevel() != null) {
+			boundStatement.setConsistencyLevel(statement.getConsistencyLevel());
+		}
+		if (statement.getSerialConsistencyLevel() != null) {
+			boundStatement.setSerialConsistencyLevel(statement.getSerialConsistencyLevel());
+		}
+		if (statement.getRetryPolicy() != null) {
+			boundStatement.setRetryPolicy(statement.getRetryPolicy());
+		}
+		if (statement.getDefaultTimestamp() != Long.MIN_VALUE) {
+			boundStatement.setDefaultTimestamp(statement.getDefaultTimestamp());
+		}
+		if (statement.isIdempotent() != null) {
+			boundStatement.setIdempotent(statement.isIdempotent());
+		}
+		if (statement.isTracing()) {
+			boundStatement.enableTracing();
+		}
+		return boundStatement;
+	}
+
+	/**
+	 * Write the rows with the ingest query.
+	 * @param rows the rows to write.
+	 * @return the {@link Mono} to subscribe for the write; completes when all the rows are written.
+	 */
+	Mono<Void> ingest(List<List<?>> rows) {
+		return ingest(rows, null);
+	}
+
+	/**
+	 * Write the rows with the ingest query; each statement (a row or a partition batch) is retried
+	 * according to the {@link WriteRetryPolicy} and its rows are sent to the dead letter channel,
+	 * if any, when the retries are exhausted.
+	 * @param rows the rows to write.
+	 * @param headers the headers of the request message for the dead letter messages; may be null.
+	 * @return the {@link Mono} to subscribe for the write; completes when all the rows are written.
+	 */
+	Mono<Void> ingest(List<List<?>> rows, MessageHeaders headers) {
+		MessageWriteOptions options = headers != null && this.writeOptionsResolver != null
+				? this.writeOptionsResolver.resolve(headers)
+				: MessageWriteOptions.NONE;
+		return observe(deadLetters ->
+				this.cqlOperations.execute((ReactiveSessionCallback<Void>) session ->
+						prepareIngestPlan(session, options.getTtl() >= 0)
+								.flatMapMany(plan -> {
+									Flux<List<List<?>>> groups = Flux.fromIterable(rowGroups(rows));
+									Function<List<List<?>>, Mono<Void>> writeGroup =
+											group -> writeRows(session, plan, group, options, headers, deadLetters);
+									return this.errorIsolation
+											? groups.flatMapDelayError(writeGroup, Queues.SMALL_BUFFER_SIZE,
+													Queues.XS_BUFFER_SIZE)
+											: groups.flatMap(writeGroup);
+								}))
+						.then(),
+				this.ingestTable, rows.size());
+	}
+
+	private Mono<Void> writeRows(ReactiveSession session, IngestBindingPlan plan, List<List<?>> rows,
+			MessageWriteOptions options, MessageHeaders headers, DeadLetters deadLetters) {
+
+		Mono<Void> write =
+				retry(Mono.defer(() -> session.execute(statement(plan, rows, options))).then(),
+						isIngestIdempotent());
+		if (this.errorIsolation && rows.size() > 1) {
+			write = write.onErrorResume(ex -> !WriteRetryPolicy.isRetryable(ex, true), ex -> {
+				int half = rows.size() / 2;
+				return Mono.whenDelayError(
+						writeRows(session, plan, rows.subList(0, half), options, headers, deadLetters),
+						writeRows(session, plan, rows.subList(half, rows.size()), options, headers, deadLetters));
+			});
+		}
+		return deadLetter(write, rows, headers, deadLetters);
+	}
+
+	private Mono<Void> retry(Mono<Void> write, boolean idempotent) {
+		Mono<Void> attempt = write;
+		if (this.rateLimiter != null && this.retryPolicy != null) {
+			attempt = attempt.doOnError(ex -> this.rateLimiter.onWriteFailure(1, 0, ex));
+		}
+		return this.retryPolicy != null ? this.retryPolicy.apply(attempt, idempotent) : attempt;
+	}
+
+	private Mono<Void> deadLetter(Mono<Void> write, Object payload, MessageHeaders headers,
+			DeadLetters deadLetters) {
+
+		MessageChannel deadLetterChannel = this.deadLetterChannel;
+		if (deadLetterChannel == null) {
+			return write;
+		}
+		return write.onErrorResume(ex -> Mono.fromRunnable(() -> {
+			StringWriter stackTrace = new StringWriter();
+			ex.printStackTrace(new PrintWriter(stackTrace));
+			List<Message<?>> windowMessages = windowMessages(headers);
+			if (windowMessages != null && payload instanceof List) {
+				// the rows of each window message with its headers
+				Set<Object> failedRows = Collections.newSetFromMap(new IdentityHashMap<>());
+				failedRows.addAll((List<?>) payload);
+				for (Message<?> message : windowMessages) {
+					List<Object> messageRows = new ArrayList<>();
+					for (Object row : (List<?>) message.getPayload()) {
+						if (failedRows.contains(row)) {
+							messageRows.add(row);
+						}
+					}
+					if (!messageRows.isEmpty()) {
+						sendDeadLetter(deadLetterChannel, messageRows, message.getHeaders(), ex, stackTrace);
+					}
+				}
+			}
+			else {
+				sendDeadLetter(deadLetterChannel, payload, headers, ex, stackTrace);
+			}
+			int rows = payload instanceof List ? ((List<?>) payload).size() : 1;
+			if (deadLetters != null) {
+				deadLetters.add(rows, ex);
+			}
+			if (this.metrics != null) {
+				this.metrics.recordDeadLetter(rows);
+			}
+		}));
+	}
+
+	private static void sendDeadLetter(MessageChannel deadLetterChannel, Object payload, MessageHeaders headers,
+			Throwable ex, StringWriter stackTrace) {
+
+		MessageBuilder<?> deadLetter = MessageBuilder.withPayload(deadLetterPayload(payload));
+		if (headers != null) {
+			deadLetter.copyHeaders(headers)
+					.removeHeader(MessageHeaders.CONTENT_TYPE)
+					.removeHeader(IngestWindowHandler.DEDUP_KEYS_HEADER);
+		}
+		deadLetter.setHeader(EXCEPTION_MESSAGE_HEADER, ex.getMessage())
+				.setHeader(EXCEPTION_STACKTRACE_HEADER, stackTrace.toString());
+		deadLetterChannel.send(deadLetter.build());
+	}
+
+	/*
+	 * The UNSET and invalid row values cannot be serialized by the binder:
+	 * the dead letter rows carry nulls for the unset values and the source values for the invalid ones.
+	 */
+	private static Object deadLetterPayload(Object payload) {
+		if (!(payload instanceof List)) {
+			return payload;
+		}
+		List<Object> rows = new ArrayList<>(((List<?>) payload).size());
+		for (Object row : (List<?>) payload) {
+			if (row instanceof List) {
+				List<Object> values = new ArrayList<>(((List<?>) row).size());
+				for (Object value : (List<?>) row) {
+					if (value == JsonRowReader.UNSET) {
+						values.add(null);
+					}
+					else if (value instanceof ColumnConverters.InvalidValue) {
+						values.add(((ColumnConverters.InvalidValue) value).getValue());
+					}
+					else {
+						values.add(value);
+					}
+				}
+				rows.add(values);
+			}
+			else {
+				rows.add(row);
+			}
+		}
+		return rows;
+	}
+
+	private Mono<IngestBindingPlan> prepareIngestPlan(ReactiveSession session, boolean ttl) {
+		if (ttl) {
+			IngestBindingPlan plan = this.ttlIngestPlan;
+			if (plan != null) {
+				return Mono.just(plan);
+			}
+			return session.prepare(this.ttlIngestQuery)
+					.map(IngestBindingPlan::new)
+					.doOnNext(preparedPlan -> this.ttlIngestPlan = preparedPlan);
+		}
+		IngestBindingPlan plan = this.ingestPlan;
+		if (plan != null) {
+			return Mono.just(plan);
+		}
+		return session.prepare(this.ingestQuery)
+				.map(IngestBindingPlan::new)
+				.doOnNext(preparedPlan -> this.ingestPlan = preparedPlan);
+	}
+
+	/*
+	 * Each group of rows is written with a single statement: a bound statement for a single row
+	 * or an UNLOGGED batch for the rows of the same partition.
+	 */
+	private List<List<List<?>>> rowGroups(List<List<?>> rows) {
+		int[] keyPositions = resolvePartitionKeyPositions();
+		List<List<List<?>>> groups = new ArrayList<>();
+		if (keyPositions == null || keyPositions.length == 0 || rows.size() < 2) {
+			for (List<?> row : rows) {
+				groups.add(Collections.singletonList(row));
+			}
+			return groups;
+		}
+		Map<List<Object>, List<List<?>>> partitions = new LinkedHashMap<>();
+		for (List<?> row : rows) {
+			partitions.computeIfAbsent(keyOf(row, keyPositions), k -> new ArrayList<>()).add(row);
+		}
+		for (List<List<?>> partition : partitions.values()) {
+			int batchStart = 0;
+			long batchBytes = 0;
+			for (int i = 0; i < partition.size(); i++) {
+				long rowBytes = this.maxBatchBytes > 0 ? RowSizes.estimate(partition.get(i)) : 0;
+				if (i > batchStart && (i - batchStart >= this.maxBatchSize
+						|| (this.maxBatchBytes > 0 && batchBytes + rowBytes > this.maxBatchBytes))) {
+
+					groups.add(partition.subList(batchStart, i));
+					batchStart = i;
+					batchBytes = 0;
+				}
+				batchBytes += rowBytes;
+			}
+			groups.add(partition.subList(batchStart, partition.size()));
+		}
+		return groups;
+	}
+
+	private Statement statement(IngestBindingPlan plan, List<List<?>> rows, MessageWriteOptions options) {
+		if (rows.size() == 1) {
+			return bind(plan, rows.get(0), options);
+		}
+		BatchStatement batch = new BatchStatement(BatchStatement.Type.UNLOGGED);
+		if (this.writeOptions != null) {
+			QueryOptionsUtil.addQueryOptions(batch, this.writeOptions);
+		}
+		batch.setIdempotent(isIngestIdempotent());
+		long timestamp = Long.MIN_VALUE;
+		for (List<?> row : rows) {
+			batch.add(bindValues(plan, row, options));
+			if (row instanceof TimestampedRow) {
+				timestamp = Math.max(timestamp, ((TimestampedRow) row).getTimestamp());
+			}
+		}
+		addWriteOptions(batch, timestamp, options);
+		return batch;
+	}
+
+	/*
+	 * The timestamp of the coalesced rows takes precedence over the message timestamp.
+	 */
+	private static void addWriteOptions(Statement statement, long rowTimestamp, MessageWriteOptions options) {
+		long timestamp = rowTimestamp != Long.MIN_VALUE ? rowTimestamp : options.getTimestamp();
+		if (timestamp != Long.MIN_VALUE) {
+			statement.setDefaultTimestamp(timestamp);
+		}
+		if (options.getConsistencyLevel() != null) {
+			statement.setConsistencyLevel(options.getConsistencyLevel());
+		}
+	}
+
+	private int[] resolvePartitionKeyPositions() {
+		int[] keyPositions = this.partitionKeyPositions;
+		if (keyPositions == null && this.partitionKeyPositionsResolver != null) {
+			keyPositions = this.partitionKeyPositionsResolver.get();
+			this.partitionKeyPositions = keyPositions;
+		}
+		return keyPositions;
+	}
+
+	private boolean isIngestIdempotent() {
+		Boolean idempotent = this.resolvedIngestIdempotent;
+		if (idempotent == null && this.ingestIdempotenceResolver != null) {
+			idempotent = this.ingestIdempotenceResolver.get();
+			this.resolvedIngestIdempotent = idempotent;
+		}
+		return idempotent != null ? idempotent : this.ingestIdempotent;
+	}
+
+	private int[] resolveDedupKeyPositions() {
+		int[] keyPositions = this.dedupKeyPositions;
+		if (keyPositions == null && this.dedupKeyPositionsResolver != null) {
+			keyPositions = this.dedupKeyPositionsResolver.get();
+			this.dedupKeyPositions = keyPositions;
+		}
+		return keyPositions;
+	}
+
+	private static List<Object> keyOf(List<?> row, int[] keyPositions) {
+		Object[] key = new Object[keyPositions.length];
+		for (int i = 0; i < key.length; i++) {
+			key[i] = row.get(keyPositions[i]);
+		}
+		return Arrays.asList(key);
+	}
+
+	/*
+	 * The primary key values and all the row values for the de-duplication of the rows by their content:
+	 * the byte arrays are compared by their content as well.
+	 */
+	private static List<Object> rowKeyOf(List<?> row, int[] keyPositions) {
+		Object[] values = new Object[row.size()];
+		for (int i = 0; i < values.length; i++) {
+			Object value = row.get(i);
+			values[i] = value instanceof byte[] ? ByteBuffer.wrap((byte[]) value) : value;
+		}
+		return Arrays.asList(keyOf(row, keyPositions), Arrays.asList(values));
+	}
+
+	private BoundStatement bind(IngestBindingPlan plan, List<?> row, MessageWriteOptions options) {
+		BoundStatement boundStatement = bindValues(plan, row, options);
+		if (this.writeOptions != null) {
+			QueryOptionsUtil.addQueryOptions(boundStatement, this.writeOptions);
+		}
+		addWriteOptions(boundStatement,
+				row instanceof TimestampedRow ? ((TimestampedRow) row).getTimestamp() : Long.MIN_VALUE, options);
+		boundStatement.setIdempotent(isIngestIdempotent());
+		return boundStatement;
+	}
+
+	private BoundStatement bindValues(IngestBindingPlan plan, List<?> row, MessageWriteOptions options) {
+		if (this.errorIsolation) {
+			ColumnConverters.InvalidValue.check(row);
+		}
+		return options.getTtl() >= 0 ? plan.bind(row, this.ttlPosition, options.getTtl()) : plan.bind(row);
+	}
+
+	/**
+	 * The record of the rows sent to the dead letter channel within an observed write.
+	 */
+	private static final class DeadLetters {
+
+		private final AtomicInteger rows = new AtomicInteger();
+
+		private volatile Throwable cause;
+
+		void add(int rows, Throwable cause) {
+			this.rows.addAndGet(rows);
+			this.cause = cause;
+		}
+
+	}
+
+	/**
+	 * The write of a request message, not subscribed yet, with its size for the limiters;
+	 * no rows for the skipped messages.
+	 */
+	private static final class PendingWrite {
+
+		private final Mono<Void> write;
+
+		private final int rows;
+
+		private final long bytes;
+
+		PendingWrite(Mono<Void> write, int rows, long bytes) {
+			this.write = write;
+			this.rows = rows;
+			this.bytes = bytes;
+		}
+
+	}
+
+}
@@ -17,6 +17,7 @@
 package org.springframework.cloud.stream.app.cassandra.sink;
 
 import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.core.io.Resource;
 import org.springframework.expression.Expression;
 import org.springframework.integration.cassandra.outbound.CassandraMessageHandler;
 
@@ -44,11 +45,292 @@ public class CassandraSinkProperties {
 	 */
 	private String ingestQuery;
 
+	/**
+	 * Max number of rows per ingest write; larger payloads are streamed into several chunks.
+	 * 0 means no chunking.
+	 */
+	private int ingestChunkSize;
+
+	/**
+	 * Max number of rows to aggregate from several messages into a single ingest write.
+	 * 0 means no cross-message aggregation. The messages are acknowledged before their windows are written
+	 * (at-most-once), so the dead-letter-destination is required for the failed windows.
+	 */
+	private int ingestWindowSize;
+
+	/**
+	 * Max estimated size in bytes of an ingest window. 0 means no limit.
+	 */
+	private long ingestWindowBytes;
+
+	/**
+	 * Max time in milliseconds to wait for an ingest window to fill up.
+	 */
+	private long ingestWindowTimeout = 100;
+
+	/**
+	 * Target write latency in milliseconds to adapt the ingest window size to.
+	 * 0 means a fixed window size.
+	 */
+	private long ingestWindowTargetLatency;
+
+	/**
+	 * Whether to merge the ingest rows for the same key (the WHERE clause columns of the update query)
+	 * within an ingest window and write only their final state with the timestamp of the last update.
+	 * Requires the ingest-unset-absent-fields, so the absent fields do not override the values
+	 * of the earlier updates.
+	 */
+	private boolean ingestWindowCoalesce;
+
+	/**
+	 * Interval in milliseconds to write the increments of a counter update ingest query
+	 * summed per key in memory. 0 means each increment is written on its own. The SET clause must only have
+	 * {@code c = c + ?} or {@code c = c - ?} assignments. The messages are acknowledged before their increments
+	 * are written (at-most-once), so the dead-letter-destination is required for the failed writes.
+	 */
+	private long counterFlushInterval;
+
+	/**
+	 * Max number of keys to sum the counter increments for before they are written.
+	 */
+	private int counterMaxKeys = 10000;
+
+	/**
+	 * Number of single-threaded lanes to write on in parallel; the writes are dispatched by the hash
+	 * of their partition key, so the writes for the same key are performed in order.
+	 * The writes on a lane are synchronous regardless of the async mode. 0 means no lanes.
+	 * A failed write on a lane fails the next message dispatched onto that lane.
+	 */
+	private int writeLanes;
+
+	/**
+	 * Max number of writes waiting on a lane; the input is blocked when reached.
+	 */
+	private int writeLaneCapacity = 16;
+
+	/**
+	 * Whether to run the write lanes on virtual threads (Java 21 and later) instead of a platform thread per lane,
+	 * so thousands of lanes can block on their writes; on the older JDKs the lanes share
+	 * a bounded pool of platform threads.
+	 */
+	private boolean writeLaneVirtualThreads;
+
+	/**
+	 * Max number of platform threads shared by the write lanes with virtual threads on the older JDKs.
+	 */
+	private int writeLaneMaxPlatformThreads = 64;
+
+	/**
+	 * Whether to acknowledge the input messages only after their writes complete, in the order per partition,
+	 * while performing the writes asynchronously. Requires the manual acknowledgments in the binder,
+	 * e.g. 'autoCommitOffset=false' for Kafka. Unless the ack-header is 'acknowledgmentCallback',
+	 * the dead-letter-destination is required: a failed write stops the acknowledgments of its partition.
+	 */
+	private boolean ackAfterWrite;
+
+	/**
+	 * Message header with the acknowledgment for the ack-after-write mode.
+	 */
+	private String ackHeader = "kafka_acknowledgment";
+
+	/**
+	 * Message header with the source partition for the ack-after-write mode.
+	 */
+	private String ackPartitionHeader = "kafka_receivedPartitionId";
+
+	/**
+	 * Message header with the source offset for the ack-after-write mode: the acknowledgments of a partition
+	 * stopped by a failed write resume when the failed message is redelivered.
+	 */
+	private String ackOffsetHeader = "kafka_offset";
+
+	/**
+	 * Message header with the event time to write the ingest rows with as their client-side timestamp:
+	 * epoch millis, a date or a date/time text. The 'USING TIMESTAMP ?' values of the ingest query are taken
+	 * in the same units. This and the other write option headers cannot be combined
+	 * with the ingest windows, the counter aggregation or the reactive windows.
+	 */
+	private String writeTimestampHeader;
+
+	/**
+	 * Message header with the TTL in seconds to write the ingest rows with: an integral number.
+	 */
+	private String writeTtlHeader;
+
+	/**
+	 * Message header with the consistency level to write the ingest rows with.
+	 */
+	private String writeConsistencyLevelHeader;
+
+	/**
+	 * Whether to write the messages through a reactive pipeline with a limited write concurrency,
+	 * which blocks the input while the max number of messages are in flight, instead of one by one.
+	 * Requires the dead-letter-destination or the ack-after-write mode for the failed writes.
+	 */
+	private boolean reactive;
+
+	/**
+	 * Max number of concurrent writes in the reactive mode.
+	 */
+	private int reactiveConcurrency = 16;
+
+	/**
+	 * Max number of messages received, but not written yet, in the reactive mode; the input is blocked when reached.
+	 */
+	private int reactiveMaxInFlight = 256;
+
+	/**
+	 * Max number of messages to combine into a single write in the reactive mode; 0 means no windows.
+	 */
+	private int reactiveWindowSize;
+
+	/**
+	 * Max time in milliseconds to wait for a reactive window to fill up.
+	 */
+	private long reactiveWindowTimeout = 100;
+
+	/**
+	 * Whether to group the ingest rows by the table partition key into UNLOGGED batches.
+	 */
+	private boolean ingestBatchByPartition;
+
+	/**
+	 * Max number of rows in an ingest partition batch.
+	 */
+	private int ingestBatchSize = 100;
+
+	/**
+	 * Max estimated size in bytes of an ingest partition batch. 0 means no limit.
+	 */
+	private long ingestBatchBytes = 5120;
+
+	/**
+	 * Whether to isolate the bad rows of a failed ingest write by splitting the rows in halves:
+	 * all the good rows are written and only the bad ones are sent to the dead letter destination.
+	 */
+	private boolean ingestErrorIsolation;
+
+	/**
+	 * Whether to leave the ingest query parameters for the fields absent in the payload unset
+	 * instead of writing nulls (tombstones). Requires native protocol v4 or later.
+	 */
+	private boolean ingestUnsetAbsentFields;
+
+	/**
+	 * Whether to leave the ingest query parameters for the explicit null fields of the payload unset
+	 * instead of writing nulls (tombstones). Requires native protocol v4 or later.
+	 */
+	private boolean ingestUnsetNullFields;
+
+	/**
+	 * Max number of ingest writes in flight; the input is paused when reached. 0 means no limit.
+	 */
+	private int maxInFlightWrites;
+
+	/**
+	 * Max estimated size in bytes of ingest writes in flight; the input is paused when reached.
+	 * 0 means no limit.
+	 */
+	private long maxInFlightBytes;
+
+	/**
+	 * Max number of rows per second to write; the rate is lowered on Cassandra overload signals
+	 * and raised again when the cluster recovers. 0 means no rate limiting.
+	 */
+	private double maxWriteRate;
+
+	/**
+	 * Min number of rows per second the write rate is lowered to.
+	 */
+	private double minWriteRate = 10;
+
+	/**
+	 * Target p99 write latency in milliseconds; a higher latency lowers the write rate.
+	 * 0 means the latency is not a signal.
+	 */
+	private long writeRateTargetLatency;
+
+	/**
+	 * Max number of attempts for a failed write; only transient failures are retried
+	 * and timeouts only for idempotent writes. 1 means no retries.
+	 */
+	private int writeRetryMaxAttempts = 3;
+
+	/**
+	 * Initial interval in milliseconds between write attempts.
+	 */
+	private long writeRetryInitialInterval = 100;
+
+	/**
+	 * Multiplier for the interval between write attempts.
+	 */
+	private double writeRetryMultiplier = 2;
+
+	/**
+	 * Max interval in milliseconds between write attempts.
+	 */
+	private long writeRetryMaxInterval = 5000;
+
+	/**
+	 * Random jitter of the interval between write attempts as a fraction of the interval.
+	 */
+	private double writeRetryJitter = 0.5;
+
+	/**
+	 * Time in milliseconds to remember the keys of written messages (or ingest rows) to drop
+	 * the duplicates redelivered within it. 0 means no de-duplication.
+	 */
+	private long dedupWindow;
+
+	/**
+	 * Max number of keys to remember for de-duplication; the oldest keys are forgotten first.
+	 */
+	private int dedupMaxEntries = 100000;
+
+	/**
+	 * Message header with the key for de-duplication.
+	 * The ingest rows are de-duplicated by their primary key values and the hash of all their values when not set.
+	 */
+	private String dedupKeyHeader;
+
+	/**
+	 * Destination for the payloads (rows for ingest writes) of the writes failed after all the attempts.
+	 * The failed writes fail the messages when not set.
+	 */
+	private String deadLetterDestination;
+
+	/**
+	 * Additional java.time patterns to parse date/time values of the ingest payload.
+	 * ISO-8601 and epoch millis values are always supported;
+	 * the digit-only values are parsed as epoch millis only when not matched by these patterns.
+	 */
+	private String[] dateTimePatterns = { };
+
+	/**
+	 * Avro schema the ingest payloads with the 'application/avro' or 'avro/binary' content type are written with.
+	 */
+	private Resource avroSchema;
+
+	/**
+	 * Avro schema to resolve the ingest payload records to from the writer schema.
+	 */
+	private Resource avroReaderSchema;
+
+	/**
+	 * Column separator of the ingest payloads with the 'text/csv' content type.
+	 */
+	private char csvColumnSeparator = ',';
+
 	/**
 	 * Expression in Cassandra query DSL style.
 	 */
 	private Expression statementExpression;
 
+	/**
+	 * Max number of prepared statements to cache for the statement expression results.
+	 */
+	private int statementCacheSize = 256;
+
 	/**
 	 * Async mode for CassandraMessageHandler.
 	 */
@@ -83,6 +365,390 @@ public class CassandraSinkProperties {
 		this.ingestQuery = ingestQuery;
 	}
 
+	public int getIngestChunkSize() {
+		return this.ingestChunkSize;
+	}
+
+	public void setIngestChunkSize(int ingestChunkSize) {
+		this.ingestChunkSize = ingestChunkSize;
+	}
+
+	public int getIngestWindowSize() {
+		return this.ingestWindowSize;
+	}
+
+	public void setIngestWindowSize(int ingestWindowSize) {
+		this.ingestWindowSize = ingestWindowSize;
+	}
+
+	public long getIngestWindowBytes() {
+		return this.ingestWindowBytes;
+	}
+
+	public void setIngestWindowBytes(long ingestWindowBytes) {
+		this.ingestWindowBytes = ingestWindowBytes;
+	}
+
+	public long getIngestWindowTimeout() {
+		return this.ingestWindowTimeout;
+	}
+
+	public void setIngestWindowTimeout(long ingestWindowTimeout) {
+		this.ingestWindowTimeout = ingestWindowTimeout;
+	}
+
+	public long getIngestWindowTargetLatency() {
+		return this.ingestWindowTargetLatency;
+	}
+
+	public void setIngestWindowTargetLatency(long ingestWindowTargetLatency) {
+		this.ingestWindowTargetLatency = ingestWindowTargetLatency;
+	}
+
+	public boolean isIngestWindowCoalesce() {
+		return this.ingestWindowCoalesce;
+	}
+
+	public void setIngestWindowCoalesce(boolean ingestWindowCoalesce) {
+		this.ingestWindowCoalesce = ingestWindowCoalesce;
+	}
+
+	public long getCounterFlushInterval() {
+		return this.counterFlushInterval;
+	}
+
+	public void setCounterFlushInterval(long counterFlushInterval) {
+		this.counterFlushInterval = counterFlushInterval;
+	}
+
+	public int getCounterMaxKeys() {
+		return this.counterMaxKeys;
+	}
+
+	public void setCounterMaxKeys(int counterMaxKeys) {
+		this.counterMaxKeys = counterMaxKeys;
+	}
+
+	public int getWriteLanes() {
+		return this.writeLanes;
+	}
+
+	public void setWriteLanes(int writeLanes) {
+		this.writeLanes = writeLanes;
+	}
+
+	public int getWriteLaneCapacity() {
+		return this.writeLaneCapacity;
+	}
+
+	public void setWriteLaneCapacity(int writeLaneCapacity) {
+		this.writeLaneCapacity = writeLaneCapacity;
+	}
+
+	public boolean isWriteLaneVirtualThreads() {
+		return this.writeLaneVirtualThreads;
+	}
+
+	public void setWriteLaneVirtualThreads(boolean writeLaneVirtualThreads) {
+		this.writeLaneVirtualThreads = writeLaneVirtualThreads;
+	}
+
+	public int getWriteLaneMaxPlatformThreads() {
+		return this.writeLaneMaxPlatformThreads;
+	}
+
+	public void setWriteLaneMaxPlatformThreads(int writeLaneMaxPlatformThreads) {
+		this.writeLaneMaxPlatformThreads = writeLaneMaxPlatformThreads;
+	}
+
+	public boolean isAckAfterWrite() {
+		return this.ackAfterWrite;
+	}
+
+	public void setAckAfterWrite(boolean ackAfterWrite) {
+		this.ackAfterWrite = ackAfterWrite;
+	}
+
+	public String getAckHeader() {
+		return this.ackHeader;
+	}
+
+	public void setAckHeader(String ackHeader) {
+		this.ackHeader = ackHeader;
+	}
+
+	public String getAckPartitionHeader() {
+		return this.ackPartitionHeader;
+	}
+
+	public void setAckPartitionHeader(String ackPartitionHeader) {
+		this.ackPartitionHeader = ackPartitionHeader;
+	}
+
+	public String getAckOffsetHeader() {
+		return this.ackOffsetHeader;
+	}
+
+	public void setAckOffsetHeader(String ackOffsetHeader) {
+		this.ackOffsetHeader = ackOffsetHeader;
+	}
+
+	public String getWriteTimestampHeader() {
+		return this.writeTimestampHeader;
+	}
+
+	public void setWriteTimestampHeader(String writeTimestampHeader) {
+		this.writeTimestampHeader = writeTimestampHeader;
+	}
+
+	public String getWriteTtlHeader() {
+		return this.writeTtlHeader;
+	}
+
+	public void setWriteTtlHeader(String writeTtlHeader) {
+		this.writeTtlHeader = writeTtlHeader;
+	}
+
+	public String getWriteConsistencyLevelHeader() {
+		return this.writeConsistencyLevelHeader;
+	}
+
+	public void setWriteConsistencyLevelHeader(String writeConsistencyLevelHeader) {
+		this.writeConsistencyLevelHeader = writeConsistencyLevelHeader;
+	}
+
+	public boolean isReactive() {
+		return this.reactive;
+	}
+
+	public void setReactive(boolean reactive) {
+		this.reactive = reactive;
+	}
+
+	public int getReactiveConcurrency() {
+		return this.reactiveConcurrency;
+	}
+
+	public void setReactiveConcurrency(int reactiveConcurrency) {
+		this.reactiveConcurrency = reactiveConcurrency;
+	}
+
+	public int getReactiveMaxInFlight() {
+		return this.reactiveMaxInFlight;
+	}
+
+	public void setReactiveMaxInFlight(int reactiveMaxInFlight) {
+		this.reactiveMaxInFlight = reactiveMaxInFlight;
+	}
+
+	public int getReactiveWindowSize() {
+		return this.reactiveWindowSize;
+	}
+
+	public void setReactiveWindowSize(int reactiveWindowSize) {
+		this.reactiveWindowSize = reactiveWindowSize;
+	}
+
+	public long getReactiveWindowTimeout() {
+		return this.reactiveWindowTimeout;
+	}
+
+	public void setReactiveWindowTimeout(long reactiveWindowTimeout) {
+		this.reactiveWindowTimeout = reactiveWindowTimeout;
+	}
+
+	public boolean isIngestBatchByPartition() {
+		return this.ingestBatchByPartition;
+	}
+
+	public void setIngestBatchByPartition(boolean ingestBatchByPartition) {
+		this.ingestBatchByPartition = ingestBatchByPartition;
+	}
+
+	public int getIngestBatchSize() {
+		return this.ingestBatchSize;
+	}
+
+	public void setIngestBatchSize(int ingestBatchSize) {
+		this.ingestBatchSize = ingestBatchSize;
+	}
+
+	public long getIngestBatchBytes() {
+		return this.ingestBatchBytes;
+	}
+
+	public void setIngestBatchBytes(long ingestBatchBytes) {
+		this.ingestBatchBytes = ingestBatchBytes;
+	}
+
+	public boolean isIngestErrorIsolation() {
+		return this.ingestErrorIsolation;
+	}
+
+	public void setIngestErrorIsolation(boolean ingestErrorIsolation) {
+		this.ingestErrorIsolation = ingestErrorIsolation;
+	}
+
+	public boolean isIngestUnsetAbsentFields() {
+		return this.ingestUnsetAbsentFields;
+	}
+
+	public void setIngestUnsetAbsentFields(boolean ingestUnsetAbsentFields) {
+		this.ingestUnsetAbsentFields = ingestUnsetAbsentFields;
+	}
+
+	public boolean isIngestUnsetNullFields() {
+		return this.ingestUnsetNullFields;
+	}
+
+	public void setIngestUnsetNullFields(boolean ingestUnsetNullFields) {
+		this.ingestUnsetNullFields = ingestUnsetNullFields;
+	}
+
+	public int getMaxInFlightWrites() {
+		return this.maxInFlightWrites;
+	}
+
+	public void setMaxInFlightWrites(int maxInFlightWrites) {
+		this.maxInFlightWrites = maxInFlightWrites;
+	}
+
+	public long getMaxInFlightBytes() {
+		return this.maxInFlightBytes;
+	}
+
+	public void setMaxInFlightBytes(long maxInFlightBytes) {
+		this.maxInFlightBytes = maxInFlightBytes;
+	}
+
+	public double getMaxWriteRate() {
+		return this.maxWriteRate;
+	}
+
+	public void setMaxWriteRate(double maxWriteRate) {
+		this.maxWriteRate = maxWriteRate;
+	}
+
+	public double getMinWriteRate() {
+		return this.minWriteRate;
+	}
+
+	public void setMinWriteRate(double minWriteRate) {
+		this.minWriteRate = minWriteRate;
+	}
+
+	public long getWriteRateTargetLatency() {
+		return this.writeRateTargetLatency;
+	}
+
+	public void setWriteRateTargetLatency(long writeRateTargetLatency) {
+		this.writeRateTargetLatency = writeRateTargetLatency;
+	}
+
+	public int getWriteRetryMaxAttempts() {
+		return this.writeRetryMaxAttempts;
+	}
+
+	public void setWriteRetryMaxAttempts(int writeRetryMaxAttempts) {
+		this.writeRetryMaxAttempts = writeRetryMaxAttempts;
+	}
+
+	public long getWriteRetryInitialInterval() {
+		return this.writeRetryInitialInterval;
+	}
+
+	public void setWriteRetryInitialInterval(long writeRetryInitialInterval) {
+		this.writeRetryInitialInterval = writeRetryInitialInterval;
+	}
+
+	public double getWriteRetryMultiplier() {
+		return this.writeRetryMultiplier;
+	}
+
+	public void setWriteRetryMultiplier(double writeRetryMultiplier) {
+		this.writeRetryMultiplier = writeRetryMultiplier;
+	}
+
+	public long getWriteRetryMaxInterval() {
+		return this.writeRetryMaxInterval;
+	}
+
+	public void setWriteRetryMaxInterval(long writeRetryMaxInterval) {
+		this.writeRetryMaxInterval = writeRetryMaxInterval;
+	}
+
+	public double getWriteRetryJitter() {
+		return this.writeRetryJitter;
+	}
+
+	public void setWriteRetryJitter(double writeRetryJitter) {
+		this.writeRetryJitter = writeRetryJitter;
+	}
+
+	public long getDedupWindow() {
+		return this.dedupWindow;
+	}
+
+	public void setDedupWindow(long dedupWindow) {
+		this.dedupWindow = dedupWindow;
+	}
+
+	public int getDedupMaxEntries() {
+		return this.dedupMaxEntries;
+	}
+
+	public void setDedupMaxEntries(int dedupMaxEntries) {
+		this.dedupMaxEntries = dedupMaxEntries;
+	}
+
+	public String getDedupKeyHeader() {
+		return this.dedupKeyHeader;
+	}
+
+	public void setDedupKeyHeader(String dedupKeyHeader) {
+		this.dedupKeyHeader = dedupKeyHeader;
+	}
+
+	public String getDeadLetterDestination() {
+		return this.deadLetterDestination;
+	}
+
+	public void setDeadLetterDestination(String deadLetterDestination) {
+		this.deadLetterDestination = deadLetterDestination;
+	}
+
+	public String[] getDateTimePatterns() {
+		return this.dateTimePatterns;
+	}
+
+	public void setDateTimePatterns(String[] dateTimePatterns) {
+		this.dateTimePatterns = dateTimePatterns;
+	}
+
+	public Resource getAvroSchema() {
+		return this.avroSchema;
+	}
+
+	public void setAvroSchema(Resource avroSchema) {
+		this.avroSchema = avroSchema;
+	}
+
+	public Resource getAvroReaderSchema() {
+		return this.avroReaderSchema;
+	}
+
+	public void setAvroReaderSchema(Resource avroReaderSchema) {
+		this.avroReaderSchema = avroReaderSchema;
+	}
+
+	public char getCsvColumnSeparator() {
+		return this.csvColumnSeparator;
+	}
+
+	public void setCsvColumnSeparator(char csvColumnSeparator) {
+		this.csvColumnSeparator = csvColumnSeparator;
+	}
+
 	public Expression getStatementExpression() {
 		return this.statementExpression;
 	}
@@ -91,6 +757,14 @@ public class CassandraSinkProperties {
 		this.statementExpression = statementExpression;
 	}
 
+	public int getStatementCacheSize() {
+		return this.statementCacheSize;
+	}
+
+	public void setStatementCacheSize(int statementCacheSize) {
+		this.statementCacheSize = statementCacheSize;
+	}
+
 	public ConsistencyLevel getConsistencyLevel() {
 		return this.consistencyLevel;
 	}
@@ -0,0 +1,44 @@
+/*
+ * Copyright 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.cloud.stream.app.cassandra.sink;
+
+/**
+ * Converts a decoded payload value into the Java type expected by the driver
+ * for a particular ingest query parameter.
+ *
+ * @see ColumnConverters
+ */
+@FunctionalInterface
+interface ColumnConverter {
+
+	/**
+	 * Convert the provided value.
+	 * @param value the decoded payload value; may be {@code null}.
+	 * @return the value to bind.
+	 */
+	Object convert(Object value);
+
+	/**
+	 * Whether the converter needs the floating point numbers of the payload as exact decimals,
+	 * e.g. for {@code decimal} columns, instead of their {@code double} approximations.
+	 * @return true to read the floating point numbers as {@link java.math.BigDecimal}s.
+	 */
+	default boolean isExactDecimal() {
+		return false;
+	}
+
+}
@@ -0,0 +1,523 @@
+/*
+ * Copyright 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.cloud.stream.app.cassandra.sink;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.nio.ByteBuffer;
+import java.time.Instant;
+import java.time.LocalTime;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Collection;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.UUID;
+
+import org.springframework.cloud.stream.app.cassandra.query.ColumnNameExtractor;
+import org.springframework.cloud.stream.app.cassandra.query.IngestQuery;
+
+import com.datastax.driver.core.Cluster;
+import com.datastax.driver.core.CodecRegistry;
+import com.datastax.driver.core.ColumnMetadata;
+import com.datastax.driver.core.DataType;
+import com.datastax.driver.core.Duration;
+import com.datastax.driver.core.LocalDate;
+import com.datastax.driver.core.TableMetadata;
+import com.datastax.driver.core.TupleType;
+import com.datastax.driver.core.UDTValue;
+import com.datastax.driver.core.UserType;
+
+/**
+ * Factory for {@link ColumnConverter}s.
+ * <p>
+ * The schema-aware converters are built once per ingest query parameter from the CQL type
+ * of the bound column, so no type guessing happens per value.
+ * The {@link #heuristic()} converter is a fallback when the table metadata is not available.
+ * Date/time values are parsed with the provided {@link DateTimeParser}.
+ */
+final class ColumnConverters {
+
+	private static final ColumnConverter IDENTITY = value -> value;
+
+	private final DateTimeParser dateTimeParser;
+
+	private final ColumnConverter heuristic = this::convertByHeuristics;
+
+	ColumnConverters(DateTimeParser dateTimeParser) {
+		this.dateTimeParser = dateTimeParser;
+	}
+
+	/**
+	 * Return the converter which treats ISO-8601 looking strings as timestamps and UUID looking strings as UUIDs,
+	 * independently of the target column type.
+	 * @return the heuristic converter.
+	 */
+	ColumnConverter heuristic() {
+		return this.heuristic;
+	}
+
+	/**
+	 * Build converters for the parameters of the ingest query from the target table metadata
+	 * in the {@link Cluster}.
+	 * @param cluster the cluster to obtain the table metadata from.
+	 * @param keyspace the default keyspace if the query table is not qualified; may be {@code null}.
+	 * @param query the ingest query.
+	 * @param columnNameExtractor the extractor for the columns bound by the query parameters.
+	 * @return the converters in the parameter order or {@code null} if the table metadata is not available.
+	 */
+	ColumnConverter[] forIngestQuery(Cluster cluster, String keyspace, String query,
+			ColumnNameExtractor columnNameExtractor) {
+
+		TableMetadata tableMetadata = IngestQueryTable.resolve(cluster, keyspace, query);
+		if (tableMetadata == null) {
+			return null;
+		}
+		return forColumns(tableMetadata, columnNameExtractor.extractBoundColumns(query),
+				cluster.getConfiguration().getCodecRegistry());
+	}
+
+	/**
+	 * Build converters for the provided columns of the table.
+	 * The {@code USING TTL} parameters get the {@code int} converter and the {@code USING TIMESTAMP} ones
+	 * the {@link #writeTimestamp()} converter; any other column which is not present in the table metadata
+	 * gets the {@link #heuristic()} converter.
+	 * @param table the table metadata.
+	 * @param boundColumns the table columns bound by the ingest query parameters, in the parameter order.
+	 * @param codecRegistry the registry to resolve codecs for UDT fields.
+	 * @return the converters in the parameter order.
+	 */
+	ColumnConverter[] forColumns(TableMetadata table, List<String> boundColumns,
+			CodecRegistry codecRegistry) {
+
+		ColumnConverter[] converters = new ColumnConverter[boundColumns.size()];
+		int i = 0;
+		for (String boundColumn : boundColumns) {
+			ColumnMetadata column = table.getColumn(boundColumn);
+			if (column != null) {
+				converters[i++] = forType(column.getType(), codecRegistry);
+			}
+			else if (IngestQuery.TTL_COLUMN.equals(boundColumn)) {
+				converters[i++] = forType(DataType.cint(), codecRegistry);
+			}
+			else if (IngestQuery.TIMESTAMP_COLUMN.equals(boundColumn)) {
+				converters[i++] = writeTimestamp();
+			}
+			else {
+				converters[i++] = this.heuristic;
+			}
+		}
+		return converters;
+	}
+
+	/**
+	 * Return the converter for the {@code USING TIMESTAMP} values: the event time of the row
+	 * in the same units as the write timestamp header, converted to microseconds since epoch.
+	 * @return the write timestamp converter.
+	 * @see MessageWriteOptions#timestampMicros(Object, DateTimeParser)
+	 */
+	ColumnConverter writeTimestamp() {
+		return nullSafe(value -> MessageWriteOptions.timestampMicros(value, this.dateTimeParser));
+	}
+
+	ColumnConverter[] heuristic(int size) {
+		ColumnConverter[] converters = new ColumnConverter[size];
+		for (int i = 0; i < size; i++) {
+			converters[i] = this.heuristic;
+		}
+		return converters;
+	}
+
+	/**
+	 * Wrap the converters to not fail on the values which cannot be converted,
+	 * but to return an {@link InvalidValue} with the conversion error instead,
+	 * so a row with a bad value can be isolated from the rest of the payload at the write time.
+	 * @param converters the converters to wrap.
+	 * @return the lenient converters.
+	 */
+	static ColumnConverter[] lenient(ColumnConverter[] converters) {
+		ColumnConverter[] lenientConverters = new ColumnConverter[converters.length];
+		for (int i = 0; i < converters.length; i++) {
+			ColumnConverter converter = converters[i];
+			ColumnConverter lenientConverter = value -> {
+				try {
+					return converter.convert(value);
+				}
+				catch (IllegalArgumentException ex) {
+					return new InvalidValue(value, ex);
+				}
+			};
+			lenientConverters[i] = converter.isExactDecimal() ? exactDecimal(lenientConverter) : lenientConverter;
+		}
+		return lenientConverters;
+	}
+
+	ColumnConverter forType(DataType type, CodecRegistry codecRegistry) {
+		switch (type.getName()) {
+			case ASCII:
+			case TEXT:
+			case VARCHAR:
+				return nullSafe(value -> value instanceof String ? value : value.toString());
+			case BOOLEAN:
+				return nullSafe(value -> value instanceof Boolean ? value : Boolean.valueOf(value.toString()));
+			case TINYINT:
+				return nullSafe(value -> value instanceof Number
+						? (byte) toLongExact(value, Byte.MIN_VALUE, Byte.MAX_VALUE)
+						: Byte.valueOf(value.toString()));
+			case SMALLINT:
+				return nullSafe(value -> value instanceof Number
+						? (short) toLongExact(value, Short.MIN_VALUE, Short.MAX_VALUE)
+						: Short.valueOf(value.toString()));
+			case INT:
+				return nullSafe(value -> value instanceof Number
+						? (int) toLongExact(value, Integer.MIN_VALUE, Integer.MAX_VALUE)
+						: Integer.valueOf(value.toString()));
+			case BIGINT:
+			case COUNTER:
+				return nullSafe(value -> value instanceof Number
+						? toLongExact(value, Long.MIN_VALUE, Long.MAX_VALUE)
+						: Long.valueOf(value.toString()));
+			case VARINT:
+				return nullSafe(ColumnConverters::toBigInteger);
+			case DECIMAL:
+				return exactDecimal(nullSafe(ColumnConverters::toBigDecimal));
+			case FLOAT:
+				return nullSafe(value -> value instanceof Number
+						? ((Number) value).floatValue()
+						: Float.valueOf(value.toString()));
+			case DOUBLE:
+				return nullSafe(value -> value instanceof Number
+						? ((Number) value).doubleValue()
+						: Double.valueOf(value.toString()));
+			case TIMESTAMP:
+				return nullSafe(this::toTimestamp);
+			case DATE:
+				return nullSafe(this::toDate);
+			case TIME:
+				return nullSafe(value -> value instanceof Number
+						? toLongExact(value, Long.MIN_VALUE, Long.MAX_VALUE)
+						: LocalTime.parse(value.toString()).toNanoOfDay());
+			case UUID:
+			case TIMEUUID:
+				return nullSafe(value -> value instanceof UUID ? value : UUID.fromString(value.toString()));
+			case INET:
+				return nullSafe(ColumnConverters::toInet);
+			case BLOB:
+				return nullSafe(ColumnConverters::toBlob);
+			case DURATION:
+				return nullSafe(value -> value instanceof Duration ? value : Duration.from(value.toString()));
+			case LIST:
+				return collection(type.getTypeArguments().get(0), codecRegistry, false);
+			case SET:
+				return collection(type.getTypeArguments().get(0), codecRegistry, true);
+			case MAP:
+				return map(type.getTypeArguments().get(0), type.getTypeArguments().get(1), codecRegistry);
+			case UDT:
+				return udt((UserType) type, codecRegistry);
+			case TUPLE:
+				return tuple((TupleType) type, codecRegistry);
+			default:
+				return IDENTITY;
+		}
+	}
+
+	private static ColumnConverter nullSafe(ColumnConverter converter) {
+		return value -> {
+			if (value == null) {
+				return null;
+			}
+			try {
+				return converter.convert(value);
+			}
+			catch (RuntimeException ex) {
+				throw new IllegalArgumentException("Cannot convert value [" + value + "] to the column type", ex);
+			}
+		};
+	}
+
+	private static ColumnConverter exactDecimal(ColumnConverter converter) {
+		return new ColumnConverter() {
+
+			@Override
+			public Object convert(Object value) {
+				return converter.convert(value);
+			}
+
+			@Override
+			public boolean isExactDecimal() {
+				return true;
+			}
+
+		};
+	}
+
+	private ColumnConverter collection(DataType elementType, CodecRegistry codecRegistry, boolean set) {
+		ColumnConverter elementConverter = forType(elementType, codecRegistry);
+		return nullSafe(value -> {
+			Collection<?> source = (Collection<?>) value;
+			Collection<Object> result;
+			if (set) {
+				result = new LinkedHashSet<>(source.size());
+			}
+			else {
+				result = new ArrayList<>(source.size());
+			}
+			for (Object element : source) {
+				result.add(elementConverter.convert(element));
+			}
+			return result;
+		});
+	}
+
+	private ColumnConverter map(DataType keyType, DataType valueType, CodecRegistry codecRegistry) {
+		ColumnConverter keyConverter = forType(keyType, codecRegistry);
+		ColumnConverter valueConverter = forType(valueType, codecRegistry);
+		return nullSafe(value -> {
+			Map<?, ?> source = (Map<?, ?>) value;
+			Map<Object, Object> result = new LinkedHashMap<>(source.size());
+			for (Map.Entry<?, ?> entry : source.entrySet()) {
+				result.put(keyConverter.convert(entry.getKey()), valueConverter.convert(entry.getValue()));
+			}
+			return result;
+		});
+	}
+
+	private ColumnConverter udt(UserType userType, CodecRegistry codecRegistry) {
+		Map<String, ColumnConverter> fieldConverters = new LinkedHashMap<>();
+		for (UserType.Field field : userType) {
+			fieldConverters.put(field.getName(), forType(field.getType(), codecRegistry));
+		}
+		return nullSafe(value -> {
+			if (value instanceof UDTValue) {
+				return value;
+			}
+			UDTValue udtValue = userType.newValue();
+			for (Map.Entry<?, ?> entry : ((Map<?, ?>) value).entrySet()) {
+				String fieldName = entry.getKey().toString();
+				if (userType.contains(fieldName)) {
+					ColumnConverter fieldConverter = fieldConverters.get(fieldName.toLowerCase(Locale.ROOT));
+					Object fieldValue = fieldConverter != null
+							? fieldConverter.convert(entry.getValue())
+							: entry.getValue();
+					if (fieldValue == null) {
+						udtValue.setToNull(fieldName);
+					}
+					else {
+						udtValue.set(fieldName, fieldValue,
+								codecRegistry.codecFor(userType.getFieldType(fieldName), fieldValue));
+					}
+				}
+			}
+			return udtValue;
+		});
+	}
+
+	private ColumnConverter tuple(TupleType tupleType, CodecRegistry codecRegistry) {
+		List<DataType> componentTypes = tupleType.getComponentTypes();
+		ColumnConverter[] componentConverters = new ColumnConverter[componentTypes.size()];
+		for (int i = 0; i < componentConverters.length; i++) {
+			componentConverters[i] = forType(componentTypes.get(i), codecRegistry);
+		}
+		return nullSafe(value -> {
+			List<?> source = (List<?>) value;
+			Object[] components = new Object[componentConverters.length];
+			for (int i = 0; i < components.length && i < source.size(); i++) {
+				components[i] = componentConverters[i].convert(source.get(i));
+			}
+			return tupleType.newValue(components);
+		});
+	}
+
+	/*
+	 * The integral numbers in the range as is; the fractional and out of range numbers are rejected
+	 * (with an ArithmeticException) instead of being truncated or wrapped.
+	 */
+	static long toLongExact(Object value, long min, long max) {
+		long result;
+		if (value instanceof Long || value instanceof Integer || value instanceof Short || value instanceof Byte) {
+			result = ((Number) value).longValue();
+		}
+		else {
+			result = ((BigDecimal) toBigDecimal(value)).longValueExact();
+		}
+		if (result < min || result > max) {
+			throw new ArithmeticException("Value out of range: " + value);
+		}
+		return result;
+	}
+
+	private static Object toBigInteger(Object value) {
+		if (value instanceof BigInteger) {
+			return value;
+		}
+		else if (value instanceof Long || value instanceof Integer || value instanceof Short
+				|| value instanceof Byte) {
+
+			return BigInteger.valueOf(((Number) value).longValue());
+		}
+		else if (value instanceof Number) {
+			return ((BigDecimal) toBigDecimal(value)).toBigIntegerExact();
+		}
+		else {
+			return new BigInteger(value.toString());
+		}
+	}
+
+	private static Object toBigDecimal(Object value) {
+		if (value instanceof BigDecimal) {
+			return value;
+		}
+		else if (value instanceof BigInteger) {
+			return new BigDecimal((BigInteger) value);
+		}
+		else if (value instanceof Double || value instanceof Float) {
+			return BigDecimal.valueOf(((Number) value).doubleValue());
+		}
+		else if (value instanceof Number) {
+			return BigDecimal.valueOf(((Number) value).longValue());
+		}
+		else {
+			return new BigDecimal(value.toString());
+		}
+	}
+
+	private Object toTimestamp(Object value) {
+		if (value instanceof Date) {
+			return value;
+		}
+		else if (value instanceof Number) {
+			return new Date(((Number) value).longValue());
+		}
+		else if (value instanceof Instant) {
+			return Date.from((Instant) value);
+		}
+		else {
+			return this.dateTimeParser.parseDate(value.toString());
+		}
+	}
+
+	private Object toDate(Object value) {
+		if (value instanceof LocalDate) {
+			return value;
+		}
+		else if (value instanceof Number) {
+			return LocalDate.fromDaysSinceEpoch(((Number) value).intValue());
+		}
+		else {
+			return this.dateTimeParser.parseLocalDate(value.toString());
+		}
+	}
+
+	private static Object toInet(Object value) {
+		if (value instanceof InetAddress) {
+			return value;
+		}
+		try {
+			return InetAddress.getByName(value.toString());
+		}
+		catch (UnknownHostException ex) {
+			throw new IllegalArgumentException(ex);
+		}
+	}
+
+	private static Object toBlob(Object value) {
+		if (value instanceof ByteBuffer) {
+			return value;
+		}
+		else if (value instanceof byte[]) {
+			return ByteBuffer.wrap((byte[]) value);
+		}
+		else {
+			return ByteBuffer.wrap(Base64.getDecoder().decode(value.toString()));
+		}
+	}
+
+	private Object convertByHeuristics(Object value) {
+		if (value instanceof String) {
+			String string = (String) value;
+			if (DateTimeParser.looksLikeIsoDate(string)) {
+				return this.dateTimeParser.parseDate(string);
+			}
+			if (isUuid(string)) {
+				return UUID.fromString(string);
+			}
+		}
+		return value;
+	}
+
+	private static boolean isUuid(String uuid) {
+		if (uuid.length() != 36) {
+			return false;
+		}
+		for (int i = 0; i < 36; i++) {
+			char c = uuid.charAt(i);
+			boolean dashPosition = i == 8 || i == 13 || i == 18 || i == 23;
+			if (dashPosition != (c == '-')) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * The result of a failed lenient conversion; fails the write of the row.
+	 */
+	static final class InvalidValue {
+
+		private final Object value;
+
+		private final IllegalArgumentException error;
+
+		InvalidValue(Object value, IllegalArgumentException error) {
+			this.value = value;
+			this.error = error;
+		}
+
+		/**
+		 * Return the source value which cannot be converted.
+		 * @return the source value.
+		 */
+		Object getValue() {
+			return this.value;
+		}
+
+		/**
+		 * Throw the conversion error if the row contains an {@link InvalidValue}.
+		 * @param row the row to check.
+		 */
+		static void check(List<?> row) {
+			for (Object value : row) {
+				if (value instanceof InvalidValue) {
+					throw ((InvalidValue) value).error;
+				}
+			}
+		}
+
+		@Override
+		public String toString() {
+			return "InvalidValue[" + this.error.getMessage() + "]";
+		}
+
+	}
+
+}
@@ -0,0 +1,129 @@
+/*
+ * Copyright 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.cloud.stream.app.cassandra.sink;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.List;
+import java.util.Locale;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.InflaterInputStream;
+
+import org.springframework.messaging.MessageHeaders;
+import org.springframework.util.StringUtils;
+
+import com.github.luben.zstd.ZstdInputStream;
+import net.jpountz.lz4.LZ4FrameInputStream;
+import org.xerial.snappy.SnappyFramedInputStream;
+
+/**
+ * The decoders for the compressed ingest payloads by the {@code Content-Encoding} message header.
+ * <p>
+ * The payload is wrapped into a decompressing {@link InputStream} the payload parser reads from,
+ * so the decompressed content is never materialized as a whole.
+ * The {@code gzip} and {@code deflate} encodings are decoded with the JDK;
+ * {@code lz4} (frame format), {@code snappy} (framing format) and {@code zstd} with
+ * {@code org.lz4:lz4-java}, {@code org.xerial.snappy:snappy-java} and {@code com.github.luben:zstd-jni},
+ * respectively.
+ * Several encodings in one header value (e.g. {@code zstd, gzip}) are decoded in the reverse order.
+ */
+final class ContentEncodings {
+
+	/**
+	 * The message header for the content encoding of the payload.
+	 */
+	static final String CONTENT_ENCODING_HEADER = "Content-Encoding";
+
+	private ContentEncodings() {
+	}
+
+	/**
+	 * Obtain the content encoding from the {@link #CONTENT_ENCODING_HEADER} header
+	 * or its lower-case variant.
+	 * @param headers the message headers.
+	 * @return the content encoding or null.
+	 */
+	static String contentEncoding(MessageHeaders headers) {
+		Object contentEncoding = headers.get(CONTENT_ENCODING_HEADER);
+		if (contentEncoding == null) {
+			contentEncoding = headers.get("content-encoding");
+		}
+		return contentEncoding != null ? contentEncoding.toString() : null;
+	}
+
+	/**
+	 * Wrap the payload into the decompressing streams for the content encoding.
+	 * @param payload the {@code byte[]}, {@code InputStream} or {@code File} payload;
+	 * the already transformed {@code List} payloads are returned as is.
+	 * @param contentEncoding the content encoding; null or {@code identity} for not encoded payloads.
+	 * @return the stream of the decompressed payload or the payload as is if it is not encoded.
+	 * @throws IOException if the decompressing stream cannot be created.
+	 */
+	static Object decode(Object payload, String contentEncoding) throws IOException {
+		if (!StringUtils.hasText(contentEncoding) || payload instanceof List) {
+			return payload;
+		}
+		String[] encodings = StringUtils.commaDelimitedListToStringArray(contentEncoding);
+		Object decoded = payload;
+		for (int i = encodings.length - 1; i >= 0; i--) {
+			String encoding = encodings[i].trim().toLowerCase(Locale.ROOT);
+			if (!encoding.isEmpty() && !"identity".equals(encoding)) {
+				decoded = decode(inputStream(decoded), encoding);
+			}
+		}
+		return decoded;
+	}
+
+	private static InputStream decode(InputStream inputStream, String encoding) throws IOException {
+		switch (encoding) {
+			case "gzip":
+			case "x-gzip":
+				return new GZIPInputStream(inputStream, 8192);
+			case "deflate":
+				return new InflaterInputStream(inputStream);
+			case "lz4":
+				return new LZ4FrameInputStream(inputStream);
+			case "snappy":
+			case "x-snappy-framed":
+				return new SnappyFramedInputStream(inputStream);
+			case "zstd":
+				return new ZstdInputStream(inputStream);
+			default:
+				throw new IllegalArgumentException("Unsupported content encoding for ingest: " + encoding);
+		}
+	}
+
+	private static InputStream inputStream(Object payload) throws IOException {
+		if (payload instanceof InputStream) {
+			return (InputStream) payload;
+		}
+		else if (payload instanceof byte[]) {
+			return new ByteArrayInputStream((byte[]) payload);
+		}
+		else if (payload instanceof File) {
+			return new FileInputStream((File) payload);
+		}
+		else {
+			throw new IllegalArgumentException(
+					"Unsupported payload type for the encoded ingest: " + payload.getClass());
+		}
+	}
+
+}
@@ -0,0 +1,209 @@
+/*
+ * Copyright 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.springframework.cloud.stream.app.cassandra.sink;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.springframework.context.SmartLifecycle;
+import org.springframework.integration.handler.AbstractMessageProducingHandler;
+import org.springframework.integration.support.MessageBuilder;
+import org.springframework.messaging.Message;
+import org.springframework.util.Assert;
+
+/**
+ * The {@link AbstractMessageProducingHandler} to pre-aggregate the ingest rows for a counter update query
+ * ({@code update t set hits = hits + ? where id = ?}): the increments are summed per key
+ * (the {@code WHERE} clause values) in {@link LongAdder}s and the deltas are emitted downstream
+ * as a single {@code List<List<Object>>} payload with one row per key on a fixed interval
+ * or when the number of keys reaches the threshold.
+ * <p>
+ * The accumulators are swapped on each flush, so the increments are never blocked by a flush.
+ * A swapped out map is drained once more on the next flush to pick up the increments
+ * which raced with the swap.
+ * <p>
+ * Non-{@link List} payloads are passed downstream as is.
+ */
+class CounterAggregator extends AbstractMessageProducingHandler implements SmartLifecycle {
+
+	private final Object flushMonitor = new Object();
+
+	private final int[] counterPositions;
+
+	private final int[] keyPositions;
+
+	private final long flushInterval;
+
+	private final int maxKeys;
+
+	private volatile Map<List<Object>, LongAdder[]> counters = new ConcurrentHashMap<>();
+
+	private Map<List<Object>, LongAdder[]> retiredCounters;
+
+	private ScheduledFuture<?> flushTask;
+
+	private volatile boolean running;
+
+	/**
+	 * @param counterPositions the positions of the increments in the rows.
+	 * @param keyPositions the positions of the key values in the rows.
+	 * @param flushInterval the interval in milliseconds to emit the aggregated deltas.
+	 * @param maxKeys the number of keys to emit the aggregated deltas before the interval expires.
+	 */
+	CounterAggregator(int[] counterPositions, int[] keyPositions, long flushInterval, int maxKeys) {
+		Assert.isTrue(counterPositions.length > 0, "'counterPositions' must not be empty");
+		Assert.isTrue(keyPositions.length > 0, "'keyPositions' must not be empty");
+		Assert.isTrue(flushInterval > 0, "'flushInterval' must be greater than 0");
+		Assert.isTrue(maxKeys > 0, "'maxKeys' must be greater than 0");
+		this.counterPositions = counterPositions;
+		this.keyPositions = keyPositions;
+		this.flushInterval = flushInterval;
+		this.maxKeys = maxKeys;
+	}
+
+	@Override
+	@SuppressWarnings("unchecked")
+	protected void handleMessageInternal(Message<?> message) {
+		Object payload = message.getPayload();
+		if (!(payload instanceof List)) {
+			sendOutput(message, null, false);
+			return;
+		}
+		Map<List<Object>, LongAdder[]> counters = this.counters;
+		for (List<Object> row : (List<List<Object>>) payload) {
+			List<Object> key = keyOf(row);
+			LongAdder[] adders = counters.get(key);
+			if (adders == null) {
+				adders = counters.computeIfAbsent(key, k -> newAdders());
+			}
+			for (int i = 0; i < this.counterPositions.length; i++) {
+				Object increment = row.get(this.counterPositions[i]);
+				if (increment instanceof Number) {
+					adders[i].add(((Number) increment).longValue());
+				}
+			}
+		}
+		if (counters.size() >= this.maxKeys) {
+			flush();
+		}
+	}
+
+	private List<Object> keyOf(List<Object> row) {
+		Object[] key = new Object[this.keyPositions.length];
+		for (int i = 0; i < key.length; i++) {
+			key[i] = row.get(this.keyPositions[i]);
+		}
+		return Arrays.asList(key);
+	}
+
+	private LongAdder[] newAdders() {
+		LongAdder[] adders = new LongAdder[this.counterPositions.length];
+		for (int i = 0; i < adders.length; i++) {
+			adders[i] = new LongAdder();
+		}
+		return adders;
+	}
+
+	/**
+	 * Emit the deltas accumulated since the previous flush.
+	 */
+	void flush() {
+		List<List<Object>> rows = new ArrayList<>();
+		synchronized (this.flushMonitor) {
+			Map<List<Object>, LongAdder[]> counters = this.counters;
+			if (counters.isEmpty() && this.retiredCounters == null) {
+				return;
+			}
+			this.counters = new ConcurrentHashMap<>();
+			if (this.retiredCounters != null) {
+				drain(this.retiredCounters, rows);
+			}
+			drain(counters, rows);
+			this.retiredCounters = counters.isEmpty() ? null : counters;
+		}
+		if (!rows.isEmpty()) {
+			sendOutput(MessageBuilder.withPayload(rows).build(), null, false);
+		}
+	}
+
+	/*
+	 * Subtract the observed sum instead of reset, so the increments concurrent with the drain are not lost.
+	 */
+	private void drain(Map<List<Object>, LongAdder[]> counters, List<List<Object>> rows) {
+		int columns = this.counterPositions.length + this.keyPositions.length;
+		for (Map.Entry<List<Object>, LongAdder[]> entry : counters.entrySet()) {
+			Object[] row = new Object[columns];
+			boolean changed = false;
+			LongAdder[] adders = entry.getValue();
+			for (int i = 0; i < adders.length; i++) {
+				long delta = adders[i].sum();
+				if (delta != 0) {
+					adders[i].add(-delta);
+					changed = true;
+				}
+				row[this.counterPositions[i]] = delta;
+			}
+			if (changed) {
+				List<Object> key = entry.getKey();
+				for (int i = 0; i < this.keyPositions.length; i++) {
+					row[this.keyPositions[i]] = key.get(i);
+				}
+				rows.add(Arrays.asList(row));
+			}
+		}
+	}
+
+	@Override
+	public void start() {
+		if (!this.running) {
+			this.running = true;
+			this.flushTask = getTaskScheduler().scheduleAtFixedRate(this::flush, this.flushInterval);
+		}
+	}
+
+	@Override
+	public void stop() {
+		if (this.running) {
+			this.running = false;
+			if (this.flushTask != null) {
+				this.flushTask.cancel(false);
+				this.flushTask = null;
+			}
+			// the second flush drains the increments raced with the first one
+			flush();
+			flush();
+		}
+	}
+
+	@Override
+	public boolean isRunning() {
+		return this.running;
+	}
+
+	@Override
+	public int getPhase() {
+		// stop after the input binding to flush the last deltas
+		return 0;
+	}
+
+}
@@ -0,0 +1,61 @@
+/*
+ * Copyright 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.cloud.stream.app.cassandra.sink;
+
+import java.io.IOException;
+
+import org.springframework.util.MimeType;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.dataformat.csv.CsvMapper;
+import com.fasterxml.jackson.dataformat.csv.CsvSchema;
+
+/**
+ * The {@link JacksonPayloadCodec} for CSV payloads with a header row.
+ * The header names are mapped to the ingest query columns the same way as the JSON field names;
+ * every other line is read as a row. Empty values are read as {@code null}.
+ * The values are read as text and converted according to the target column types.
+ */
+class CsvPayloadCodec extends JacksonPayloadCodec {
+
+	static final MimeType[] CONTENT_TYPES = {
+			MimeType.valueOf("text/csv"),
+			MimeType.valueOf("application/csv")
+	};
+
+	private final CsvSchema schema;
+
+	/**
+	 * @param columnSeparator the column separator character.
+	 */
+	CsvPayloadCodec(char columnSeparator) {
+		super(new CsvMapper().getFactory(), CONTENT_TYPES);
+		this.schema =
+				CsvSchema.emptySchema()
+						.withHeader()
+						.withColumnSeparator(columnSeparator)
+						.withNullValue("");
+	}
+
+	@Override
+	public JsonParser createParser(Object payload) throws IOException {
+		JsonParser parser = super.createParser(payload);
+		parser.setSchema(this.schema);
+		return parser;
+	}
+
+}
@@ -0,0 +1,329 @@
+/*
+ * Copyright 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.cloud.stream.app.cassandra.sink;
+
+import java.time.DateTimeException;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeFormatterBuilder;
+import java.time.format.ResolverStyle;
+import java.time.temporal.ChronoField;
+import java.time.temporal.TemporalAccessor;
+import java.util.Date;
+
+import com.datastax.driver.core.LocalDate;
+
+/**
+ * Thread-safe, lock-free parser for date/time values of ingest payloads.
+ * <p>
+ * The common ISO-8601 forms ({@code yyyy-MM-dd}, {@code yyyy-MM-ddTHH:mm[:ss[.SSS]]}
+ * with an optional {@code Z} or {@code +HH:mm} offset) are parsed directly from the characters
+ * without any intermediate objects. Everything else is parsed with the configured {@link DateTimeFormatter}
+ * patterns and the full ISO-8601 formatter as a last resort.
+ * The digit-only values not matched by the configured patterns (e.g. {@code yyyyMMdd})
+ * are parsed as epoch millis.
+ * Values without an offset are treated as UTC.
+ */
+final class DateTimeParser {
+
+	private static final long NO_MATCH = Long.MIN_VALUE;
+
+	private static final long MILLIS_PER_DAY = 86_400_000L;
+
+	private static final long DAYS_0000_TO_1970 = 719_528L;
+
+	private static final DateTimeFormatter ISO_FORMATTER =
+			new DateTimeFormatterBuilder()
+					.parseCaseInsensitive()
+					.append(DateTimeFormatter.ISO_LOCAL_DATE)
+					.optionalStart()
+					.appendLiteral('T')
+					.append(DateTimeFormatter.ISO_LOCAL_TIME)
+					.optionalEnd()
+					.optionalStart()
+					.appendOffsetId()
+					.optionalEnd()
+					.optionalStart()
+					.appendLiteral('[')
+					.parseCaseSensitive()
+					.appendZoneRegionId()
+					.appendLiteral(']')
+					.optionalEnd()
+					.toFormatter()
+					.withResolverStyle(ResolverStyle.STRICT);
+
+	private final DateTimeFormatter[] formatters;
+
+	/**
+	 * @param patterns the additional {@link DateTimeFormatter} patterns to try
+	 * when a value is not in the ISO-8601 or epoch millis format.
+	 */
+	DateTimeParser(String... patterns) {
+		this.formatters = new DateTimeFormatter[patterns.length + 1];
+		for (int i = 0; i < patterns.length; i++) {
+			this.formatters[i] = DateTimeFormatter.ofPattern(patterns[i]);
+		}
+		this.formatters[patterns.length] = ISO_FORMATTER;
+	}
+
+	/**
+	 * Parse the text into a {@link Date} for {@code timestamp} columns.
+	 * @param text the text to parse.
+	 * @return the parsed date.
+	 */
+	Date parseDate(String text) {
+		return new Date(parseEpochMillis(text));
+	}
+
+	/**
+	 * Parse the text into a driver {@link LocalDate} for {@code date} columns.
+	 * @param text the text to parse.
+	 * @return the parsed date.
+	 */
+	LocalDate parseLocalDate(String text) {
+		if (text.length() == 10 && looksLikeIsoDate(text)) {
+			int year = digits(text, 0, 4);
+			int month = digits(text, 5, 2);
+			int day = digits(text, 8, 2);
+			if (isValidDate(year, month, day)) {
+				return LocalDate.fromYearMonthDay(year, month, day);
+			}
+		}
+		return LocalDate.fromMillisSinceEpoch(parseEpochMillis(text));
+	}
+
+	/**
+	 * Parse the text into milliseconds since epoch.
+	 * @param text the text to parse.
+	 * @return the parsed epoch millis.
+	 */
+	long parseEpochMillis(String text) {
+		long millis = parseIso(text);
+		if (millis != NO_MATCH) {
+			return millis;
+		}
+		boolean epochMillis = isEpochMillis(text);
+		DateTimeException parseException = null;
+		for (DateTimeFormatter formatter : this.formatters) {
+			if (epochMillis && formatter == ISO_FORMATTER) {
+				// the digits not matched by the configured patterns
+				return Long.parseLong(text);
+			}
+			try {
+				return toEpochMillis(formatter.parse(text));
+			}
+			catch (DateTimeException ex) {
+				// not parsed or no date in the parsed fields, e.g. a time-only pattern
+				parseException = ex;
+			}
+		}
+		throw new IllegalArgumentException("Cannot parse date/time value: " + text, parseException);
+	}
+
+	/**
+	 * Check if the text starts with an ISO-8601 date: {@code yyyy-MM-dd}.
+	 * @param text the text to check.
+	 * @return true if the text looks like an ISO-8601 date or date-time.
+	 */
+	static boolean looksLikeIsoDate(String text) {
+		return text.length() >= 10
+				&& text.charAt(4) == '-' && text.charAt(7) == '-'
+				&& isDigit(text.charAt(0)) && isDigit(text.charAt(1))
+				&& isDigit(text.charAt(2)) && isDigit(text.charAt(3))
+				&& isDigit(text.charAt(5)) && isDigit(text.charAt(6))
+				&& isDigit(text.charAt(8)) && isDigit(text.charAt(9));
+	}
+
+	private static long parseIso(String text) {
+		if (!looksLikeIsoDate(text)) {
+			return NO_MATCH;
+		}
+		int year = digits(text, 0, 4);
+		int month = digits(text, 5, 2);
+		int day = digits(text, 8, 2);
+		if (!isValidDate(year, month, day)) {
+			return NO_MATCH;
+		}
+		int length = text.length();
+		long millisOfDay = 0;
+		long offsetMillis = 0;
+		int i = 10;
+		if (i < length) {
+			char separator = text.charAt(i);
+			if ((separator != 'T' && separator != 't' && separator != ' ')
+					|| length < i + 6 || text.charAt(i + 3) != ':') {
+
+				return NO_MATCH;
+			}
+			int hour = digits(text, i + 1, 2);
+			int minute = digits(text, i + 4, 2);
+			if (hour < 0 || hour > 23 || minute < 0 || minute > 59) {
+				return NO_MATCH;
+			}
+			i += 6;
+			int second = 0;
+			int millis = 0;
+			if (i < length && text.charAt(i) == ':') {
+				second = digits(text, i + 1, 2);
+				if (second < 0 || second > 59) {
+					return NO_MATCH;
+				}
+				i += 3;
+				if (i < length && (text.charAt(i) == '.' || text.charAt(i) == ',')) {
+					int fractionStart = ++i;
+					while (i < length && isDigit(text.charAt(i))) {
+						if (i - fractionStart < 3) {
+							millis = millis * 10 + (text.charAt(i) - '0');
+						}
+						i++;
+					}
+					int fractionLength = i - fractionStart;
+					if (fractionLength == 0) {
+						return NO_MATCH;
+					}
+					for (int scale = fractionLength; scale < 3; scale++) {
+						millis *= 10;
+					}
+				}
+			}
+			millisOfDay = ((hour * 60L + minute) * 60L + second) * 1000L + millis;
+			if (i < length) {
+				offsetMillis = parseOffsetMillis(text, i);
+				if (offsetMillis == NO_MATCH) {
+					return NO_MATCH;
+				}
+			}
+		}
+		return epochDay(year, month, day) * MILLIS_PER_DAY + millisOfDay - offsetMillis;
+	}
+
+	private static long parseOffsetMillis(String text, int start) {
+		int length = text.length();
+		char sign = text.charAt(start);
+		if ((sign == 'Z' || sign == 'z') && start + 1 == length) {
+			return 0;
+		}
+		if (sign != '+' && sign != '-') {
+			return NO_MATCH;
+		}
+		int hours = digits(text, start + 1, 2);
+		int minutes = 0;
+		int i = start + 3;
+		if (i < length && text.charAt(i) == ':') {
+			i++;
+		}
+		if (i < length) {
+			minutes = digits(text, i, 2);
+			i += 2;
+		}
+		if (hours < 0 || hours > 18 || minutes < 0 || minutes > 59 || i != length) {
+			return NO_MATCH;
+		}
+		long offset = (hours * 60L + minutes) * 60_000L;
+		return sign == '-' ? -offset : offset;
+	}
+
+	private static long toEpochMillis(TemporalAccessor temporal) {
+		if (temporal.isSupported(ChronoField.INSTANT_SECONDS)) {
+			long millis = temporal.getLong(ChronoField.INSTANT_SECONDS) * 1000L;
+			if (temporal.isSupported(ChronoField.MILLI_OF_SECOND)) {
+				millis += temporal.get(ChronoField.MILLI_OF_SECOND);
+			}
+			return millis;
+		}
+		long millis = temporal.getLong(ChronoField.EPOCH_DAY) * MILLIS_PER_DAY;
+		if (temporal.isSupported(ChronoField.MILLI_OF_DAY)) {
+			millis += temporal.getLong(ChronoField.MILLI_OF_DAY);
+		}
+		if (temporal.isSupported(ChronoField.OFFSET_SECONDS)) {
+			millis -= temporal.get(ChronoField.OFFSET_SECONDS) * 1000L;
+		}
+		return millis;
+	}
+
+	private static boolean isEpochMillis(String text) {
+		int length = text.length();
+		int start = length > 1 && text.charAt(0) == '-' ? 1 : 0;
+		if (length == start || length - start > 18) {
+			return false;
+		}
+		for (int i = start; i < length; i++) {
+			if (!isDigit(text.charAt(i))) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private static int digits(String text, int start, int count) {
+		if (start + count > text.length()) {
+			return -1;
+		}
+		int value = 0;
+		for (int i = start; i < start + count; i++) {
+			char c = text.charAt(i);
+			if (!isDigit(c)) {
+				return -1;
+			}
+			value = value * 10 + (c - '0');
+		}
+		return value;
+	}
+
+	private static boolean isDigit(char c) {
+		return c >= '0' && c <= '9';
+	}
+
+	private static boolean isValidDate(int year, int month, int day) {
+		return month >= 1 && month <= 12 && day >= 1 && day <= lengthOfMonth(year, month);
+	}
+
+	private static int lengthOfMonth(int year, int month) {
+		switch (month) {
+			case 2:
+				return isLeapYear(year) ? 29 : 28;
+			case 4:
+			case 6:
+			case 9:
+			case 11:
+				return 30;
+			default:
+				return 31;
+		}
+	}
+
+	private static boolean isLeapYear(long year) {
+		return ((year & 3) == 0) && ((year % 100) != 0 || (year % 400) == 0);
+	}
+
+	/*
+	 * Same as java.time.LocalDate.toEpochDay() for non-negative years, but without a LocalDate instance.
+	 */
+	private static long epochDay(int year, int month, int day) {
+		long total = 365L * year;
+		total += (year + 3) / 4 - (year + 99) / 100 + (year + 399) / 400;
+		total += (367 * month - 362) / 12;
+		total += day - 1;
+		if (month > 2) {
+			total--;
+			if (!isLeapYear(year)) {
+				total--;
+			}
+		}
+		return total - DAYS_0000_TO_1970;
+	}
+
+}
@@ -0,0 +1,142 @@
+/*
+ * Copyright 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.springframework.cloud.stream.app.cassandra.sink;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.springframework.util.Assert;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+
+/**
+ * The time-windowed, size-bounded record of the written message (or row) keys
+ * to drop the duplicates redelivered by the broker within the window.
+ * <p>
+ * The keys are kept in the write order, so the expired and, when the max number
+ * of entries is reached, the oldest keys are evicted from the head.
+ * <p>
+ * As a {@link MeterBinder} the deduplicator exposes its size, the duplicate (hit)
+ * and unique (miss) counts and the hit ratio.
+ */
+class Deduplicator implements MeterBinder {
+
+	private final AtomicLong hits = new AtomicLong();
+
+	private final AtomicLong misses = new AtomicLong();
+
+	private final Map<Object, Long> keys;
+
+	private final long window;
+
+	/**
+	 * @param maxEntries the max number of keys to keep.
+	 * @param window the time in milliseconds to keep a key after it is recorded.
+	 */
+	Deduplicator(int maxEntries, long window) {
+		Assert.isTrue(maxEntries > 0, "'maxEntries' must be greater than 0");
+		Assert.isTrue(window > 0, "'window' must be greater than 0");
+		this.window = window;
+		this.keys = new LinkedHashMap<Object, Long>(16, 0.75f, false) {
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<Object, Long> eldest) {
+				return size() > maxEntries;
+			}
+
+		};
+	}
+
+	/**
+	 * Check if the key has been recorded within the window.
+	 * @param key the key to check.
+	 * @return true if the key is a duplicate.
+	 */
+	boolean isDuplicate(Object key) {
+		boolean duplicate;
+		synchronized (this.keys) {
+			expire(System.currentTimeMillis());
+			duplicate = this.keys.containsKey(key);
+		}
+		(duplicate ? this.hits : this.misses).incrementAndGet();
+		return duplicate;
+	}
+
+	/**
+	 * Record the key of a written message or row.
+	 * @param key the key to record.
+	 */
+	void record(Object key) {
+		long now = System.currentTimeMillis();
+		synchronized (this.keys) {
+			expire(now);
+			// re-insert to move the key to the tail
+			this.keys.remove(key);
+			this.keys.put(key, now);
+		}
+	}
+
+	private void expire(long now) {
+		Iterator<Long> timestamps = this.keys.values().iterator();
+		while (timestamps.hasNext() && now - timestamps.next() >= this.window) {
+			timestamps.remove();
+		}
+	}
+
+	int getSize() {
+		synchronized (this.keys) {
+			return this.keys.size();
+		}
+	}
+
+	long getHits() {
+		return this.hits.get();
+	}
+
+	long getMisses() {
+		return this.misses.get();
+	}
+
+	double getHitRatio() {
+		long hits = this.hits.get();
+		long total = hits + this.misses.get();
+		return total > 0 ? (double) hits / total : 0;
+	}
+
+	@Override
+	public void bindTo(MeterRegistry registry) {
+		Gauge.builder("cassandra.sink.dedup.size", this, Deduplicator::getSize)
+				.description("The number of recorded keys for de-duplication")
+				.register(registry);
+		Gauge.builder("cassandra.sink.dedup.hit.ratio", this, Deduplicator::getHitRatio)
+				.description("The ratio of duplicates to all the checked keys")
+				.register(registry);
+		FunctionCounter.builder("cassandra.sink.dedup.hits", this, Deduplicator::getHits)
+				.description("The number of dropped duplicates")
+				.register(registry);
+		FunctionCounter.builder("cassandra.sink.dedup.misses", this, Deduplicator::getMisses)
+				.description("The number of unique keys checked")
+				.register(registry);
+	}
+
+}
@@ -0,0 +1,134 @@
+/*
+ * Copyright 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.cloud.stream.app.cassandra.sink;
+
+import java.util.concurrent.TimeUnit;
+
+import org.springframework.util.Assert;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.TimeGauge;
+import io.micrometer.core.instrument.binder.MeterBinder;
+
+/**
+ * The limiter for the number and the estimated size of the writes in flight.
+ * <p>
+ * The {@link #acquire(long)} blocks the calling thread while the limits are reached,
+ * which stops the consumption from the input binding until the outstanding writes
+ * are completed and {@link #release(long) released}.
+ * A write which exceeds the bytes limit on its own is let through when nothing else is in flight.
+ * <p>
+ * As a {@link MeterBinder} the limiter exposes the writes and bytes in flight
+ * and the total time the callers have been blocked as gauges.
+ */
+class InFlightLimiter implements MeterBinder {
+
+	private final Object monitor = new Object();
+
+	private final int maxRequests;
+
+	private final long maxBytes;
+
+	private int requests;
+
+	private long bytes;
+
+	private volatile long waitNanos;
+
+	/**
+	 * @param maxRequests the max number of writes in flight; 0 means no limit.
+	 * @param maxBytes the max estimated size of writes in flight in bytes; 0 means no limit.
+	 */
+	InFlightLimiter(int maxRequests, long maxBytes) {
+		Assert.isTrue(maxRequests > 0 || maxBytes > 0, "'maxRequests' or 'maxBytes' must be greater than 0");
+		this.maxRequests = maxRequests;
+		this.maxBytes = maxBytes;
+	}
+
+	/**
+	 * Wait until the write fits into the limits and account it as in flight.
+	 * @param writeBytes the estimated size of the write in bytes.
+	 * @throws InterruptedException if the thread is interrupted while waiting.
+	 */
+	void acquire(long writeBytes) throws InterruptedException {
+		synchronized (this.monitor) {
+			if (!hasCapacity(writeBytes)) {
+				long start = System.nanoTime();
+				try {
+					do {
+						this.monitor.wait();
+					}
+					while (!hasCapacity(writeBytes));
+				}
+				finally {
+					this.waitNanos += System.nanoTime() - start;
+				}
+			}
+			this.requests++;
+			this.bytes += writeBytes;
+		}
+	}
+
+	/**
+	 * Account the write as completed and wake up the waiting callers.
+	 * @param writeBytes the estimated size of the write in bytes, as provided for {@link #acquire(long)}.
+	 */
+	void release(long writeBytes) {
+		synchronized (this.monitor) {
+			this.requests--;
+			this.bytes -= writeBytes;
+			this.monitor.notifyAll();
+		}
+	}
+
+	private boolean hasCapacity(long writeBytes) {
+		return (this.maxRequests <= 0 || this.requests < this.maxRequests)
+				&& (this.maxBytes <= 0 || this.requests == 0 || this.bytes + writeBytes <= this.maxBytes);
+	}
+
+	int getInFlightRequests() {
+		synchronized (this.monitor) {
+			return this.requests;
+		}
+	}
+
+	long getInFlightBytes() {
+		synchronized (this.monitor) {
+			return this.bytes;
+		}
+	}
+
+	long getWaitNanos() {
+		return this.waitNanos;
+	}
+
+	@Override
+	public void bindTo(MeterRegistry registry) {
+		Gauge.builder("cassandra.sink.inflight.requests", this, InFlightLimiter::getInFlightRequests)
+				.description("The number of Cassandra writes in flight")
+				.register(registry);
+		Gauge.builder("cassandra.sink.inflight.bytes", this, InFlightLimiter::getInFlightBytes)
+				.description("The estimated size of Cassandra writes in flight")
+				.baseUnit("bytes")
+				.register(registry);
+		TimeGauge.builder("cassandra.sink.inflight.wait", this, TimeUnit.NANOSECONDS, InFlightLimiter::getWaitNanos)
+				.description("The total time spent waiting for the in-flight write limits")
+				.register(registry);
+	}
+
+}
@@ -0,0 +1,117 @@
+/*
+ * Copyright 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.cloud.stream.app.cassandra.sink;
+
+import java.util.List;
+
+import com.datastax.driver.core.BoundStatement;
+import com.datastax.driver.core.CodecRegistry;
+import com.datastax.driver.core.ColumnDefinitions;
+import com.datastax.driver.core.DataType;
+import com.datastax.driver.core.PreparedStatement;
+import com.datastax.driver.core.TypeCodec;
+
+/**
+ * The binding plan of the prepared ingest statement: the CQL type and the {@link TypeCodec}
+ * of each bind marker, so the row values are serialized straight into the {@link BoundStatement}
+ * without a codec lookup per value.
+ * <p>
+ * The codec of a position is resolved from the first value and reused while it accepts the values:
+ * with the schema-aware {@link ColumnConverters} all the values of a position are of the same Java type.
+ * The {@link JsonRowReader#UNSET} values are left unset.
+ */
+final class IngestBindingPlan {
+
+	private final PreparedStatement statement;
+
+	private final CodecRegistry codecRegistry;
+
+	private final DataType[] types;
+
+	private final TypeCodec<Object>[] codecs;
+
+	@SuppressWarnings("unchecked")
+	IngestBindingPlan(PreparedStatement statement) {
+		this.statement = statement;
+		this.codecRegistry = statement.getCodecRegistry();
+		ColumnDefinitions variables = statement.getVariables();
+		this.types = new DataType[variables.size()];
+		for (int i = 0; i < this.types.length; i++) {
+			this.types[i] = variables.getType(i);
+		}
+		this.codecs = new TypeCodec[this.types.length];
+	}
+
+	PreparedStatement getStatement() {
+		return this.statement;
+	}
+
+	/**
+	 * Bind the row values to a new {@link BoundStatement} by their positions.
+	 * @param row the row values.
+	 * @return the bound statement.
+	 */
+	BoundStatement bind(List<?> row) {
+		return bind(row, -1, 0);
+	}
+
+	/**
+	 * Bind the row values and the TTL to a new {@link BoundStatement} of the query variant
+	 * with an additional {@code USING TTL} bind marker; the row values after the TTL position
+	 * are bound to the next positions.
+	 * @param row the row values.
+	 * @param ttlPosition the position of the TTL bind marker; -1 if none.
+	 * @param ttl the TTL in seconds.
+	 * @return the bound statement.
+	 */
+	BoundStatement bind(List<?> row, int ttlPosition, int ttl) {
+		int size = row.size();
+		int shift = ttlPosition >= 0 ? 1 : 0;
+		if (size + shift > this.types.length) {
+			throw new IllegalArgumentException("Too many values for the ingest statement: expected "
+					+ (this.types.length - shift) + ", but got " + size);
+		}
+		BoundStatement boundStatement = this.statement.bind();
+		for (int i = 0; i < size; i++) {
+			int position = shift > 0 && i >= ttlPosition ? i + 1 : i;
+			Object value = row.get(i);
+			if (value == null) {
+				boundStatement.setToNull(position);
+			}
+			else if (value != JsonRowReader.UNSET) {
+				boundStatement.set(position, value, codec(position, value));
+			}
+		}
+		if (shift > 0) {
+			boundStatement.setInt(ttlPosition, ttl);
+		}
+		return boundStatement;
+	}
+
+	/*
+	 * The races on the codec cache are benign: the codecs are immutable and any of them is correct.
+	 */
+	private TypeCodec<Object> codec(int position, Object value) {
+		TypeCodec<Object> codec = this.codecs[position];
+		if (codec == null || !codec.accepts(value)) {
+			codec = this.codecRegistry.codecFor(this.types[position], value);
+			this.codecs[position] = codec;
+		}
+		return codec;
+	}
+
+}
@@ -0,0 +1,114 @@
+/*
+ * Copyright 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.cloud.stream.app.cassandra.sink;
+
+import java.util.List;
+import java.util.function.Function;
+
+import org.springframework.cloud.stream.app.cassandra.query.IngestQuery;
+
+import com.datastax.driver.core.Cluster;
+import com.datastax.driver.core.ColumnMetadata;
+import com.datastax.driver.core.DataType;
+import com.datastax.driver.core.KeyspaceMetadata;
+import com.datastax.driver.core.TableMetadata;
+
+/**
+ * Utilities to look up the target table of an ingest query in the {@link Cluster} metadata.
+ */
+final class IngestQueryTable {
+
+	private static final int[] NO_POSITIONS = new int[0];
+
+	private IngestQueryTable() {
+	}
+
+	/**
+	 * Look up the target table of the ingest query.
+	 * @param cluster the cluster to obtain the table metadata from.
+	 * @param keyspace the default keyspace if the query table is not qualified; may be {@code null}.
+	 * @param query the ingest query.
+	 * @return the table metadata or {@code null} if it is not available (yet).
+	 */
+	static TableMetadata resolve(Cluster cluster, String keyspace, String query) {
+		String table = IngestQuery.parse(query).getTable();
+		int keyspaceDelimiter = table.indexOf('.');
+		if (keyspaceDelimiter > 0) {
+			keyspace = table.substring(0, keyspaceDelimiter);
+			table = table.substring(keyspaceDelimiter + 1);
+		}
+		if (keyspace == null) {
+			return null;
+		}
+		KeyspaceMetadata keyspaceMetadata = cluster.getMetadata().getKeyspace(keyspace);
+		return keyspaceMetadata != null ? keyspaceMetadata.getTable(table) : null;
+	}
+
+	/**
+	 * Return the lookup of the column types of the table.
+	 * @param table the table metadata.
+	 * @return the types by the column name, as bound by the ingest query; null for unknown columns.
+	 */
+	static Function<String, DataType> columnTypes(TableMetadata table) {
+		return column -> {
+			ColumnMetadata columnMetadata = table.getColumn(column);
+			return columnMetadata != null ? columnMetadata.getType() : null;
+		};
+	}
+
+	/**
+	 * Find the ingest query parameter positions bound to the partition key columns of the table.
+	 * @param table the table metadata.
+	 * @param boundColumns the table columns bound by the ingest query parameters, in the parameter order.
+	 * @return the parameter positions in the partition key order,
+	 * or an empty array if not all the partition key columns are bound by the query parameters.
+	 */
+	static int[] partitionKeyPositions(TableMetadata table, List<String> boundColumns) {
+		return keyPositions(table, table.getPartitionKey(), boundColumns);
+	}
+
+	/**
+	 * Find the ingest query parameter positions bound to the primary key columns of the table.
+	 * @param table the table metadata.
+	 * @param boundColumns the table columns bound by the ingest query parameters, in the parameter order.
+	 * @return the parameter positions in the primary key order,
+	 * or an empty array if not all the primary key columns are bound by the query parameters.
+	 */
+	static int[] primaryKeyPositions(TableMetadata table, List<String> boundColumns) {
+		return keyPositions(table, table.getPrimaryKey(), boundColumns);
+	}
+
+	static int[] keyPositions(TableMetadata table, List<ColumnMetadata> keyColumns, List<String> boundColumns) {
+		int[] positions = new int[keyColumns.size()];
+		for (int i = 0; i < positions.length; i++) {
+			positions[i] = -1;
+			int position = 0;
+			for (String boundColumn : boundColumns) {
+				if (keyColumns.get(i).equals(table.getColumn(boundColumn))) {
+					positions[i] = position;
+					break;
+				}
+				position++;
+			}
+			if (positions[i] < 0) {
+				return NO_POSITIONS;
+			}
+		}
+		return positions;
+	}
+
+}
@@ -0,0 +1,328 @@
+/*
+ * Copyright 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.cloud.stream.app.cassandra.sink;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+import org.springframework.context.SmartLifecycle;
+import org.springframework.integration.handler.AbstractMessageProducingHandler;
+import org.springframework.integration.support.MessageBuilder;
+import org.springframework.messaging.Message;
+import org.springframework.util.Assert;
+
+/**
+ * The {@link AbstractMessageProducingHandler} to aggregate ingest rows from many messages
+ * into windows which are emitted downstream as a single {@code List<List<Object>>} payload.
+ * <p>
+ * A window is emitted when it reaches the max number of rows, the max estimated size in bytes
+ * or when the timeout since the first row in the window expires.
+ * In the adaptive mode the max number of rows is adjusted after each write reported to
+ * the {@link WriteListener} callback: it is halved when the write latency exceeds the target
+ * or the write fails, and grows by a tenth of the configured max otherwise.
+ * <p>
+ * In the coalescing mode the rows for the same key (e.g. the {@code WHERE} clause columns of an update)
+ * are merged within a window into a single {@link TimestampedRow}: the later values override
+ * the earlier ones and the row is written with the timestamp of its last update,
+ * so only the final state of each key is written per window.
+ * <p>
+ * With a {@link Deduplicator} and a key header, the messages with a key recorded within the dedup window
+ * or already in the open ingest window are dropped. The keys of the other messages are carried by their
+ * ingest window in the {@link #DEDUP_KEYS_HEADER} and recorded by the downstream handler
+ * only after the window is written, so the redelivery of a message from a failed window is not dropped.
+ * <p>
+ * Non-{@link List} payloads are passed downstream as is.
+ * <p>
+ * The windows are written after the source messages have been acknowledged: a window is emitted on the
+ * consumer thread of the message which fills it up or on the scheduler thread when its timeout expires,
+ * so a failed write cannot be attributed to the source messages and the delivery is at-most-once.
+ * The failed windows are expected to be sent to a dead-letter destination by the downstream handler.
+ */
+class IngestWindowHandler extends AbstractMessageProducingHandler implements WriteListener, SmartLifecycle {
+
+	/**
+	 * The header with the de-duplication keys of the messages in the emitted window.
+	 */
+	static final String DEDUP_KEYS_HEADER = "x-dedup-keys";
+
+	private final Object monitor = new Object();
+
+	private final int maxRows;
+
+	private final long maxBytes;
+
+	private final long timeout;
+
+	private boolean adaptive;
+
+	private long targetLatencyNanos;
+
+	private volatile int windowRows;
+
+	private List<List<Object>> rows;
+
+	private int[] keyPositions;
+
+	private Map<List<Object>, TimestampedRow> rowsByKey;
+
+	private Set<Object> dedupKeys;
+
+	private long lastTimestamp;
+
+	private long bytes;
+
+	private long windowSequence;
+
+	private ScheduledFuture<?> flushTask;
+
+	private volatile boolean running;
+
+	private Deduplicator deduplicator;
+
+	private String dedupKeyHeader;
+
+	/**
+	 * @param maxRows the max number of rows in a window.
+	 * @param maxBytes the max estimated size of a window in bytes; 0 means no limit.
+	 * @param timeout the max time in milliseconds to wait for a window to fill up.
+	 */
+	IngestWindowHandler(int maxRows, long maxBytes, long timeout) {
+		Assert.isTrue(maxRows > 0, "'maxRows' must be greater than 0");
+		Assert.isTrue(timeout > 0, "'timeout' must be greater than 0");
+		this.maxRows = maxRows;
+		this.maxBytes = maxBytes;
+		this.timeout = timeout;
+		this.windowRows = maxRows;
+	}
+
+	/**
+	 * Enable the adaptive window size based on the observed write latency.
+	 * @param targetLatency the target write latency in milliseconds.
+	 */
+	void setAdaptive(long targetLatency) {
+		Assert.isTrue(targetLatency > 0, "'targetLatency' must be greater than 0");
+		this.adaptive = true;
+		this.targetLatencyNanos = TimeUnit.MILLISECONDS.toNanos(targetLatency);
+	}
+
+	/**
+	 * Drop the duplicate messages by the key header before they are added to a window:
+	 * the windows are emitted without the headers of the aggregated messages,
+	 * but with their keys to record after the write.
+	 * @param deduplicator the record of the message keys.
+	 * @param keyHeader the message header for the key.
+	 */
+	void setDeduplicator(Deduplicator deduplicator, String keyHeader) {
+		this.deduplicator = deduplicator;
+		this.dedupKeyHeader = keyHeader;
+	}
+
+	/**
+	 * Merge the rows with the same values at the provided positions within a window.
+	 * @param keyPositions the positions of the key values in the rows.
+	 */
+	void setCoalescing(int[] keyPositions) {
+		Assert.isTrue(keyPositions.length > 0, "'keyPositions' must not be empty");
+		this.keyPositions = keyPositions;
+	}
+
+	int getWindowRows() {
+		return this.windowRows;
+	}
+
+	@Override
+	@SuppressWarnings("unchecked")
+	protected void handleMessageInternal(Message<?> message) {
+		Object payload = message.getPayload();
+		if (!(payload instanceof List)) {
+			sendOutput(message, null, false);
+			return;
+		}
+		Object dedupKey = this.deduplicator != null ? message.getHeaders().get(this.dedupKeyHeader) : null;
+		if (dedupKey != null && this.deduplicator.isDuplicate(dedupKey)) {
+			return;
+		}
+		List<Message<?>> windows = Collections.emptyList();
+		synchronized (this.monitor) {
+			if (dedupKey != null && this.dedupKeys != null && this.dedupKeys.contains(dedupKey)) {
+				return;
+			}
+			long timestamp = this.keyPositions != null ? nextTimestamp() : 0;
+			for (List<Object> row : (List<List<Object>>) payload) {
+				if (this.rows == null) {
+					this.rows = new ArrayList<>(Math.min(this.windowRows, 1024));
+					if (this.keyPositions != null) {
+						this.rowsByKey = new HashMap<>();
+					}
+					scheduleFlush();
+				}
+				if (dedupKey != null) {
+					// the key goes with the window of the first row of the message
+					if (this.dedupKeys == null) {
+						this.dedupKeys = new HashSet<>();
+					}
+					this.dedupKeys.add(dedupKey);
+					dedupKey = null;
+				}
+				List<Object> windowRow = row;
+				if (this.keyPositions != null) {
+					List<Object> key = keyOf(row);
+					TimestampedRow coalesced = this.rowsByKey.get(key);
+					if (coalesced != null) {
+						coalesced.merge(row, timestamp);
+						continue;
+					}
+					windowRow = new TimestampedRow(row, timestamp);
+					this.rowsByKey.put(key, (TimestampedRow) windowRow);
+				}
+				this.rows.add(windowRow);
+				if (this.maxBytes > 0) {
+					this.bytes += RowSizes.estimate(row);
+				}
+				if (this.rows.size() >= this.windowRows || (this.maxBytes > 0 && this.bytes >= this.maxBytes)) {
+					if (windows.isEmpty()) {
+						windows = new ArrayList<>();
+					}
+					windows.add(takeWindow());
+				}
+			}
+		}
+		for (Message<?> window : windows) {
+			emit(window);
+		}
+	}
+
+	/*
+	 * The client-side timestamps in microseconds, unique and increasing for the messages of this handler.
+	 */
+	private long nextTimestamp() {
+		this.lastTimestamp = Math.max(this.lastTimestamp + 1, System.currentTimeMillis() * 1000);
+		return this.lastTimestamp;
+	}
+
+	private List<Object> keyOf(List<Object> row) {
+		Object[] key = new Object[this.keyPositions.length];
+		for (int i = 0; i < key.length; i++) {
+			key[i] = row.get(this.keyPositions[i]);
+		}
+		return Arrays.asList(key);
+	}
+
+	private void scheduleFlush() {
+		long sequence = this.windowSequence;
+		this.flushTask = getTaskScheduler().schedule(() -> flush(sequence),
+				new Date(System.currentTimeMillis() + this.timeout));
+	}
+
+	private Message<?> takeWindow() {
+		MessageBuilder<List<List<Object>>> window = MessageBuilder.withPayload(this.rows);
+		if (this.dedupKeys != null) {
+			window.setHeader(DEDUP_KEYS_HEADER, this.dedupKeys);
+		}
+		this.rows = null;
+		this.rowsByKey = null;
+		this.dedupKeys = null;
+		this.bytes = 0;
+		this.windowSequence++;
+		if (this.flushTask != null) {
+			this.flushTask.cancel(false);
+			this.flushTask = null;
+		}
+		return window.build();
+	}
+
+	private void flush(long sequence) {
+		Message<?> window = null;
+		synchronized (this.monitor) {
+			if (this.rows != null && this.windowSequence == sequence) {
+				window = takeWindow();
+			}
+		}
+		if (window != null) {
+			emit(window);
+		}
+	}
+
+	private void emit(Message<?> window) {
+		sendOutput(window, null, false);
+	}
+
+	@Override
+	public void onWriteSuccess(int rows, long latencyNanos) {
+		if (this.adaptive) {
+			if (latencyNanos > this.targetLatencyNanos) {
+				shrink();
+			}
+			else {
+				this.windowRows = Math.min(this.maxRows, this.windowRows + Math.max(1, this.maxRows / 10));
+			}
+		}
+	}
+
+	@Override
+	public void onWriteFailure(int rows, long latencyNanos, Throwable cause) {
+		if (this.adaptive) {
+			shrink();
+		}
+	}
+
+	private void shrink() {
+		this.windowRows = Math.max(1, this.windowRows / 2);
+	}
+
+	@Override
+	public void start() {
+		this.running = true;
+	}
+
+	@Override
+	public void stop() {
+		if (this.running) {
+			this.running = false;
+			Message<?> window = null;
+			synchronized (this.monitor) {
+				if (this.rows != null) {
+					window = takeWindow();
+				}
+			}
+			if (window != null) {
+				emit(window);
+			}
+		}
+	}
+
+	@Override
+	public boolean isRunning() {
+		return this.running;
+	}
+
+	@Override
+	public int getPhase() {
+		// stop after the input binding to flush the last window
+		return 0;
+	}
+
+}
@@ -0,0 +1,87 @@
+/*
+ * Copyright 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.cloud.stream.app.cassandra.sink;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Reader;
+import java.util.Arrays;
+import java.util.List;
+
+import org.springframework.util.Assert;
+import org.springframework.util.MimeType;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+
+/**
+ * The {@link PayloadCodec} for the formats with a Jackson {@link JsonFactory}, e.g.
+ * {@code new ObjectMapper(new CBORFactory()).getFactory()}.
+ * The factory should have an {@link com.fasterxml.jackson.core.ObjectCodec}
+ * to read nested values of the complex columns.
+ */
+public class JacksonPayloadCodec implements PayloadCodec {
+
+	private final JsonFactory jsonFactory;
+
+	private final List<MimeType> contentTypes;
+
+	/**
+	 * @param jsonFactory the factory for the payload parsers.
+	 * @param contentTypes the supported content types.
+	 */
+	public JacksonPayloadCodec(JsonFactory jsonFactory, MimeType... contentTypes) {
+		Assert.notNull(jsonFactory, "'jsonFactory' must not be null");
+		Assert.notEmpty(contentTypes, "'contentTypes' must not be empty");
+		this.jsonFactory = jsonFactory;
+		this.contentTypes = Arrays.asList(contentTypes);
+	}
+
+	@Override
+	public boolean supports(MimeType contentType) {
+		for (MimeType supportedType : this.contentTypes) {
+			if (supportedType.isCompatibleWith(contentType)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	@Override
+	public JsonParser createParser(Object payload) throws IOException {
+		if (payload instanceof byte[]) {
+			return this.jsonFactory.createParser((byte[]) payload);
+		}
+		else if (payload instanceof String) {
+			return this.jsonFactory.createParser((String) payload);
+		}
+		else if (payload instanceof InputStream) {
+			return this.jsonFactory.createParser((InputStream) payload);
+		}
+		else if (payload instanceof Reader) {
+			return this.jsonFactory.createParser((Reader) payload);
+		}
+		else if (payload instanceof File) {
+			return this.jsonFactory.createParser((File) payload);
+		}
+		else {
+			throw new IllegalArgumentException("Unsupported payload type for ingest: " + payload.getClass());
+		}
+	}
+
+}
@@ -0,0 +1,226 @@
+/*
+ * Copyright 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.cloud.stream.app.cassandra.sink;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+
+/**
+ * An {@link Iterator} over the rows of an ingest payload read token by token from a {@link JsonParser}.
+ * <p>
+ * The payload may be a single JSON object, an array of objects or a sequence of root-level objects.
+ * Only the fields mapped to ingest query parameters are materialized; all other fields are skipped
+ * on the parser level, so the memory footprint is bounded by a single row.
+ * The floating point numbers are read as exact decimals for the {@link ColumnConverter#isExactDecimal()}
+ * converters, e.g. for {@code decimal} columns, and as {@code double}s otherwise.
+ * <p>
+ * The absent fields and, optionally, explicit JSON nulls can be read as {@link #UNSET}
+ * for the statement parameters to be left unset instead of bound to {@code null},
+ * so partial updates don't produce tombstones.
+ *
+ * @see PayloadToMatrixTransformer
+ */
+class JsonRowReader implements Iterator<List<Object>>, Closeable {
+
+	/**
+	 * The row value for the ingest query parameters to leave unset (native protocol v4 and later).
+	 */
+	static final Object UNSET = new Object() {
+
+		@Override
+		public String toString() {
+			return "UNSET";
+		}
+
+	};
+
+	private final JsonParser parser;
+
+	private final Map<String, int[]> parameterPositions;
+
+	private final int parameterCount;
+
+	private final ColumnConverter[] columnConverters;
+
+	private final boolean[] exactDecimals;
+
+	private boolean unsetAbsent;
+
+	private boolean unsetNulls;
+
+	private boolean inArray;
+
+	private boolean closed;
+
+	private List<Object> nextRow;
+
+	/**
+	 * @param parser the parser to read rows from.
+	 * @param parameterPositions the ingest query parameter positions by JSON field name.
+	 * @param columnConverters the converters for field values, one per ingest query parameter.
+	 */
+	JsonRowReader(JsonParser parser, Map<String, int[]> parameterPositions, ColumnConverter[] columnConverters) {
+		this.parser = parser;
+		this.parameterPositions = parameterPositions;
+		this.parameterCount = columnConverters.length;
+		this.columnConverters = columnConverters;
+		this.exactDecimals = new boolean[columnConverters.length];
+		for (int i = 0; i < columnConverters.length; i++) {
+			this.exactDecimals[i] = columnConverters[i].isExactDecimal();
+		}
+	}
+
+	/**
+	 * Read the fields absent in the JSON object as {@link #UNSET} instead of {@code null}.
+	 * @param unsetAbsent true to leave the absent fields unset.
+	 */
+	void setUnsetAbsent(boolean unsetAbsent) {
+		this.unsetAbsent = unsetAbsent;
+	}
+
+	/**
+	 * Read the explicit JSON {@code null} values as {@link #UNSET}.
+	 * @param unsetNulls true to leave the null fields unset.
+	 */
+	void setUnsetNulls(boolean unsetNulls) {
+		this.unsetNulls = unsetNulls;
+	}
+
+	@Override
+	public boolean hasNext() {
+		if (this.nextRow == null && !this.closed) {
+			try {
+				this.nextRow = readRow();
+			}
+			catch (IOException ex) {
+				close();
+				throw new UncheckedIOException(ex);
+			}
+			if (this.nextRow == null) {
+				close();
+			}
+		}
+		return this.nextRow != null;
+	}
+
+	@Override
+	public List<Object> next() {
+		if (!hasNext()) {
+			throw new NoSuchElementException();
+		}
+		List<Object> row = this.nextRow;
+		this.nextRow = null;
+		return row;
+	}
+
+	/**
+	 * Return the number of bytes (or chars for text sources) consumed from the source so far.
+	 * @return the consumed source offset.
+	 */
+	long getConsumedOffset() {
+		long byteOffset = this.parser.getCurrentLocation().getByteOffset();
+		return byteOffset >= 0 ? byteOffset : this.parser.getCurrentLocation().getCharOffset();
+	}
+
+	private List<Object> readRow() throws IOException {
+		JsonToken token = this.parser.nextToken();
+		if (token == JsonToken.START_ARRAY && !this.inArray) {
+			this.inArray = true;
+			token = this.parser.nextToken();
+		}
+		if (token == null || token == JsonToken.END_ARRAY) {
+			return null;
+		}
+		if (token != JsonToken.START_OBJECT) {
+			throw new IllegalArgumentException("Expected a JSON object for an ingest row, but got: " + token);
+		}
+		Object[] row = new Object[this.parameterCount];
+		if (this.unsetAbsent) {
+			Arrays.fill(row, UNSET);
+		}
+		while (this.parser.nextToken() == JsonToken.FIELD_NAME) {
+			int[] positions = this.parameterPositions.get(this.parser.getCurrentName());
+			JsonToken valueToken = this.parser.nextToken();
+			if (positions == null) {
+				this.parser.skipChildren();
+			}
+			else {
+				Object value = valueToken == JsonToken.VALUE_NUMBER_FLOAT && isExactDecimal(positions)
+						? this.parser.getDecimalValue()
+						: readValue(valueToken);
+				for (int position : positions) {
+					row[position] = value == null && this.unsetNulls
+							? UNSET
+							: this.columnConverters[position].convert(value);
+				}
+			}
+		}
+		return Arrays.asList(row);
+	}
+
+	private boolean isExactDecimal(int[] positions) {
+		for (int position : positions) {
+			if (this.exactDecimals[position]) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private Object readValue(JsonToken token) throws IOException {
+		switch (token) {
+			case VALUE_STRING:
+				return this.parser.getText();
+			case VALUE_NUMBER_INT:
+			case VALUE_NUMBER_FLOAT:
+				return this.parser.getNumberValue();
+			case VALUE_TRUE:
+				return Boolean.TRUE;
+			case VALUE_FALSE:
+				return Boolean.FALSE;
+			case VALUE_NULL:
+				return null;
+			case VALUE_EMBEDDED_OBJECT:
+				return this.parser.getEmbeddedObject();
+			default:
+				return this.parser.readValueAs(Object.class);
+		}
+	}
+
+	@Override
+	public void close() {
+		if (!this.closed) {
+			this.closed = true;
+			try {
+				this.parser.close();
+			}
+			catch (IOException ex) {
+				throw new UncheckedIOException(ex);
+			}
+		}
+	}
+
+}
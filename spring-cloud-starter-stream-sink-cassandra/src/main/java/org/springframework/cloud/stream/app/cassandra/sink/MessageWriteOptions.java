@@ -0,0 +1,186 @@
+/*
+ * Copyright 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.cloud.stream.app.cassandra.sink;
+
+import java.time.Instant;
+import java.util.Date;
+import java.util.Locale;
+
+import org.springframework.messaging.MessageHeaders;
+
+import com.datastax.driver.core.ConsistencyLevel;
+
+/**
+ * The write options of a single message, resolved from its headers by a {@link Resolver}:
+ * the client-side write timestamp, the TTL and the consistency level for the statements of the message,
+ * which override the global write options.
+ * <p>
+ * The timestamp is set as the default timestamp of the statements, so the writes reordered
+ * by the parallel processing or the retries are still resolved by their event time.
+ * The consistency level is set on the statements as well.
+ * The TTL needs a {@code USING TTL} bind marker in the query, so it is written with a query variant.
+ */
+final class MessageWriteOptions {
+
+	static final MessageWriteOptions NONE = new MessageWriteOptions(Long.MIN_VALUE, -1, null);
+
+	private final long timestamp;
+
+	private final int ttl;
+
+	private final ConsistencyLevel consistencyLevel;
+
+	private MessageWriteOptions(long timestamp, int ttl, ConsistencyLevel consistencyLevel) {
+		this.timestamp = timestamp;
+		this.ttl = ttl;
+		this.consistencyLevel = consistencyLevel;
+	}
+
+	/**
+	 * Return the write timestamp in microseconds.
+	 * @return the timestamp or {@link Long#MIN_VALUE} if not set.
+	 */
+	long getTimestamp() {
+		return this.timestamp;
+	}
+
+	/**
+	 * Return the TTL in seconds.
+	 * @return the TTL or -1 if not set.
+	 */
+	int getTtl() {
+		return this.ttl;
+	}
+
+	ConsistencyLevel getConsistencyLevel() {
+		return this.consistencyLevel;
+	}
+
+	/**
+	 * Convert the event time to the write timestamp in microseconds since epoch.
+	 * The event time is a {@link Number} of milliseconds since epoch, a {@link Date}, an {@link Instant}
+	 * or a date/time text parsed with the {@link DateTimeParser}, including the epoch millis text.
+	 * The same units are used for the timestamp header and the {@code USING TIMESTAMP} values of the rows,
+	 * so an event time is written with the same timestamp either way.
+	 * @param eventTime the event time.
+	 * @param dateTimeParser the parser for the text event time.
+	 * @return the write timestamp.
+	 * @throws IllegalArgumentException if the value is not a valid event time.
+	 */
+	static long timestampMicros(Object eventTime, DateTimeParser dateTimeParser) {
+		try {
+			if (eventTime instanceof Number) {
+				return Math.multiplyExact(ColumnConverters.toLongExact(eventTime, Long.MIN_VALUE, Long.MAX_VALUE),
+						1000);
+			}
+			else if (eventTime instanceof Date) {
+				return Math.multiplyExact(((Date) eventTime).getTime(), 1000);
+			}
+			else if (eventTime instanceof Instant) {
+				Instant instant = (Instant) eventTime;
+				return Math.addExact(Math.multiplyExact(instant.getEpochSecond(), 1_000_000),
+						instant.getNano() / 1000);
+			}
+			return Math.multiplyExact(dateTimeParser.parseEpochMillis(eventTime.toString()), 1000);
+		}
+		catch (ArithmeticException ex) {
+			throw new IllegalArgumentException("The event time is not integral or out of range: " + eventTime, ex);
+		}
+	}
+
+	/**
+	 * The resolver of the {@link MessageWriteOptions} from the message headers;
+	 * the header names are optional.
+	 * <p>
+	 * The timestamp header is the event time, as for {@link #timestampMicros(Object, DateTimeParser)}.
+	 * The TTL header is an integral number of seconds and the consistency level header
+	 * is a {@link ConsistencyLevel} or its name.
+	 */
+	static final class Resolver {
+
+		private final String timestampHeader;
+
+		private final String ttlHeader;
+
+		private final String consistencyLevelHeader;
+
+		private final DateTimeParser dateTimeParser;
+
+		/**
+		 * @param timestampHeader the header for the event time; may be null.
+		 * @param ttlHeader the header for the TTL in seconds; may be null.
+		 * @param consistencyLevelHeader the header for the consistency level; may be null.
+		 * @param dateTimeParser the parser for the text event time.
+		 */
+		Resolver(String timestampHeader, String ttlHeader, String consistencyLevelHeader,
+				DateTimeParser dateTimeParser) {
+
+			this.timestampHeader = timestampHeader;
+			this.ttlHeader = ttlHeader;
+			this.consistencyLevelHeader = consistencyLevelHeader;
+			this.dateTimeParser = dateTimeParser;
+		}
+
+		boolean isTtlResolved() {
+			return this.ttlHeader != null;
+		}
+
+		/**
+		 * Resolve the write options from the message headers.
+		 * @param headers the message headers.
+		 * @return the write options or {@link #NONE} if none of the headers is present.
+		 * @throws IllegalArgumentException if a header value is not valid.
+		 */
+		MessageWriteOptions resolve(MessageHeaders headers) {
+			Object timestamp = this.timestampHeader != null ? headers.get(this.timestampHeader) : null;
+			Object ttl = this.ttlHeader != null ? headers.get(this.ttlHeader) : null;
+			Object consistencyLevel =
+					this.consistencyLevelHeader != null ? headers.get(this.consistencyLevelHeader) : null;
+			if (timestamp == null && ttl == null && consistencyLevel == null) {
+				return NONE;
+			}
+			return new MessageWriteOptions(
+					timestamp != null ? timestampMicros(timestamp, this.dateTimeParser) : Long.MIN_VALUE,
+					ttl != null ? ttl(ttl) : -1,
+					consistencyLevel != null ? consistencyLevel(consistencyLevel) : null);
+		}
+
+		private static int ttl(Object value) {
+			int ttl;
+			try {
+				ttl = value instanceof Number
+						? (int) ColumnConverters.toLongExact(value, Integer.MIN_VALUE, Integer.MAX_VALUE)
+						: Integer.parseInt(value.toString());
+			}
+			catch (ArithmeticException ex) {
+				throw new IllegalArgumentException("The TTL must be an integral number of seconds: " + value, ex);
+			}
+			if (ttl < 0) {
+				throw new IllegalArgumentException("The TTL must not be negative: " + value);
+			}
+			return ttl;
+		}
+
+		private static ConsistencyLevel consistencyLevel(Object value) {
+			return value instanceof ConsistencyLevel
+					? (ConsistencyLevel) value
+					: ConsistencyLevel.valueOf(value.toString().trim().toUpperCase(Locale.ROOT));
+		}
+
+	}
+
+}
@@ -0,0 +1,57 @@
+/*
+ * Copyright 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.cloud.stream.app.cassandra.sink;
+
+import java.io.IOException;
+
+import org.springframework.util.MimeType;
+
+import com.fasterxml.jackson.core.JsonParser;
+
+/**
+ * The strategy to read ingest payloads of particular content types.
+ * <p>
+ * A codec exposes the payload as a Jackson {@link JsonParser} token stream,
+ * so any format with a Jackson streaming API binding (JSON, CBOR, Smile, Avro, Protobuf etc.)
+ * feeds the same row-building pipeline: the payload must be a single object,
+ * an array of objects or a sequence of root-level objects.
+ * <p>
+ * The {@link PayloadCodec} beans in the application context are consulted in order
+ * before the built-in codecs.
+ *
+ * @see JacksonPayloadCodec
+ * @see JsonRowReader
+ */
+public interface PayloadCodec {
+
+	/**
+	 * Check if the codec can read payloads of the content type.
+	 * @param contentType the content type of the message.
+	 * @return true if the payloads of the content type are supported.
+	 */
+	boolean supports(MimeType contentType);
+
+	/**
+	 * Create the parser for the payload.
+	 * @param payload the payload: {@code byte[]}, {@code String}, {@code InputStream}, {@code Reader}
+	 * or {@code File}.
+	 * @return the parser for the payload.
+	 * @throws IOException if the parser cannot be created.
+	 */
+	JsonParser createParser(Object payload) throws IOException;
+
+}
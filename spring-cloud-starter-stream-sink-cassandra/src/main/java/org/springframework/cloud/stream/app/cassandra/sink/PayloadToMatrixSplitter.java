@@ -0,0 +1,154 @@
+/*
+ * Copyright 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.cloud.stream.app.cassandra.sink;
+
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+
+import org.springframework.integration.splitter.AbstractMessageSplitter;
+import org.springframework.integration.support.MessageBuilder;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.MessageHeaders;
+import org.springframework.util.Assert;
+
+/**
+ * The {@link AbstractMessageSplitter} to stream an ingest payload into row chunks
+ * of at most {@code chunkSize} rows each; every chunk is emitted as a separate
+ * {@code List<List<Object>>} message to the
+ * {@link org.springframework.integration.cassandra.outbound.CassandraMessageHandler}.
+ * <p>
+ * Chunks are read from the payload lazily, so only one chunk at a time is kept in memory
+ * independently of the payload size; the compressed payloads are decompressed on the fly as well.
+ *
+ * @see PayloadToMatrixTransformer
+ */
+class PayloadToMatrixSplitter extends AbstractMessageSplitter {
+
+	private final PayloadToMatrixTransformer transformer;
+
+	private final int chunkSize;
+
+	private boolean completionChunk;
+
+	PayloadToMatrixSplitter(PayloadToMatrixTransformer transformer, int chunkSize) {
+		Assert.isTrue(chunkSize > 0, "'chunkSize' must be greater than 0");
+		this.transformer = transformer;
+		this.chunkSize = chunkSize;
+		setApplySequence(false);
+	}
+
+	/**
+	 * Mark all the chunks with the {@link WriteAcknowledger#PARTIAL_HEADER} and emit an empty chunk
+	 * without it after the last one, so the request message is acknowledged only when all its chunks
+	 * are written.
+	 * @param completionChunk true to emit the completion chunk.
+	 */
+	void setCompletionChunk(boolean completionChunk) {
+		this.completionChunk = completionChunk;
+	}
+
+	@Override
+	protected Object splitMessage(Message<?> message) {
+		Object payload = message.getPayload();
+		if (payload instanceof List) {
+			return Collections.singletonList(payload);
+		}
+		try {
+			MessageHeaders headers = message.getHeaders();
+			JsonRowReader rowReader =
+					this.transformer.createRowReader(
+							ContentEncodings.decode(payload, ContentEncodings.contentEncoding(headers)),
+							PayloadToMatrixTransformer.contentType(headers));
+			return new ChunkIterator(this.transformer, rowReader, this.chunkSize, this.completionChunk);
+		}
+		catch (Exception ex) {
+			throw new IllegalStateException("Cannot read ingest payload", ex);
+		}
+	}
+
+	private static final class ChunkIterator implements Iterator<Object>, Closeable {
+
+		private final PayloadToMatrixTransformer transformer;
+
+		private final JsonRowReader rowReader;
+
+		private final int chunkSize;
+
+		private boolean completionChunk;
+
+		private int rows;
+
+		private long nanos;
+
+		private boolean recorded;
+
+		ChunkIterator(PayloadToMatrixTransformer transformer, JsonRowReader rowReader, int chunkSize,
+				boolean completionChunk) {
+
+			this.transformer = transformer;
+			this.rowReader = rowReader;
+			this.chunkSize = chunkSize;
+			this.completionChunk = completionChunk;
+		}
+
+		@Override
+		public boolean hasNext() {
+			long start = System.nanoTime();
+			boolean hasNext = this.rowReader.hasNext();
+			this.nanos += System.nanoTime() - start;
+			if (!hasNext) {
+				record();
+			}
+			return hasNext || this.completionChunk;
+		}
+
+		@Override
+		public Object next() {
+			if (!this.rowReader.hasNext() && this.completionChunk) {
+				this.completionChunk = false;
+				return Collections.emptyList();
+			}
+			long start = System.nanoTime();
+			List<List<Object>> chunk = new ArrayList<>(Math.min(this.chunkSize, 1024));
+			while (chunk.size() < this.chunkSize && this.rowReader.hasNext()) {
+				chunk.add(this.rowReader.next());
+			}
+			this.rows += chunk.size();
+			this.nanos += System.nanoTime() - start;
+			return this.completionChunk
+					? MessageBuilder.withPayload(chunk).setHeader(WriteAcknowledger.PARTIAL_HEADER, true).build()
+					: chunk;
+		}
+
+		private void record() {
+			if (!this.recorded) {
+				this.recorded = true;
+				this.transformer.recordTransform(this.rowReader.getConsumedOffset(), this.rows, this.nanos);
+			}
+		}
+
+		@Override
+		public void close() {
+			this.rowReader.close();
+		}
+
+	}
+
+}
@@ -0,0 +1,256 @@
+/*
+ * Copyright 2015-2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.cloud.stream.app.cassandra.sink;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Supplier;
+
+import org.springframework.cloud.stream.app.cassandra.query.ColumnNameExtractor;
+import org.springframework.integration.transformer.AbstractTransformer;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.MessageHeaders;
+import org.springframework.util.MimeType;
+import org.springframework.util.MimeTypeUtils;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+/**
+ * Transforms a JSON payload (single entity, an array of entities or newline-delimited entities) into the
+ * {@code List<List<Object>>} matrix expected by the ingest mode of the
+ * {@link org.springframework.integration.cassandra.outbound.CassandraMessageHandler}.
+ * <p>
+ * The payload is read in a streaming manner via {@link JsonRowReader}: only the values
+ * for the ingest query parameters are extracted from the source,
+ * without building an intermediate JSON model.
+ * <p>
+ * The payloads in other formats are read by the first {@link PayloadCodec} supporting
+ * the message {@code contentType}; the payloads without a content type or with a content type
+ * not supported by any codec are read as JSON.
+ * The compressed payloads are decompressed on the fly according to their {@code Content-Encoding}
+ * header, see {@link ContentEncodings}.
+ *
+ * @author Artem Bilan
+ * @author Thomas Risberg
+ * @author Ashu Gairola
+ * @author Akos Ratku
+ *
+ * @see PayloadToMatrixSplitter
+ */
+class PayloadToMatrixTransformer extends AbstractTransformer {
+
+	private static final PayloadCodec JSON_CODEC =
+			new JacksonPayloadCodec(new ObjectMapper().getFactory(), MimeTypeUtils.APPLICATION_JSON,
+					MimeType.valueOf("application/x-ndjson"));
+
+	private List<PayloadCodec> payloadCodecs = Collections.emptyList();
+
+	private final Map<String, int[]> parameterPositions = new HashMap<>();
+
+	private ColumnConverter[] heuristicConverters;
+
+	private Supplier<ColumnConverter[]> columnConvertersResolver = () -> null;
+
+	private volatile ColumnConverter[] columnConverters;
+
+	private boolean lenientConversion;
+
+	private boolean unsetAbsent;
+
+	private boolean unsetNulls;
+
+	private final String table;
+
+	private SinkMetrics metrics;
+
+	PayloadToMatrixTransformer(String query, ColumnNameExtractor columnNameExtractor) {
+		this(query, columnNameExtractor, new ColumnConverters(new DateTimeParser()));
+	}
+
+	PayloadToMatrixTransformer(String query, ColumnNameExtractor columnNameExtractor,
+			ColumnConverters columnConverters) {
+
+		this.table = SinkMetrics.tableOf(query);
+		List<String> columns = columnNameExtractor.extract(query);
+		this.heuristicConverters = columnConverters.heuristic(columns.size());
+		int position = 0;
+		for (String column : columns) {
+			int[] positions = this.parameterPositions.get(column);
+			if (positions == null) {
+				positions = new int[] { position };
+			}
+			else {
+				positions = appendPosition(positions, position);
+			}
+			this.parameterPositions.put(column, positions);
+			position++;
+		}
+	}
+
+	/**
+	 * Provide a resolver for schema-aware {@link ColumnConverter}s, one per ingest query parameter.
+	 * The resolver is consulted for each payload until it returns a non-null result,
+	 * which is cached for all subsequent payloads.
+	 * Until then values are converted with the {@link ColumnConverters#heuristic()} converter.
+	 * @param columnConvertersResolver the resolver for column converters.
+	 */
+	void setColumnConvertersResolver(Supplier<ColumnConverter[]> columnConvertersResolver) {
+		this.columnConvertersResolver = columnConvertersResolver;
+	}
+
+	/**
+	 * Put a {@link ColumnConverters.InvalidValue} into the row for a value which cannot be converted
+	 * instead of failing the whole payload, so the bad rows can be isolated when they are written.
+	 * @param lenientConversion true to not fail the payload on conversion errors.
+	 */
+	void setLenientConversion(boolean lenientConversion) {
+		this.lenientConversion = lenientConversion;
+		if (lenientConversion) {
+			this.heuristicConverters = ColumnConverters.lenient(this.heuristicConverters);
+		}
+	}
+
+	/**
+	 * Leave the ingest query parameters for the fields absent in the payload unset instead of
+	 * binding them to {@code null}, so no tombstones are written for them.
+	 * @param unsetAbsent true to leave the absent fields unset.
+	 * @see JsonRowReader#UNSET
+	 */
+	void setUnsetAbsent(boolean unsetAbsent) {
+		this.unsetAbsent = unsetAbsent;
+	}
+
+	/**
+	 * Leave the ingest query parameters for the explicit {@code null} fields of the payload unset.
+	 * @param unsetNulls true to leave the null fields unset.
+	 * @see JsonRowReader#UNSET
+	 */
+	void setUnsetNulls(boolean unsetNulls) {
+		this.unsetNulls = unsetNulls;
+	}
+
+	/**
+	 * Provide the codecs for the non-JSON payloads.
+	 * @param payloadCodecs the codecs in the order to consult.
+	 */
+	void setPayloadCodecs(List<PayloadCodec> payloadCodecs) {
+		this.payloadCodecs = payloadCodecs;
+	}
+
+	void setMetrics(SinkMetrics metrics) {
+		this.metrics = metrics;
+	}
+
+	@Override
+	protected Object doTransform(Message<?> message) throws Exception {
+		MessageHeaders headers = message.getHeaders();
+		Object payload = ContentEncodings.decode(message.getPayload(), ContentEncodings.contentEncoding(headers));
+		return transformPayload(payload, contentType(headers));
+	}
+
+	List<List<Object>> transformPayload(Object payload) throws IOException {
+		return transformPayload(payload, null);
+	}
+
+	@SuppressWarnings("unchecked")
+	List<List<Object>> transformPayload(Object payload, MimeType contentType) throws IOException {
+		if (payload instanceof List) {
+			return (List<List<Object>>) payload;
+		}
+		else {
+			long start = System.nanoTime();
+			List<List<Object>> data = new ArrayList<>();
+			try (JsonRowReader rowReader = createRowReader(payload, contentType)) {
+				while (rowReader.hasNext()) {
+					data.add(rowReader.next());
+				}
+				recordTransform(rowReader.getConsumedOffset(), data.size(), System.nanoTime() - start);
+			}
+			return data;
+		}
+	}
+
+	/**
+	 * Record the metrics for a transformed payload, if the {@link SinkMetrics} are provided.
+	 * @param payloadBytes the payload size.
+	 * @param rows the number of rows read from the payload.
+	 * @param nanos the time spent reading the rows.
+	 */
+	void recordTransform(long payloadBytes, int rows, long nanos) {
+		if (this.metrics != null) {
+			this.metrics.recordTransform(this.table, payloadBytes, rows, nanos);
+		}
+	}
+
+	JsonRowReader createRowReader(Object payload, MimeType contentType) throws IOException {
+		JsonRowReader rowReader =
+				new JsonRowReader(payloadCodec(contentType).createParser(payload), this.parameterPositions,
+						obtainColumnConverters());
+		rowReader.setUnsetAbsent(this.unsetAbsent);
+		rowReader.setUnsetNulls(this.unsetNulls);
+		return rowReader;
+	}
+
+	private ColumnConverter[] obtainColumnConverters() {
+		ColumnConverter[] converters = this.columnConverters;
+		if (converters == null) {
+			converters = this.columnConvertersResolver.get();
+			if (converters == null) {
+				return this.heuristicConverters;
+			}
+			if (this.lenientConversion) {
+				converters = ColumnConverters.lenient(converters);
+			}
+			this.columnConverters = converters;
+		}
+		return converters;
+	}
+
+	private PayloadCodec payloadCodec(MimeType contentType) {
+		if (contentType != null) {
+			for (PayloadCodec payloadCodec : this.payloadCodecs) {
+				if (payloadCodec.supports(contentType)) {
+					return payloadCodec;
+				}
+			}
+		}
+		return JSON_CODEC;
+	}
+
+	static MimeType contentType(MessageHeaders headers) {
+		Object contentType = headers.get(MessageHeaders.CONTENT_TYPE);
+		if (contentType instanceof MimeType) {
+			return (MimeType) contentType;
+		}
+		else if (contentType != null) {
+			return MimeType.valueOf(contentType.toString());
+		}
+		return null;
+	}
+
+	private static int[] appendPosition(int[] positions, int position) {
+		int[] newPositions = new int[positions.length + 1];
+		System.arraycopy(positions, 0, newPositions, 0, positions.length);
+		newPositions[positions.length] = position;
+		return newPositions;
+	}
+
+}
@@ -0,0 +1,126 @@
+/*
+ * Copyright 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.cloud.stream.app.cassandra.sink;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.springframework.data.cassandra.ReactiveSession;
+import org.springframework.util.Assert;
+
+import com.datastax.driver.core.PreparedStatement;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import reactor.core.publisher.Mono;
+
+/**
+ * The bounded LRU cache of {@link PreparedStatement}s keyed by the CQL query string.
+ * <p>
+ * As a {@link MeterBinder} the cache exposes its size and the hit, miss and eviction counts.
+ */
+class PreparedStatementCache implements MeterBinder {
+
+	private final AtomicLong hits = new AtomicLong();
+
+	private final AtomicLong misses = new AtomicLong();
+
+	private final AtomicLong evictions = new AtomicLong();
+
+	private final Map<String, PreparedStatement> statements;
+
+	/**
+	 * @param maxSize the max number of prepared statements to keep.
+	 */
+	PreparedStatementCache(int maxSize) {
+		Assert.isTrue(maxSize > 0, "'maxSize' must be greater than 0");
+		this.statements = new LinkedHashMap<String, PreparedStatement>(16, 0.75f, true) {
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<String, PreparedStatement> eldest) {
+				if (size() > maxSize) {
+					PreparedStatementCache.this.evictions.incrementAndGet();
+					return true;
+				}
+				return false;
+			}
+
+		};
+	}
+
+	/**
+	 * Obtain the prepared statement for the query from the cache or prepare it in the session.
+	 * @param session the session to prepare the query in on a cache miss.
+	 * @param query the CQL query.
+	 * @return the {@link Mono} for the prepared statement.
+	 */
+	Mono<PreparedStatement> prepare(ReactiveSession session, String query) {
+		PreparedStatement statement;
+		synchronized (this.statements) {
+			statement = this.statements.get(query);
+		}
+		if (statement != null) {
+			this.hits.incrementAndGet();
+			return Mono.just(statement);
+		}
+		this.misses.incrementAndGet();
+		return session.prepare(query)
+				.doOnNext(preparedStatement -> {
+					synchronized (this.statements) {
+						this.statements.put(query, preparedStatement);
+					}
+				});
+	}
+
+	int getSize() {
+		synchronized (this.statements) {
+			return this.statements.size();
+		}
+	}
+
+	long getHits() {
+		return this.hits.get();
+	}
+
+	long getMisses() {
+		return this.misses.get();
+	}
+
+	long getEvictions() {
+		return this.evictions.get();
+	}
+
+	@Override
+	public void bindTo(MeterRegistry registry) {
+		Gauge.builder("cassandra.sink.statement.cache.size", this, PreparedStatementCache::getSize)
+				.description("The number of cached prepared statements")
+				.register(registry);
+		FunctionCounter.builder("cassandra.sink.statement.cache.hits", this, PreparedStatementCache::getHits)
+				.description("The number of prepared statement cache hits")
+				.register(registry);
+		FunctionCounter.builder("cassandra.sink.statement.cache.misses", this, PreparedStatementCache::getMisses)
+				.description("The number of prepared statement cache misses")
+				.register(registry);
+		FunctionCounter.builder("cassandra.sink.statement.cache.evictions", this,
+						PreparedStatementCache::getEvictions)
+				.description("The number of prepared statement cache evictions")
+				.register(registry);
+	}
+
+}
@@ -0,0 +1,229 @@
+/*
+ * Copyright 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.cloud.stream.app.cassandra.sink;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+import org.springframework.context.SmartLifecycle;
+import org.springframework.integration.support.MessageBuilder;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.MessageHandler;
+import org.springframework.messaging.MessageHandlingException;
+import org.springframework.util.Assert;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import reactor.core.Disposable;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.FluxSink;
+import reactor.core.publisher.Mono;
+
+/**
+ * The {@link MessageHandler} to write the messages through a reactive {@link Flux} pipeline:
+ * the messages are emitted into a {@link Flux}, optionally combined into windows by the number of messages
+ * and the timeout, and written by the writer function with a limited number of concurrent writes.
+ * <p>
+ * The demand flows back to the input: the handler blocks the calling thread (the binder consumer)
+ * while the max number of messages received, but not written yet, is reached, so the slow writes
+ * slow down the consumption from the broker. A message is counted until its write completes,
+ * so the operators without backpressure support (e.g. the time-bound windows) can't accumulate more messages.
+ * <p>
+ * The ingest row payloads of a window are written as a single payload with the source messages
+ * in the {@link #WINDOW_MESSAGES_HEADER}, so the writer can record their de-duplication keys and send
+ * the failed rows to the dead letter channel with the headers of their messages;
+ * the other payloads of a window are written one by one.
+ * The failed writes are logged and cannot fail their messages: either the dead letter channel
+ * or the acknowledgments of the writer are expected to handle them.
+ */
+class ReactiveWriter implements MessageHandler, SmartLifecycle {
+
+	/**
+	 * The header with the source messages of the ingest rows in the written window.
+	 */
+	static final String WINDOW_MESSAGES_HEADER = "x-window-messages";
+
+	private static final Log logger = LogFactory.getLog(ReactiveWriter.class);
+
+	private final Object lifecycleMonitor = new Object();
+
+	private final Function<Message<?>, Mono<Void>> writer;
+
+	private final int concurrency;
+
+	private final int maxInFlight;
+
+	private final Semaphore inFlight;
+
+	private int windowSize;
+
+	private long windowTimeout;
+
+	private volatile FluxSink<Message<?>> sink;
+
+	private Disposable subscription;
+
+	private volatile boolean running;
+
+	/**
+	 * @param writer the function to write a message with when subscribed.
+	 * @param concurrency the max number of concurrent writes.
+	 * @param maxInFlight the max number of messages received, but not written yet.
+	 */
+	ReactiveWriter(Function<Message<?>, Mono<Void>> writer, int concurrency, int maxInFlight) {
+		Assert.isTrue(concurrency > 0, "'concurrency' must be greater than 0");
+		Assert.isTrue(maxInFlight > 0, "'maxInFlight' must be greater than 0");
+		this.writer = writer;
+		this.concurrency = concurrency;
+		this.maxInFlight = maxInFlight;
+		this.inFlight = new Semaphore(maxInFlight);
+	}
+
+	/**
+	 * Combine the messages into windows.
+	 * @param windowSize the max number of messages in a window.
+	 * @param windowTimeout the max time in milliseconds to wait for a window to fill up.
+	 */
+	void setWindow(int windowSize, long windowTimeout) {
+		Assert.isTrue(windowSize > 0, "'windowSize' must be greater than 0");
+		Assert.isTrue(windowTimeout > 0, "'windowTimeout' must be greater than 0");
+		this.windowSize = windowSize;
+		this.windowTimeout = windowTimeout;
+	}
+
+	@Override
+	public void handleMessage(Message<?> message) {
+		Assert.state(this.running, "The reactive writer is not running");
+		try {
+			this.inFlight.acquire();
+		}
+		catch (InterruptedException ex) {
+			Thread.currentThread().interrupt();
+			throw new MessageHandlingException(message, "Interrupted while waiting for in-flight writes", ex);
+		}
+		// the writer may have been stopped while waiting: the completed sink would drop the message
+		synchronized (this.lifecycleMonitor) {
+			if (!this.running) {
+				this.inFlight.release();
+				throw new MessageHandlingException(message, "The reactive writer is stopped");
+			}
+			this.sink.next(message);
+		}
+	}
+
+	private Mono<Void> write(Message<?> message, int messages) {
+		Mono<Void> write;
+		try {
+			write = this.writer.apply(message);
+		}
+		catch (RuntimeException ex) {
+			write = Mono.error(ex);
+		}
+		return write
+				.onErrorResume(ex -> {
+					logger.error("Cassandra write failed for: " + message, ex);
+					return Mono.empty();
+				})
+				.doFinally(signal -> this.inFlight.release(messages));
+	}
+
+	private Mono<Void> writeWindow(List<Message<?>> window) {
+		List<Message<?>> rowMessages = new ArrayList<>();
+		List<Mono<Void>> writes = new ArrayList<>();
+		for (Message<?> message : window) {
+			if (message.getPayload() instanceof List) {
+				rowMessages.add(message);
+			}
+			else {
+				writes.add(write(message, 1));
+			}
+		}
+		if (!rowMessages.isEmpty()) {
+			writes.add(write(window(rowMessages), rowMessages.size()));
+		}
+		return Mono.when(writes);
+	}
+
+	/**
+	 * Combine the ingest rows of the messages into a single message.
+	 * @param messages the messages with the ingest row payloads.
+	 * @return the message with all the rows and the messages in the {@link #WINDOW_MESSAGES_HEADER}.
+	 */
+	static Message<List<Object>> window(List<Message<?>> messages) {
+		List<Object> rows = new ArrayList<>();
+		for (Message<?> message : messages) {
+			rows.addAll((List<?>) message.getPayload());
+		}
+		return MessageBuilder.withPayload(rows)
+				.setHeader(WINDOW_MESSAGES_HEADER, messages)
+				.build();
+	}
+
+	@Override
+	public void start() {
+		if (!this.running) {
+			Flux<Message<?>> messages = Flux.create(sink -> this.sink = sink);
+			Flux<Void> writes;
+			if (this.windowSize > 1) {
+				writes = messages.bufferTimeout(this.windowSize, Duration.ofMillis(this.windowTimeout))
+						// the time-bound buffers don't support backpressure, the in-flight permits bound them
+						.onBackpressureBuffer()
+						.flatMap(this::writeWindow, this.concurrency);
+			}
+			else {
+				writes = messages.flatMap(message -> write(message, 1), this.concurrency);
+			}
+			this.subscription = writes.subscribe();
+			this.running = true;
+		}
+	}
+
+	@Override
+	public void stop() {
+		if (this.running) {
+			synchronized (this.lifecycleMonitor) {
+				this.running = false;
+				this.sink.complete();
+			}
+			try {
+				if (this.inFlight.tryAcquire(this.maxInFlight, 1, TimeUnit.MINUTES)) {
+					this.inFlight.release(this.maxInFlight);
+				}
+			}
+			catch (InterruptedException ex) {
+				Thread.currentThread().interrupt();
+			}
+			this.subscription.dispose();
+		}
+	}
+
+	@Override
+	public boolean isRunning() {
+		return this.running;
+	}
+
+	@Override
+	public int getPhase() {
+		// stop after the ingest window and the counter aggregator to write their last rows
+		return -1;
+	}
+
+}
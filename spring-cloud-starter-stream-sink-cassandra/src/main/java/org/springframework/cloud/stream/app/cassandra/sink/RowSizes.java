@@ -0,0 +1,78 @@
+/*
+ * Copyright 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.cloud.stream.app.cassandra.sink;
+
+import java.nio.ByteBuffer;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Cheap estimation of the serialized size of ingest rows.
+ * The estimation is close to the size of the values in the native protocol,
+ * but doesn't serialize anything.
+ */
+final class RowSizes {
+
+	private RowSizes() {
+	}
+
+	static long estimate(List<?> row) {
+		long size = 0;
+		for (Object value : row) {
+			size += estimateValue(value);
+		}
+		return size;
+	}
+
+	private static long estimateValue(Object value) {
+		if (value == JsonRowReader.UNSET) {
+			return 4;
+		}
+		else if (value == null || value instanceof Boolean || value instanceof Byte) {
+			return 4 + 1;
+		}
+		else if (value instanceof CharSequence) {
+			return 4 + ((CharSequence) value).length();
+		}
+		else if (value instanceof ByteBuffer) {
+			return 4 + ((ByteBuffer) value).remaining();
+		}
+		else if (value instanceof byte[]) {
+			return 4 + ((byte[]) value).length;
+		}
+		else if (value instanceof Collection) {
+			long size = 4 + 4;
+			for (Object element : (Collection<?>) value) {
+				size += estimateValue(element);
+			}
+			return size;
+		}
+		else if (value instanceof Map) {
+			long size = 4 + 4;
+			for (Map.Entry<?, ?> entry : ((Map<?, ?>) value).entrySet()) {
+				size += estimateValue(entry.getKey()) + estimateValue(entry.getValue());
+			}
+			return size;
+		}
+		else {
+			// numbers, dates, UUIDs, inet addresses etc.
+			return 4 + 16;
+		}
+	}
+
+}
@@ -0,0 +1,200 @@
+/*
+ * Copyright 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.cloud.stream.app.cassandra.sink;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+import org.springframework.cloud.stream.app.cassandra.query.IngestQuery;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+import io.micrometer.core.instrument.Timer;
+
+/**
+ * The Micrometer meters for the stages of the sink pipeline:
+ * <ul>
+ * <li>{@code cassandra.sink.payload.size} - the size of the ingest payloads in bytes;</li>
+ * <li>{@code cassandra.sink.payload.rows} - the number of rows per ingest payload;</li>
+ * <li>{@code cassandra.sink.transform} - the time to read the rows from the ingest payloads;</li>
+ * <li>{@code cassandra.sink.write} - the latency of the Cassandra writes, with percentiles;</li>
+ * <li>{@code cassandra.sink.rows} - the number of rows written;</li>
+ * <li>{@code cassandra.sink.write.errors} - the failed writes by the exception type;</li>
+ * <li>{@code cassandra.sink.dead.letters} - the number of rows (or entities) sent to the dead letter channel.</li>
+ * </ul>
+ * The meters are tagged with the {@code keyspace}, {@code table} and {@code type} (query type).
+ * The writes in flight are exposed by the {@link InFlightLimiter}.
+ */
+class SinkMetrics {
+
+	static final String UNKNOWN_TABLE = "unknown";
+
+	private final Map<String, TableMeters> tableMeters = new ConcurrentHashMap<>();
+
+	private final MeterRegistry registry;
+
+	private final String keyspace;
+
+	private final String queryType;
+
+	private final Counter deadLetters;
+
+	/**
+	 * @param registry the registry for the meters.
+	 * @param keyspace the default keyspace for unqualified table names.
+	 * @param queryType the query type of the sink.
+	 */
+	SinkMetrics(MeterRegistry registry, String keyspace, String queryType) {
+		this.registry = registry;
+		this.keyspace = keyspace != null ? keyspace : "default";
+		this.queryType = queryType;
+		this.deadLetters = Counter.builder("cassandra.sink.dead.letters")
+				.description("The number of rows sent to the dead letter channel after failed writes")
+				.tag("keyspace", this.keyspace)
+				.tag("type", queryType)
+				.register(registry);
+	}
+
+	void recordTransform(String table, long payloadBytes, int rows, long nanos) {
+		TableMeters meters = meters(table);
+		meters.payloadSize.record(payloadBytes);
+		meters.payloadRows.record(rows);
+		meters.transform.record(nanos, TimeUnit.NANOSECONDS);
+	}
+
+	void recordWrite(String table, int rows, long nanos) {
+		TableMeters meters = meters(table);
+		meters.write.record(nanos, TimeUnit.NANOSECONDS);
+		meters.rows.increment(rows);
+	}
+
+	/**
+	 * Record the rows written by a write which is recorded as failed for its other rows.
+	 * @param table the target table.
+	 * @param rows the number of rows written.
+	 */
+	void recordRows(String table, int rows) {
+		meters(table).rows.increment(rows);
+	}
+
+	void recordWriteError(String table, long nanos, Throwable cause) {
+		TableMeters meters = meters(table);
+		meters.write.record(nanos, TimeUnit.NANOSECONDS);
+		Counter.builder("cassandra.sink.write.errors")
+				.description("The number of failed Cassandra writes")
+				.tags(meters.tags)
+				.tag("exception", exceptionType(cause))
+				.register(this.registry)
+				.increment();
+	}
+
+	void recordDeadLetter(int rows) {
+		this.deadLetters.increment(rows);
+	}
+
+	/**
+	 * Extract the table name of the query for the {@code table} tag.
+	 * @param query the query.
+	 * @return the table name, possibly keyspace-qualified, or {@link #UNKNOWN_TABLE}.
+	 */
+	static String tableOf(String query) {
+		try {
+			return IngestQuery.parse(query).getTable();
+		}
+		catch (IllegalArgumentException ex) {
+			return UNKNOWN_TABLE;
+		}
+	}
+
+	private TableMeters meters(String table) {
+		TableMeters meters = this.tableMeters.get(table);
+		if (meters == null) {
+			meters = this.tableMeters.computeIfAbsent(table, TableMeters::new);
+		}
+		return meters;
+	}
+
+	/*
+	 * The driver exceptions are translated into DataAccessExceptions; report the most specific driver exception.
+	 */
+	private static String exceptionType(Throwable cause) {
+		Throwable exception = cause;
+		for (Throwable current = cause; current != null && current.getCause() != current;
+				current = current.getCause()) {
+
+			if (current.getClass().getName().startsWith("com.datastax.driver")) {
+				exception = current;
+			}
+		}
+		return exception.getClass().getSimpleName();
+	}
+
+	private final class TableMeters {
+
+		private final Tags tags;
+
+		private final DistributionSummary payloadSize;
+
+		private final DistributionSummary payloadRows;
+
+		private final Timer transform;
+
+		private final Timer write;
+
+		private final Counter rows;
+
+		TableMeters(String qualifiedTable) {
+			String keyspace = SinkMetrics.this.keyspace;
+			String table = qualifiedTable;
+			int keyspaceDelimiter = qualifiedTable.indexOf('.');
+			if (keyspaceDelimiter > 0) {
+				keyspace = qualifiedTable.substring(0, keyspaceDelimiter);
+				table = qualifiedTable.substring(keyspaceDelimiter + 1);
+			}
+			MeterRegistry registry = SinkMetrics.this.registry;
+			this.tags = Tags.of("keyspace", keyspace, "table", table, "type", SinkMetrics.this.queryType);
+			this.payloadSize = DistributionSummary.builder("cassandra.sink.payload.size")
+					.description("The size of the ingest payloads")
+					.baseUnit("bytes")
+					.tags(this.tags)
+					.register(registry);
+			this.payloadRows = DistributionSummary.builder("cassandra.sink.payload.rows")
+					.description("The number of rows per ingest payload")
+					.tags(this.tags)
+					.register(registry);
+			this.transform = Timer.builder("cassandra.sink.transform")
+					.description("The time to read the rows from the ingest payloads")
+					.tags(this.tags)
+					.register(registry);
+			this.write = Timer.builder("cassandra.sink.write")
+					.description("The latency of the Cassandra writes")
+					.tags(this.tags)
+					.publishPercentiles(0.5, 0.95, 0.99)
+					.publishPercentileHistogram()
+					.register(registry);
+			this.rows = Counter.builder("cassandra.sink.rows")
+					.description("The number of rows written to Cassandra")
+					.tags(this.tags)
+					.register(registry);
+		}
+
+	}
+
+}
@@ -0,0 +1,76 @@
+/*
+ * Copyright 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.cloud.stream.app.cassandra.sink;
+
+import java.util.AbstractList;
+import java.util.List;
+import java.util.RandomAccess;
+
+/**
+ * An ingest row with the client-side write timestamp in microseconds,
+ * which is set as the default timestamp of the statement for the row
+ * (the same as {@code USING TIMESTAMP} in the query).
+ * <p>
+ * The row can absorb the later updates for the same key: the values of the later row
+ * override the current ones, except the {@link JsonRowReader#UNSET} values, and the timestamp
+ * is moved forward, so the last write wins.
+ */
+final class TimestampedRow extends AbstractList<Object> implements RandomAccess {
+
+	private final Object[] values;
+
+	private long timestamp;
+
+	/**
+	 * @param row the row values.
+	 * @param timestamp the write timestamp in microseconds.
+	 */
+	TimestampedRow(List<?> row, long timestamp) {
+		this.values = row.toArray();
+		this.timestamp = timestamp;
+	}
+
+	/**
+	 * Merge the later row for the same key into this row.
+	 * @param row the later row.
+	 * @param timestamp the write timestamp of the later row in microseconds.
+	 */
+	void merge(List<?> row, long timestamp) {
+		for (int i = 0; i < this.values.length; i++) {
+			Object value = row.get(i);
+			if (value != JsonRowReader.UNSET) {
+				this.values[i] = value;
+			}
+		}
+		this.timestamp = Math.max(this.timestamp, timestamp);
+	}
+
+	long getTimestamp() {
+		return this.timestamp;
+	}
+
+	@Override
+	public Object get(int index) {
+		return this.values[index];
+	}
+
+	@Override
+	public int size() {
+		return this.values.length;
+	}
+
+}
@@ -0,0 +1,277 @@
+/*
+ * Copyright 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.cloud.stream.app.cassandra.sink;
+
+import java.lang.reflect.Method;
+import java.util.ArrayDeque;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.springframework.integration.acks.AcknowledgmentCallback;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.MessageHandlingException;
+import org.springframework.messaging.MessageHeaders;
+import org.springframework.util.Assert;
+import org.springframework.util.ReflectionUtils;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import reactor.core.publisher.Mono;
+
+/**
+ * Acknowledges the messages to the binder only after their writes complete,
+ * in the order the messages were received per partition, so the writes can be pipelined
+ * without committing the broker offsets of the writes still in flight.
+ * <p>
+ * The acknowledgment is a message header: an {@link AcknowledgmentCallback}
+ * or an object with an {@code acknowledge()} method,
+ * e.g. the {@code kafka_acknowledgment} header of the Kafka binder with {@code autoCommitOffset=false}.
+ * <p>
+ * A failed write of a message with an {@link AcknowledgmentCallback} rejects it and all the other pending
+ * messages of its partition with {@link AcknowledgmentCallback.Status#REQUEUE}, so they are redelivered
+ * by the binder and tracked again.
+ * Otherwise, a failed write stops the acknowledgments of its partition: neither the failed message nor any
+ * later one is acknowledged, so they are all redelivered after a restart or a rebalance.
+ * The later messages of the partition are rejected with a {@link MessageHandlingException} on the calling thread
+ * without being written, so the consumer fails fast instead of writing the messages to be redelivered anyway.
+ * The partition accepts the messages again when the failed message is redelivered, i.e. a message with
+ * an offset header not greater than the failed one is received; without offsets it does not.
+ * The failed writes sent to a dead letter channel are not failures for the acknowledgments.
+ * <p>
+ * A partition is tracked while it has pending messages or a failed write.
+ * <p>
+ * A message with the {@link #PARTIAL_HEADER} is a part of a larger message (e.g. a chunk of a payload):
+ * its write completion is tracked, but only the last part without the header is acknowledged.
+ */
+class WriteAcknowledger {
+
+	/**
+	 * The header for the messages which must not be acknowledged on their own.
+	 */
+	static final String PARTIAL_HEADER = "cassandra_partialWrite";
+
+	private static final Log logger = LogFactory.getLog(WriteAcknowledger.class);
+
+	private static final Object NO_PARTITION = new Object();
+
+	/*
+	 * The result of registering in a partition removed as idle concurrently.
+	 */
+	private static final Entry REMOVED = new Entry(null, null);
+
+	private final Map<Object, Partition> partitions = new ConcurrentHashMap<>();
+
+	private final Map<Class<?>, Method> acknowledgeMethods = new ConcurrentHashMap<>();
+
+	private final String acknowledgmentHeader;
+
+	private final String partitionHeader;
+
+	private final String offsetHeader;
+
+	/**
+	 * @param acknowledgmentHeader the message header for the acknowledgment.
+	 * @param partitionHeader the message header for the partition the message is received from;
+	 * the messages without it are acknowledged in the order of all the messages.
+	 * @param offsetHeader the message header for the numeric offset of the message in its partition,
+	 * to detect the redelivery of a failed message; may be null.
+	 */
+	WriteAcknowledger(String acknowledgmentHeader, String partitionHeader, String offsetHeader) {
+		Assert.hasText(acknowledgmentHeader, "'acknowledgmentHeader' must not be empty");
+		this.acknowledgmentHeader = acknowledgmentHeader;
+		this.partitionHeader = partitionHeader;
+		this.offsetHeader = offsetHeader;
+	}
+
+	/**
+	 * Register the message in the order of its partition and acknowledge it when the write completes
+	 * and all the earlier messages of the partition are acknowledged.
+	 * Must be called in the order the messages are received.
+	 * @param message the message of the write.
+	 * @param write the write.
+	 * @return the write which completes the acknowledgment.
+	 * @throws MessageHandlingException if an earlier write of the partition failed
+	 * and the message is not its redelivery.
+	 */
+	Mono<Void> track(Message<?> message, Mono<Void> write) {
+		MessageHeaders headers = message.getHeaders();
+		Object acknowledgment = headers.get(this.acknowledgmentHeader);
+		if (acknowledgment == null) {
+			return write;
+		}
+		Object partitionKey = this.partitionHeader != null ? headers.get(this.partitionHeader) : null;
+		Object offset = this.offsetHeader != null ? headers.get(this.offsetHeader) : null;
+		Partition partition;
+		Entry entry;
+		do {
+			partition = this.partitions.computeIfAbsent(partitionKey != null ? partitionKey : NO_PARTITION,
+					Partition::new);
+			entry = partition.register(headers.containsKey(PARTIAL_HEADER) ? null : acknowledgment,
+					offset instanceof Number ? ((Number) offset).longValue() : null);
+		}
+		while (entry == REMOVED);
+		if (entry == null) {
+			throw new MessageHandlingException(message, "An earlier Cassandra write of the partition "
+					+ (partitionKey != null ? partitionKey + " " : "")
+					+ "failed; its later messages are rejected until the failed one is redelivered");
+		}
+		Partition target = partition;
+		Entry registered = entry;
+		return write
+				.doOnSuccess(result -> target.complete(registered))
+				.doOnError(ex -> target.fail(registered, ex));
+	}
+
+	private void acknowledge(Object acknowledgment) {
+		if (acknowledgment instanceof AcknowledgmentCallback) {
+			((AcknowledgmentCallback) acknowledgment).acknowledge(AcknowledgmentCallback.Status.ACCEPT);
+		}
+		else {
+			Method acknowledge =
+					this.acknowledgeMethods.computeIfAbsent(acknowledgment.getClass(), type -> {
+						Method method = ReflectionUtils.findMethod(type, "acknowledge");
+						Assert.state(method != null, () -> "No acknowledge() method on " + type);
+						ReflectionUtils.makeAccessible(method);
+						return method;
+					});
+			ReflectionUtils.invokeMethod(acknowledge, acknowledgment);
+		}
+	}
+
+	private static final class Entry {
+
+		private final Object acknowledgment;
+
+		private final Long offset;
+
+		private boolean done;
+
+		Entry(Object acknowledgment, Long offset) {
+			this.acknowledgment = acknowledgment;
+			this.offset = offset;
+		}
+
+	}
+
+	private final class Partition {
+
+		private final Object key;
+
+		private final ArrayDeque<Entry> entries = new ArrayDeque<>();
+
+		private boolean failed;
+
+		private Long failedOffset;
+
+		private boolean removed;
+
+		Partition(Object key) {
+			this.key = key;
+		}
+
+		/*
+		 * Null if the partition is failed and the message is not the redelivered failed one.
+		 */
+		synchronized Entry register(Object acknowledgment, Long offset) {
+			if (this.removed) {
+				return REMOVED;
+			}
+			if (this.failed) {
+				if (offset == null || this.failedOffset == null || offset > this.failedOffset) {
+					return null;
+				}
+				this.failed = false;
+				this.failedOffset = null;
+				logger.info("The failed message is redelivered; resuming the acknowledgments for the partition "
+						+ (this.key != NO_PARTITION ? this.key : ""));
+			}
+			Entry entry = new Entry(acknowledgment, offset);
+			this.entries.add(entry);
+			return entry;
+		}
+
+		/*
+		 * The acknowledgments are performed under the lock to keep their order.
+		 */
+		synchronized void complete(Entry entry) {
+			entry.done = true;
+			while (!this.entries.isEmpty() && this.entries.peek().done) {
+				Object acknowledgment = this.entries.poll().acknowledgment;
+				if (acknowledgment != null) {
+					acknowledge(acknowledgment);
+				}
+			}
+			removeIfIdle();
+		}
+
+		synchronized void fail(Entry entry, Throwable cause) {
+			if (this.failed || !this.entries.contains(entry)) {
+				// the write of a message already rejected or given up on
+				return;
+			}
+			if (requeue()) {
+				logger.error("Cassandra write failed; the pending messages of the partition "
+						+ (this.key != NO_PARTITION ? this.key : "") + " are requeued", cause);
+			}
+			else {
+				this.failed = true;
+				this.failedOffset = entry.offset;
+				logger.error("Cassandra write failed; no more messages are acknowledged for the partition "
+						+ (this.key != NO_PARTITION ? this.key : "") + " until redelivered", cause);
+			}
+			this.entries.clear();
+			removeIfIdle();
+		}
+
+		/*
+		 * The next message of the partition registers in a new one.
+		 */
+		private void removeIfIdle() {
+			if (this.entries.isEmpty() && !this.failed) {
+				this.removed = true;
+				WriteAcknowledger.this.partitions.remove(this.key, this);
+			}
+		}
+
+		/*
+		 * Requeue all the pending messages if the binder supports it:
+		 * the later messages are redelivered after the failed one anyway.
+		 */
+		private boolean requeue() {
+			boolean callbacks = false;
+			for (Entry entry : this.entries) {
+				if (entry.acknowledgment != null) {
+					if (!(entry.acknowledgment instanceof AcknowledgmentCallback)) {
+						return false;
+					}
+					callbacks = true;
+				}
+			}
+			if (!callbacks) {
+				return false;
+			}
+			for (Entry entry : this.entries) {
+				if (entry.acknowledgment != null) {
+					((AcknowledgmentCallback) entry.acknowledgment).acknowledge(AcknowledgmentCallback.Status.REQUEUE);
+				}
+			}
+			return true;
+		}
+
+	}
+
+}
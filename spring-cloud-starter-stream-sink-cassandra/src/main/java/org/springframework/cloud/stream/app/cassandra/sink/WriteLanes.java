@@ -0,0 +1,462 @@
+/*
+ * Copyright 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.cloud.stream.app.cassandra.sink;
+
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+import org.springframework.context.SmartLifecycle;
+import org.springframework.data.cassandra.core.mapping.CassandraMappingContext;
+import org.springframework.data.cassandra.core.mapping.CassandraPersistentEntity;
+import org.springframework.data.cassandra.core.mapping.CassandraPersistentProperty;
+import org.springframework.data.mapping.PersistentPropertyAccessor;
+import org.springframework.integration.handler.AbstractMessageProducingHandler;
+import org.springframework.integration.support.MessageBuilder;
+import org.springframework.integration.util.CallerBlocksPolicy;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.MessageHandlingException;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.util.Assert;
+import org.springframework.util.ReflectionUtils;
+
+/**
+ * The {@link AbstractMessageProducingHandler} to dispatch the writes onto a fixed number
+ * of single-threaded lanes by the hash of their partition key, so the writes for the same key
+ * are performed in order while the writes for different keys are performed in parallel.
+ * The downstream handler must perform the writes synchronously on the lane thread.
+ * <p>
+ * The rows of an ingest payload are split by the lane of their partition key columns;
+ * the rows for the same primary key within a payload are written in consecutive rounds,
+ * so a single write never has two rows for the same key.
+ * The entities are dispatched by their partition key properties.
+ * The payloads without a resolvable key are written on the first lane.
+ * The key positions are resolved on start or, while the table metadata is not available,
+ * on the later messages; the first keyed rows are dispatched after the writes queued on the first lane
+ * so far are completed, so the rows of a key are not reordered by the switch.
+ * <p>
+ * The lane queues are bounded: the dispatching thread blocks while the lane of a write is full.
+ * The dispatching thread does not wait for the writes: a failed write on a lane fails the next message
+ * dispatched onto that lane before any of its rows are queued, so the binder retries or dead-letters it
+ * and the consumer learns about the failure, as in the synchronous mode.
+ * The failed write itself is not retried: its rows reach the downstream dead letter channel, if any.
+ * <p>
+ * By default each lane has its own platform thread. With the shared threads the lanes are serial queues
+ * executed on virtual threads (Java 21 and later), so thousands of lanes can block on their writes
+ * at the cost of a parked virtual thread each, or, on the older JDKs, on a bounded pool of platform threads.
+ */
+class WriteLanes extends AbstractMessageProducingHandler implements SmartLifecycle {
+
+	private final ExecutorService[] lanes;
+
+	private final SerialLane[] serialLanes;
+
+	private final int capacity;
+
+	private final AtomicReferenceArray<Exception> failures;
+
+	private int maxPlatformThreads;
+
+	private ExecutorService carrier;
+
+	private Supplier<int[]> partitionKeyPositionsResolver;
+
+	private Supplier<int[]> primaryKeyPositionsResolver;
+
+	private volatile int[] partitionKeyPositions;
+
+	private volatile int[] primaryKeyPositions;
+
+	private volatile boolean keyed;
+
+	private Function<Object, Object> entityKeyResolver = entity -> null;
+
+	private volatile boolean running;
+
+	/**
+	 * @param lanes the number of lanes.
+	 * @param capacity the max number of writes waiting on a lane.
+	 */
+	WriteLanes(int lanes, int capacity) {
+		Assert.isTrue(lanes > 0, "'lanes' must be greater than 0");
+		Assert.isTrue(capacity > 0, "'capacity' must be greater than 0");
+		this.lanes = new ExecutorService[lanes];
+		this.serialLanes = new SerialLane[lanes];
+		this.capacity = capacity;
+		this.failures = new AtomicReferenceArray<>(lanes);
+	}
+
+	/**
+	 * Run the lanes on shared threads instead of a platform thread per lane: on a virtual thread
+	 * per busy lane when the JDK supports virtual threads or on a bounded pool of platform threads otherwise.
+	 * @param maxPlatformThreads the max number of platform threads for the lanes without virtual threads.
+	 */
+	void setSharedThreads(int maxPlatformThreads) {
+		Assert.isTrue(maxPlatformThreads > 0, "'maxPlatformThreads' must be greater than 0");
+		this.maxPlatformThreads = maxPlatformThreads;
+	}
+
+	/**
+	 * Provide the resolvers for the ingest query parameter positions of the key columns;
+	 * each is called until it returns non-null.
+	 * @param partitionKeyPositionsResolver the resolver for the partition key positions.
+	 * @param primaryKeyPositionsResolver the resolver for the primary key positions.
+	 */
+	void setKeyPositionsResolvers(Supplier<int[]> partitionKeyPositionsResolver,
+			Supplier<int[]> primaryKeyPositionsResolver) {
+
+		this.partitionKeyPositionsResolver = partitionKeyPositionsResolver;
+		this.primaryKeyPositionsResolver = primaryKeyPositionsResolver;
+	}
+
+	/**
+	 * Provide the function for the partition key of the entity payloads.
+	 * @param entityKeyResolver the function returning the key of an entity or null.
+	 * @see #entityPartitionKey(CassandraMappingContext)
+	 */
+	void setEntityKeyResolver(Function<Object, Object> entityKeyResolver) {
+		this.entityKeyResolver = entityKeyResolver;
+	}
+
+	@Override
+	@SuppressWarnings("unchecked")
+	protected void handleMessageInternal(Message<?> message) {
+		Object payload = message.getPayload();
+		int[] keyPositions = resolvePartitionKeyPositions();
+		if (payload instanceof List && keyPositions != null && keyPositions.length > 0) {
+			if (!this.keyed) {
+				awaitLane(0, message);
+				this.keyed = true;
+			}
+			List<List<?>> rows = (List<List<?>>) payload;
+			Map<Integer, List<List<?>>> rowsByLane = new HashMap<>();
+			for (List<?> row : rows) {
+				rowsByLane.computeIfAbsent(laneOf(keyOf(row, keyPositions)), lane -> new ArrayList<>()).add(row);
+			}
+			for (Integer lane : rowsByLane.keySet()) {
+				checkFailure(lane, message);
+			}
+			for (Map.Entry<Integer, List<List<?>>> laneRows : rowsByLane.entrySet()) {
+				List<List<List<?>>> rounds = rounds(laneRows.getValue());
+				dispatch(laneRows.getKey(), () -> {
+					for (List<List<?>> round : rounds) {
+						sendOutput(MessageBuilder.withPayload(round).copyHeaders(message.getHeaders()).build(),
+								null, false);
+					}
+				}, message);
+			}
+		}
+		else {
+			Object key = payload instanceof List ? null : this.entityKeyResolver.apply(payload);
+			int lane = key != null ? laneOf(key) : 0;
+			checkFailure(lane, message);
+			dispatch(lane, () -> sendOutput(message, null, false), message);
+		}
+	}
+
+	/*
+	 * The n-th round has the n-th row of each primary key, in the order of the payload.
+	 */
+	private List<List<List<?>>> rounds(List<List<?>> rows) {
+		int[] keyPositions = resolvePrimaryKeyPositions();
+		if (keyPositions == null || keyPositions.length == 0 || rows.size() == 1) {
+			return Collections.singletonList(rows);
+		}
+		List<List<List<?>>> rounds = new ArrayList<>(1);
+		Map<List<Object>, Integer> occurrences = new HashMap<>();
+		for (List<?> row : rows) {
+			int round = occurrences.merge(keyOf(row, keyPositions), 1, Integer::sum) - 1;
+			if (round == rounds.size()) {
+				rounds.add(new ArrayList<>());
+			}
+			rounds.get(round).add(row);
+		}
+		return rounds;
+	}
+
+	private void dispatch(int lane, Runnable write, Message<?> message) {
+		Assert.state(this.running, "The write lanes are not running");
+		Runnable task = () -> {
+			try {
+				write.run();
+			}
+			catch (Exception ex) {
+				this.logger.error("Cassandra write failed on lane " + lane + " for: " + message, ex);
+				this.failures.set(lane, ex);
+			}
+		};
+		if (this.carrier != null) {
+			try {
+				this.serialLanes[lane].execute(task);
+			}
+			catch (InterruptedException ex) {
+				Thread.currentThread().interrupt();
+				throw new MessageHandlingException(message, "Interrupted while waiting for write lane " + lane, ex);
+			}
+		}
+		else {
+			this.lanes[lane].execute(task);
+		}
+	}
+
+	/*
+	 * Fail the message with the last failed write on the lane, if any, and clear it.
+	 */
+	private void checkFailure(int lane, Message<?> message) {
+		Exception failure = this.failures.getAndSet(lane, null);
+		if (failure != null) {
+			throw new MessageHandlingException(message,
+					"An earlier Cassandra write failed on lane " + lane + ": " + failure.getMessage(), failure);
+		}
+	}
+
+	/*
+	 * Wait for the writes queued on the lane so far.
+	 */
+	private void awaitLane(int lane, Message<?> message) {
+		CountDownLatch written = new CountDownLatch(1);
+		dispatch(lane, written::countDown, message);
+		try {
+			written.await();
+		}
+		catch (InterruptedException ex) {
+			Thread.currentThread().interrupt();
+			throw new MessageHandlingException(message, "Interrupted while waiting for write lane " + lane, ex);
+		}
+	}
+
+	private int laneOf(Object key) {
+		int hash = key.hashCode();
+		return Math.floorMod(hash ^ (hash >>> 16), this.lanes.length);
+	}
+
+	private int[] resolvePartitionKeyPositions() {
+		int[] keyPositions = this.partitionKeyPositions;
+		if (keyPositions == null && this.partitionKeyPositionsResolver != null) {
+			keyPositions = this.partitionKeyPositionsResolver.get();
+			this.partitionKeyPositions = keyPositions;
+		}
+		return keyPositions;
+	}
+
+	private int[] resolvePrimaryKeyPositions() {
+		int[] keyPositions = this.primaryKeyPositions;
+		if (keyPositions == null && this.primaryKeyPositionsResolver != null) {
+			keyPositions = this.primaryKeyPositionsResolver.get();
+			this.primaryKeyPositions = keyPositions;
+		}
+		return keyPositions;
+	}
+
+	private static List<Object> keyOf(List<?> row, int[] keyPositions) {
+		Object[] key = new Object[keyPositions.length];
+		for (int i = 0; i < key.length; i++) {
+			key[i] = row.get(keyPositions[i]);
+		}
+		return Arrays.asList(key);
+	}
+
+	/**
+	 * Create the function for the partition key of the mapped entities: the values of the partition key
+	 * properties, including the ones of a composite primary key class.
+	 * @param mappingContext the mapping context for the entities.
+	 * @return the function returning the partition key of an entity or null.
+	 */
+	static Function<Object, Object> entityPartitionKey(CassandraMappingContext mappingContext) {
+		return entity -> {
+			List<Object> key = new ArrayList<>();
+			addPartitionKey(mappingContext, entity, key);
+			return key.isEmpty() ? null : key;
+		};
+	}
+
+	@SuppressWarnings("unchecked")
+	private static void addPartitionKey(CassandraMappingContext mappingContext, Object bean, List<Object> key) {
+		CassandraPersistentEntity<Object> entity =
+				(CassandraPersistentEntity<Object>) mappingContext.getPersistentEntity(bean.getClass());
+		if (entity == null) {
+			return;
+		}
+		PersistentPropertyAccessor accessor = entity.getPropertyAccessor(bean);
+		for (CassandraPersistentProperty property : entity) {
+			Object value = accessor.getProperty(property);
+			if (property.isCompositePrimaryKey()) {
+				if (value != null) {
+					addPartitionKey(mappingContext, value, key);
+				}
+			}
+			else if (property.isIdProperty() || property.isPartitionKeyColumn()) {
+				key.add(value);
+			}
+		}
+	}
+
+	@Override
+	public void start() {
+		if (!this.running) {
+			if (this.maxPlatformThreads > 0) {
+				this.carrier = virtualThreadExecutor();
+				if (this.carrier == null) {
+					ThreadPoolExecutor platformThreads =
+							new ThreadPoolExecutor(this.maxPlatformThreads, this.maxPlatformThreads,
+									60, TimeUnit.SECONDS, new LinkedBlockingQueue<>(),
+									new CustomizableThreadFactory("cassandra-lane-"));
+					platformThreads.allowCoreThreadTimeOut(true);
+					this.carrier = platformThreads;
+				}
+				for (int i = 0; i < this.serialLanes.length; i++) {
+					this.serialLanes[i] = new SerialLane(i);
+				}
+			}
+			else {
+				for (int i = 0; i < this.lanes.length; i++) {
+					this.lanes[i] = new ThreadPoolExecutor(1, 1, 0, TimeUnit.MILLISECONDS,
+							new LinkedBlockingQueue<>(this.capacity),
+							new CustomizableThreadFactory("cassandra-lane-" + i + "-"),
+							new CallerBlocksPolicy(Long.MAX_VALUE));
+				}
+			}
+			this.running = true;
+			resolvePartitionKeyPositions();
+			resolvePrimaryKeyPositions();
+		}
+	}
+
+	/*
+	 * Executors.newVirtualThreadPerTaskExecutor() of Java 21 and later; null on the older JDKs.
+	 */
+	private static ExecutorService virtualThreadExecutor() {
+		Method factory = ReflectionUtils.findMethod(Executors.class, "newVirtualThreadPerTaskExecutor");
+		return factory != null ? (ExecutorService) ReflectionUtils.invokeMethod(factory, null) : null;
+	}
+
+	@Override
+	public void stop() {
+		if (this.running) {
+			this.running = false;
+			List<ExecutorService> executors =
+					this.carrier != null ? Collections.singletonList(this.carrier) : Arrays.asList(this.lanes);
+			try {
+				if (this.carrier != null) {
+					for (SerialLane lane : this.serialLanes) {
+						lane.awaitIdle();
+					}
+				}
+				for (ExecutorService executor : executors) {
+					executor.shutdown();
+				}
+				for (ExecutorService executor : executors) {
+					executor.awaitTermination(1, TimeUnit.MINUTES);
+				}
+			}
+			catch (InterruptedException ex) {
+				Thread.currentThread().interrupt();
+			}
+			this.carrier = null;
+		}
+	}
+
+	@Override
+	public boolean isRunning() {
+		return this.running;
+	}
+
+	@Override
+	public int getPhase() {
+		// stop after the ingest window and the counter aggregator to write their last rows
+		return -1;
+	}
+
+	/**
+	 * A lane on the shared threads: the writes are queued and drained one by one
+	 * by a single task on the carrier executor at a time.
+	 */
+	private final class SerialLane {
+
+		private final int index;
+
+		private final BlockingQueue<Runnable> writes = new LinkedBlockingQueue<>(WriteLanes.this.capacity);
+
+		private final AtomicBoolean scheduled = new AtomicBoolean();
+
+		SerialLane(int index) {
+			this.index = index;
+		}
+
+		void execute(Runnable write) throws InterruptedException {
+			this.writes.put(write);
+			schedule();
+		}
+
+		private void schedule() {
+			if (!this.writes.isEmpty() && this.scheduled.compareAndSet(false, true)) {
+				try {
+					WriteLanes.this.carrier.execute(this::drain);
+				}
+				catch (RejectedExecutionException ex) {
+					this.scheduled.set(false);
+					WriteLanes.this.logger.error("The writes of lane " + this.index
+							+ " are rejected after the lanes are stopped", ex);
+				}
+			}
+		}
+
+		private void drain() {
+			try {
+				Runnable write;
+				while ((write = this.writes.poll()) != null) {
+					write.run();
+				}
+			}
+			finally {
+				synchronized (this) {
+					this.scheduled.set(false);
+					notifyAll();
+				}
+				schedule();
+			}
+		}
+
+		synchronized void awaitIdle() throws InterruptedException {
+			long deadline = System.currentTimeMillis() + TimeUnit.MINUTES.toMillis(1);
+			long remaining;
+			while ((this.scheduled.get() || !this.writes.isEmpty())
+					&& (remaining = deadline - System.currentTimeMillis()) > 0) {
+
+				wait(remaining);
+			}
+		}
+
+	}
+
+}
@@ -0,0 +1,42 @@
+/*
+ * Copyright 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.cloud.stream.app.cassandra.sink;
+
+/**
+ * A callback for completed writes of the {@link CassandraSinkMessageHandler}.
+ * Invoked on the thread which completes the write, so implementations must be thread-safe and fast.
+ */
+interface WriteListener {
+
+	/**
+	 * Called when all the rows of a write have been acknowledged by Cassandra.
+	 * @param rows the number of rows written.
+	 * @param latencyNanos the write latency.
+	 */
+	default void onWriteSuccess(int rows, long latencyNanos) {
+	}
+
+	/**
+	 * Called when a write has failed.
+	 * @param rows the number of rows in the failed write.
+	 * @param latencyNanos the time until the failure.
+	 * @param cause the failure cause.
+	 */
+	default void onWriteFailure(int rows, long latencyNanos, Throwable cause) {
+	}
+
+}
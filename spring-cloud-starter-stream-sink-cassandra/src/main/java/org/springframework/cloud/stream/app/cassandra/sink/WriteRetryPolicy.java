@@ -0,0 +1,195 @@
+/*
+ * Copyright 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.cloud.stream.app.cassandra.sink;
+
+import java.time.Duration;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.function.Function;
+
+import org.springframework.cloud.stream.app.cassandra.query.IngestQuery;
+import org.springframework.util.Assert;
+
+import com.datastax.driver.core.DataType;
+import com.datastax.driver.core.exceptions.BusyPoolException;
+import com.datastax.driver.core.exceptions.ConnectionException;
+import com.datastax.driver.core.exceptions.NoHostAvailableException;
+import com.datastax.driver.core.exceptions.OperationTimedOutException;
+import com.datastax.driver.core.exceptions.OverloadedException;
+import com.datastax.driver.core.exceptions.UnavailableException;
+import com.datastax.driver.core.exceptions.WriteTimeoutException;
+import reactor.core.Exceptions;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+/**
+ * The retry policy for failed Cassandra writes with exponential backoff and jitter.
+ * <p>
+ * The errors which guarantee the write was not applied (busy connection pool, overloaded
+ * or unavailable coordinator) are retried for any write. The errors with an unknown outcome
+ * (write and client timeouts, broken connections) are retried only for idempotent writes.
+ * The retries are delayed on the Reactor timer, so no thread is blocked while waiting.
+ */
+class WriteRetryPolicy {
+
+	private final int maxAttempts;
+
+	private final long initialInterval;
+
+	private final double multiplier;
+
+	private final long maxInterval;
+
+	private final double jitter;
+
+	/**
+	 * @param maxAttempts the max number of attempts for a write, including the first one.
+	 * @param initialInterval the backoff before the first retry in milliseconds.
+	 * @param multiplier the backoff multiplier for each subsequent retry.
+	 * @param maxInterval the max backoff in milliseconds.
+	 * @param jitter the jitter factor from 0 to 1: the backoff is randomized within {@code +/- jitter * backoff}.
+	 */
+	WriteRetryPolicy(int maxAttempts, long initialInterval, double multiplier, long maxInterval, double jitter) {
+		Assert.isTrue(maxAttempts > 0, "'maxAttempts' must be greater than 0");
+		Assert.isTrue(multiplier >= 1, "'multiplier' must be greater than or equal to 1");
+		Assert.isTrue(jitter >= 0 && jitter <= 1, "'jitter' must be between 0 and 1");
+		this.maxAttempts = maxAttempts;
+		this.initialInterval = initialInterval;
+		this.multiplier = multiplier;
+		this.maxInterval = maxInterval;
+		this.jitter = jitter;
+	}
+
+	/**
+	 * Apply the retries to the write.
+	 * @param write the write to resubscribe to for each retry.
+	 * @param idempotent whether the write can be safely applied more than once.
+	 * @param <T> the write result type.
+	 * @return the write with retries.
+	 */
+	<T> Mono<T> apply(Mono<T> write, boolean idempotent) {
+		if (this.maxAttempts == 1) {
+			return write;
+		}
+		return write.retryWhen(errors ->
+				errors.zipWith(Flux.range(1, Integer.MAX_VALUE), (error, attempt) -> {
+					if (attempt >= this.maxAttempts || !isRetryable(error, idempotent)) {
+						throw Exceptions.propagate(error);
+					}
+					return attempt;
+				})
+						.concatMap(attempt -> Mono.delay(Duration.ofMillis(backoff(attempt)))));
+	}
+
+	long backoff(int attempt) {
+		double backoff = Math.min(this.maxInterval, this.initialInterval * Math.pow(this.multiplier, attempt - 1));
+		if (this.jitter > 0) {
+			backoff += backoff * this.jitter * (2 * ThreadLocalRandom.current().nextDouble() - 1);
+		}
+		return Math.max(0, Math.min(this.maxInterval, (long) backoff));
+	}
+
+	/**
+	 * Check if the write failed with the error can be retried.
+	 * @param error the write error.
+	 * @param idempotent whether the write can be safely applied more than once.
+	 * @return true if the write can be retried.
+	 */
+	static boolean isRetryable(Throwable error, boolean idempotent) {
+		for (Throwable current = error; current != null; current = current.getCause()) {
+			if (current instanceof BusyPoolException
+					|| current instanceof OverloadedException
+					|| current instanceof UnavailableException) {
+
+				return true;
+			}
+			if (current instanceof WriteTimeoutException
+					|| current instanceof OperationTimedOutException
+					|| current instanceof ConnectionException) {
+
+				return idempotent;
+			}
+			if (current instanceof NoHostAvailableException) {
+				for (Throwable hostError : ((NoHostAvailableException) current).getErrors().values()) {
+					if (!isRetryable(hostError, idempotent)) {
+						return false;
+					}
+				}
+				return true;
+			}
+			if (current.getCause() == current) {
+				break;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Check if the ingest query can be safely applied more than once with the same values
+	 * by its parsed form alone: the increments of the columns with bind markers are taken as
+	 * non-idempotent, since they may be counter or list columns.
+	 * @param query the ingest query.
+	 * @return true if the query is idempotent; false for the queries which cannot be parsed.
+	 * @see #isIdempotentQuery(IngestQuery, Function)
+	 */
+	static boolean isIdempotentQuery(String query) {
+		try {
+			return isIdempotentQuery(IngestQuery.parse(query), column -> null);
+		}
+		catch (IllegalArgumentException ex) {
+			return false;
+		}
+	}
+
+	/**
+	 * Check if the ingest query can be safely applied more than once with the same values:
+	 * no lightweight transactions, {@code now()}/{@code uuid()} calls, counter updates or list appends
+	 * and prepends. The counter and list columns are recognized by their types, when known,
+	 * or by the collection literals of the assignments otherwise.
+	 * @param query the parsed ingest query.
+	 * @param columnTypes the types of the table columns by the bound column name; null for unknown ones.
+	 * @return true if the query is idempotent.
+	 */
+	static boolean isIdempotentQuery(IngestQuery query, Function<String, DataType> columnTypes) {
+		if (query.isConditional() || query.hasUniqueValueFunctions()) {
+			return false;
+		}
+		for (IngestQuery.Assignment assignment : query.getAssignments()) {
+			if (!isIdempotent(assignment, columnTypes.apply(assignment.getBoundColumn()))) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private static boolean isIdempotent(IngestQuery.Assignment assignment, DataType type) {
+		IngestQuery.Operation operation = assignment.getOperation();
+		if (operation == IngestQuery.Operation.SET) {
+			return true;
+		}
+		else if (operation == IngestQuery.Operation.PREPEND) {
+			return false;
+		}
+		else if (type != null) {
+			return type.getName() != DataType.Name.COUNTER
+					&& (type.getName() != DataType.Name.LIST || operation == IngestQuery.Operation.REMOVE);
+		}
+		IngestQuery.TermType termType = assignment.getTermType();
+		return termType == IngestQuery.TermType.SET_OR_MAP_LITERAL
+				|| (termType == IngestQuery.TermType.LIST_LITERAL && operation == IngestQuery.Operation.REMOVE);
+	}
+
+}
@@ -0,0 +1,91 @@
+/*
+ * Copyright 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.cloud.stream.app.cassandra.query;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+import java.util.Arrays;
+
+import org.junit.Test;
+
+public class IngestQueryTests {
+
+	@Test
+	public void testInsertWithQuotedIdentifiersAndOptions() {
+		IngestQuery query = IngestQuery.parse(
+				"INSERT INTO ks.\"Book\" (\"ISBN\", title, added, pages) VALUES (:id, 'a?, b', now(), ?) "
+						+ "IF NOT EXISTS USING TTL ? AND TIMESTAMP :ts;");
+
+		assertThat(query.getTable(), equalTo("ks.\"Book\""));
+		assertThat(query.getParameterNames(), equalTo(Arrays.asList("id", "pages", "ttl", "ts")));
+		assertThat(query.getBoundColumns(),
+				equalTo(Arrays.asList("\"ISBN\"", "pages", IngestQuery.TTL_COLUMN, IngestQuery.TIMESTAMP_COLUMN)));
+	}
+
+	@Test
+	public void testUpdateWithConditions() {
+		IngestQuery query = IngestQuery.parse(
+				"update stats using ttl 100 set hits = hits + ?, tags = ? + tags, note = 'x' "
+						+ "where id = :id AND day = ? -- daily stats\n if version = ?");
+
+		assertThat(query.getParameterNames(), equalTo(Arrays.asList("hits", "tags", "id", "day", "version")));
+		assertThat(query.getKeyPositions(), equalTo(new int[] { 2, 3 }));
+		assertThat(query.isConditional(), equalTo(true));
+		assertThat(query.getAssignments().toString(),
+				equalTo("[hits ADD BIND_MARKER, tags PREPEND BIND_MARKER, note SET OTHER]"));
+	}
+
+	@Test
+	public void testCollectionLiteralAssignmentsAndFunctions() {
+		IngestQuery query = IngestQuery.parse(
+				"update book set \"Tags\" = \"Tags\" - {'a'}, authors = ['a'] + authors, notes['k'] = 'v' "
+						+ "where isbn = ?");
+
+		assertThat(query.isConditional(), equalTo(false));
+		assertThat(query.hasUniqueValueFunctions(), equalTo(false));
+		assertThat(query.getAssignments().toString(),
+				equalTo("[\"Tags\" REMOVE SET_OR_MAP_LITERAL, authors PREPEND LIST_LITERAL]"));
+		assertThat(IngestQuery.parse("insert into event (id, ts) values (?, now())").hasUniqueValueFunctions(),
+				equalTo(true));
+	}
+
+	@Test
+	public void testTtlMarkerVariants() {
+		IngestQuery insert = IngestQuery.parse("insert into book (isbn, title) values (?, ?) using timestamp ?;")
+				.withTtlMarker();
+		assertThat(insert.getQuery(),
+				equalTo("insert into book (isbn, title) values (?, ?) using timestamp ? AND TTL ?;"));
+		assertThat(insert.getTtlPosition(), equalTo(3));
+
+		IngestQuery update = IngestQuery.parse("update book set title = ? where isbn = ?").withTtlMarker();
+		assertThat(update.getQuery(), equalTo("update book USING TTL ? set title = ? where isbn = ?"));
+		assertThat(update.getTtlPosition(), equalTo(0));
+		assertThat(update.getKeyPositions(), equalTo(new int[] { 2 }));
+	}
+
+	@Test(expected = IllegalStateException.class)
+	public void testTtlMarkerVariantWithTtlIsRejected() {
+		IngestQuery.parse("insert into book (isbn) values (?) using ttl 100").withTtlMarker();
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testNestedBindMarkerIsRejected() {
+		IngestQuery.parse("insert into book (isbn, tags) values (?, {?})");
+	}
+
+}
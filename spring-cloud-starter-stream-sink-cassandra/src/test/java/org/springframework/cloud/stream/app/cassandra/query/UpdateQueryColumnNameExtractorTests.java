@@ -0,0 +1,46 @@
+/*
+ * Copyright 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.springframework.cloud.stream.app.cassandra.query;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+import java.util.Arrays;
+
+import org.junit.Test;
+
+public class UpdateQueryColumnNameExtractorTests {
+
+	private static final String QUERY =
+			"update book set inStock = :inStock, author = ? where isbn = :isbn AND year = :year";
+
+	@Test
+	public void testColumnsWithCompositeKey() {
+		UpdateQueryColumnNameExtractor extractor = new UpdateQueryColumnNameExtractor();
+		assertThat(extractor.extract(QUERY), equalTo(Arrays.asList("inStock", "author", "isbn", "year")));
+		assertThat(extractor.extractKeyColumns(QUERY), equalTo(Arrays.asList("isbn", "year")));
+	}
+
+	@Test
+	public void testCounterIncrements() {
+		String query = "update stats set hits = hits + ?, errors = errors - :errors, tags = ? + tags where id = ?";
+		assertThat(new UpdateQueryColumnNameExtractor().extract(query),
+				equalTo(Arrays.asList("hits", "errors", "tags", "id")));
+	}
+
+}
@@ -0,0 +1,78 @@
+/*
+ * Copyright 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.cloud.stream.app.cassandra.sink;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+import org.springframework.dao.QueryTimeoutException;
+
+import com.datastax.driver.core.ConsistencyLevel;
+import com.datastax.driver.core.WriteType;
+import com.datastax.driver.core.exceptions.WriteTimeoutException;
+
+public class AdaptiveRateLimiterTests {
+
+	@Test
+	public void testRateIsHalvedOnOverloadAndRecoversAdditively() {
+		AdaptiveRateLimiter rateLimiter = new AdaptiveRateLimiter(1000, 10, 0);
+		rateLimiter.onWriteFailure(1, 0, new QueryTimeoutException("timeout",
+				new WriteTimeoutException(ConsistencyLevel.ONE, WriteType.SIMPLE, 0, 1)));
+		assertThat(rateLimiter.getRate(), equalTo(500.0));
+
+		// the same overload episode
+		rateLimiter.onWriteFailure(1, 0, new QueryTimeoutException("timeout",
+				new WriteTimeoutException(ConsistencyLevel.ONE, WriteType.SIMPLE, 0, 1)));
+		assertThat(rateLimiter.getRate(), equalTo(500.0));
+
+		rateLimiter.onWriteFailure(1, 0, new IllegalStateException("not an overload"));
+		assertThat(rateLimiter.getRate(), equalTo(500.0));
+
+		// a second worth of writes at the current rate adds a hundredth of the max rate
+		for (int i = 0; i < 500; i++) {
+			rateLimiter.onWriteSuccess(1, 0);
+		}
+		assertThat(Math.round(rateLimiter.getRate()), equalTo(510L));
+	}
+
+	@Test
+	public void testRateIsLoweredOnHighP99Latency() {
+		AdaptiveRateLimiter rateLimiter = new AdaptiveRateLimiter(1000, 10, 100);
+		for (int i = 0; i < 126; i++) {
+			rateLimiter.onWriteSuccess(1, TimeUnit.MILLISECONDS.toNanos(10));
+		}
+		rateLimiter.onWriteSuccess(1, TimeUnit.MILLISECONDS.toNanos(500));
+		assertThat(rateLimiter.getRate(), equalTo(1000.0));
+		rateLimiter.onWriteSuccess(1, TimeUnit.MILLISECONDS.toNanos(500));
+		assertThat(rateLimiter.getRate(), equalTo(500.0));
+	}
+
+	@Test
+	public void testAcquirePacesToRate() {
+		AdaptiveRateLimiter rateLimiter = new AdaptiveRateLimiter(100, 10, 0);
+		long start = System.nanoTime();
+		for (int i = 0; i < 11; i++) {
+			rateLimiter.acquire(1);
+		}
+		assertThat(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(90), equalTo(true));
+	}
+
+}
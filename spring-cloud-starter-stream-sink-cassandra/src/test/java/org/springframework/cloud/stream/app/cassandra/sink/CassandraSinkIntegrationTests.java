@@ -202,6 +202,63 @@ public abstract class CassandraSinkIntegrationTests {
 
 	}
 
+	@TestPropertySource(properties = {
+			"cassandra.cluster.init-script=init-db.cql",
+			"cassandra.ingest-query=" +
+					"insert into book (isbn, title, author, pages, saleDate, inStock) values (?, ?, ?, ?, ?, ?)",
+			"cassandra.ingest-window-size=3",
+			"cassandra.ingest-window-timeout=50",
+			"cassandra.dead-letter-destination=cassandra-errors" })
+	public static class CassandraSinkIngestWindowTests extends CassandraSinkIntegrationTests {
+
+		@Test
+		public void testIngestWindow() throws Exception {
+			ObjectMapper objectMapper = new ObjectMapper();
+			objectMapper.configure(SerializationFeature.WRITE_DATES_AS_TIMESTAMPS, false);
+			Jackson2JsonObjectMapper mapper = new Jackson2JsonObjectMapper(objectMapper);
+
+			for (Book book : getBookList(5)) {
+				this.sink.input().send(new GenericMessage<>(mapper.toJson(book)));
+			}
+
+			final Select select = QueryBuilder.select().all().from("book");
+
+			assertThat(5, eventually(equalsResult(() -> cassandraTemplate.select(select, Book.class).size())));
+
+			this.cassandraTemplate.truncate(Book.class);
+		}
+
+	}
+
+	@TestPropertySource(properties = {
+			"cassandra.cluster.init-script=init-db.cql",
+			"cassandra.ingest-query=" +
+					"insert into book (isbn, title, author, pages, saleDate, inStock) values (?, ?, ?, ?, ?, ?)",
+			"cassandra.ingest-batch-by-partition=true",
+			"cassandra.ingest-batch-size=2" })
+	public static class CassandraSinkIngestPartitionBatchTests extends CassandraSinkIntegrationTests {
+
+		@Test
+		public void testIngestPartitionBatches() throws Exception {
+			List<Book> books = getBookList(5);
+			books.get(1).setIsbn(books.get(0).getIsbn());
+			books.get(2).setIsbn(books.get(0).getIsbn());
+
+			ObjectMapper objectMapper = new ObjectMapper();
+			objectMapper.configure(SerializationFeature.WRITE_DATES_AS_TIMESTAMPS, false);
+			Jackson2JsonObjectMapper mapper = new Jackson2JsonObjectMapper(objectMapper);
+
+			this.sink.input().send(new GenericMessage<>(mapper.toJson(books)));
+
+			final Select select = QueryBuilder.select().all().from("book");
+
+			assertThat(3, eventually(equalsResult(() -> cassandraTemplate.select(select, Book.class).size())));
+
+			this.cassandraTemplate.truncate(Book.class);
+		}
+
+	}
+
 	private static List<Book> getBookList(int numBooks) {
 
 		List<Book> books = new ArrayList<>();
@@ -0,0 +1,264 @@
+/*
+ * Copyright 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.cloud.stream.app.cassandra.sink;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.notNullValue;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.BDDMockito.given;
+import static org.mockito.Mockito.mock;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Test;
+import org.mockito.Answers;
+
+import org.springframework.data.cassandra.ReactiveResultSet;
+import org.springframework.data.cassandra.ReactiveSession;
+import org.springframework.data.cassandra.core.ReactiveCassandraOperations;
+import org.springframework.data.cassandra.core.cql.ReactiveCqlOperations;
+import org.springframework.data.cassandra.core.cql.ReactiveSessionCallback;
+import org.springframework.integration.channel.QueueChannel;
+import org.springframework.integration.support.MessageBuilder;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.MessageHandlingException;
+import org.springframework.messaging.MessageHeaders;
+import org.springframework.messaging.support.GenericMessage;
+
+import com.datastax.driver.core.BatchStatement;
+import com.datastax.driver.core.BoundStatement;
+import com.datastax.driver.core.CodecRegistry;
+import com.datastax.driver.core.ColumnDefinitions;
+import com.datastax.driver.core.DataType;
+import com.datastax.driver.core.PreparedStatement;
+import com.datastax.driver.core.Statement;
+import com.datastax.driver.core.exceptions.InvalidQueryException;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+public class CassandraSinkMessageHandlerTests {
+
+	private static final String QUERY = "insert into book_by_author (author, isbn) values (?, ?)";
+
+	private final Map<Statement, Object> boundIsbns = new IdentityHashMap<>();
+
+	private final List<Object> writtenIsbns = new ArrayList<>();
+
+	private final QueueChannel deadLetterChannel = new QueueChannel();
+
+	private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+
+	@Test
+	public void testBadRowOfPartitionBatchIsIsolated() {
+		CassandraSinkMessageHandler handler = handler();
+		handler.setPartitionBatching(() -> new int[] { 0 }, 10, 0);
+
+		List<List<?>> rows = Arrays.asList(Arrays.asList("a", "1"), Arrays.asList("a", "2"),
+				Arrays.asList("a", "3"), Arrays.asList("a", "4"));
+		handler.ingest(rows, new MessageHeaders(Collections.singletonMap("source", "test"))).block();
+
+		assertThat(this.writtenIsbns, equalTo(Arrays.asList("1", "2", "4")));
+		Message<?> deadLetter = this.deadLetterChannel.receive(0);
+		assertThat(deadLetter.getPayload(), equalTo(Collections.singletonList(Arrays.asList("a", "3"))));
+		assertThat(deadLetter.getHeaders().get("source"), equalTo("test"));
+		assertThat(deadLetter.getHeaders().get(CassandraSinkMessageHandler.EXCEPTION_MESSAGE_HEADER),
+				equalTo("bad row"));
+		assertThat(deadLetter.getHeaders().get(CassandraSinkMessageHandler.EXCEPTION_STACKTRACE_HEADER),
+				notNullValue());
+		assertThat(this.deadLetterChannel.receive(0), nullValue());
+		assertThat(this.meterRegistry.get("cassandra.sink.rows").counter().count(), equalTo(3.0));
+		assertThat(this.meterRegistry.get("cassandra.sink.dead.letters").counter().count(), equalTo(1.0));
+	}
+
+	@Test
+	public void testDeadLettersCarryNoSentinelValues() {
+		CassandraSinkMessageHandler handler = handler();
+
+		Object invalid = new ColumnConverters.InvalidValue("forty two", new IllegalArgumentException("Cannot convert"));
+		List<List<?>> rows = Arrays.asList(Arrays.asList(JsonRowReader.UNSET, "3"), Arrays.asList(invalid, "5"));
+		handler.ingest(rows, null).block();
+
+		assertThat(this.deadLetterChannel.receive(0).getPayload(),
+				equalTo(Collections.singletonList(Arrays.asList(null, "3"))));
+		assertThat(this.deadLetterChannel.receive(0).getPayload(),
+				equalTo(Collections.singletonList(Arrays.asList("forty two", "5"))));
+	}
+
+	@Test
+	public void testRowsAreDeduplicatedByContent() {
+		CassandraSinkMessageHandler handler = handler();
+		Deduplicator deduplicator = new Deduplicator(100, 60000);
+		handler.setDeduplicator(deduplicator, null, () -> new int[] { 1 });
+
+		handler.write(new GenericMessage<>(Collections.singletonList(Arrays.asList("a", "1")))).block();
+		handler.write(new GenericMessage<>(Collections.singletonList(Arrays.asList("b", "1")))).block();
+		handler.write(new GenericMessage<>(Collections.singletonList(Arrays.asList("b", "1")))).block();
+		// the rows with the same hash code
+		handler.write(new GenericMessage<>(Collections.singletonList(Arrays.asList("Aa", "2")))).block();
+		handler.write(new GenericMessage<>(Collections.singletonList(Arrays.asList("BB", "2")))).block();
+
+		assertThat(this.writtenIsbns, equalTo(Arrays.asList("1", "1", "2", "2")));
+	}
+
+	@Test
+	public void testWindowKeysAreRecordedAfterWrite() {
+		CassandraSinkMessageHandler handler = handler();
+		Deduplicator deduplicator = new Deduplicator(100, 60000);
+		handler.setDeduplicator(deduplicator, "key", null);
+
+		Message<?> window = MessageBuilder.withPayload(Collections.singletonList(Arrays.asList("a", "1")))
+				.setHeader(IngestWindowHandler.DEDUP_KEYS_HEADER, Collections.singleton("k1"))
+				.build();
+		Mono<Void> write = handler.write(window);
+		assertThat(deduplicator.isDuplicate("k1"), equalTo(false));
+		write.block();
+		assertThat(deduplicator.isDuplicate("k1"), equalTo(true));
+	}
+
+	@Test
+	public void testFailedReactiveWindowIsDeadLetteredPerMessage() {
+		CassandraSinkMessageHandler handler = handler();
+		Deduplicator deduplicator = new Deduplicator(100, 60000);
+		handler.setDeduplicator(deduplicator, "key", null);
+		ReactiveWriter reactiveWriter = new ReactiveWriter(handler::write, 1, 10);
+		reactiveWriter.setWindow(2, 60_000);
+		reactiveWriter.start();
+
+		reactiveWriter.handleMessage(MessageBuilder.withPayload(Collections.singletonList(Arrays.asList("a", "1")))
+				.setHeader("key", "k1")
+				.setHeader("source", "first")
+				.build());
+		reactiveWriter.handleMessage(MessageBuilder.withPayload(Collections.singletonList(Arrays.asList("b", "3")))
+				.setHeader("key", "k2")
+				.setHeader("source", "second")
+				.build());
+		reactiveWriter.stop();
+
+		assertThat(this.writtenIsbns, equalTo(Collections.singletonList("1")));
+		Message<?> deadLetter = this.deadLetterChannel.receive(0);
+		assertThat(deadLetter.getPayload(), equalTo(Collections.singletonList(Arrays.asList("b", "3"))));
+		assertThat(deadLetter.getHeaders().get("source"), equalTo("second"));
+		assertThat(deadLetter.getHeaders().get("key"), equalTo("k2"));
+		assertThat(deadLetter.getHeaders().containsKey(ReactiveWriter.WINDOW_MESSAGES_HEADER), equalTo(false));
+		assertThat(this.deadLetterChannel.receive(0), nullValue());
+		// the dead-lettered rows are handled, as for a single message
+		assertThat(deduplicator.isDuplicate("k1"), equalTo(true));
+		assertThat(deduplicator.isDuplicate("k2"), equalTo(true));
+	}
+
+	@Test
+	public void testReactiveWindowKeysAreRecordedAfterWrite() {
+		CassandraSinkMessageHandler handler = handler();
+		Deduplicator deduplicator = new Deduplicator(100, 60000);
+		handler.setDeduplicator(deduplicator, "key", null);
+
+		Message<?> first = MessageBuilder.withPayload(Collections.singletonList(Arrays.asList("a", "1")))
+				.setHeader("key", "k1")
+				.build();
+		Message<?> second = MessageBuilder.withPayload(Collections.singletonList(Arrays.asList("b", "2")))
+				.setHeader(IngestWindowHandler.DEDUP_KEYS_HEADER, Collections.singleton("k2"))
+				.build();
+		handler.write(ReactiveWriter.window(Arrays.asList(first, second))).block();
+		assertThat(deduplicator.isDuplicate("k1"), equalTo(true));
+		assertThat(deduplicator.isDuplicate("k2"), equalTo(true));
+
+		handler.write(ReactiveWriter.window(Arrays.asList(first, second))).block();
+		assertThat(this.writtenIsbns, equalTo(Arrays.asList("1", "2", "2")));
+	}
+
+	@Test(expected = MessageHandlingException.class)
+	public void testReactiveWriteRejectsUnsupportedPayload() {
+		handler().write(new GenericMessage<>(Collections.singleton("entity"))).block();
+	}
+
+	@SuppressWarnings("unchecked")
+	private CassandraSinkMessageHandler handler() {
+		ReactiveSession session = mock(ReactiveSession.class);
+		PreparedStatement preparedStatement = preparedStatement();
+		given(session.prepare(anyString())).willReturn(Mono.just(preparedStatement));
+		given(session.execute(any(Statement.class))).willAnswer(invocation -> execute(invocation.getArgument(0)));
+		ReactiveCqlOperations cqlOperations = mock(ReactiveCqlOperations.class);
+		given(cqlOperations.execute(any(ReactiveSessionCallback.class))).willAnswer(invocation ->
+				Flux.from(((ReactiveSessionCallback<?>) invocation.getArgument(0)).doInSession(session)));
+		ReactiveCassandraOperations cassandraOperations = mock(ReactiveCassandraOperations.class);
+		given(cassandraOperations.getReactiveCqlOperations()).willReturn(cqlOperations);
+
+		CassandraSinkMessageHandler handler = new CassandraSinkMessageHandler(cassandraOperations);
+		handler.setIngestQuery(QUERY);
+		handler.setErrorIsolation(true);
+		handler.setDeadLetterChannel(this.deadLetterChannel);
+		handler.setMetrics(new SinkMetrics(this.meterRegistry, "test", "INSERT"));
+		return handler;
+	}
+
+	private PreparedStatement preparedStatement() {
+		ColumnDefinitions variables = mock(ColumnDefinitions.class);
+		given(variables.size()).willReturn(2);
+		given(variables.getType(anyInt())).willReturn(DataType.text());
+		PreparedStatement preparedStatement = mock(PreparedStatement.class);
+		given(preparedStatement.getVariables()).willReturn(variables);
+		given(preparedStatement.getCodecRegistry()).willReturn(CodecRegistry.DEFAULT_INSTANCE);
+		given(preparedStatement.bind()).willAnswer(invocation -> boundStatement());
+		return preparedStatement;
+	}
+
+	/*
+	 * The bound statements remember their isbn values to tell the rows of the executed statements.
+	 */
+	private BoundStatement boundStatement() {
+		return mock(BoundStatement.class, invocation -> {
+			if ("set".equals(invocation.getMethod().getName())
+					&& Integer.valueOf(1).equals(invocation.getArgument(0))) {
+
+				this.boundIsbns.put((Statement) invocation.getMock(), invocation.getArgument(1));
+			}
+			return invocation.getMethod().getReturnType() == BoundStatement.class
+					? invocation.getMock()
+					: Answers.RETURNS_DEFAULTS.answer(invocation);
+		});
+	}
+
+	/*
+	 * The stand-in for the Cassandra session which fails any statement with the isbn '3'.
+	 */
+	private Mono<ReactiveResultSet> execute(Statement statement) {
+		Collection<Statement> statements = statement instanceof BatchStatement
+				? ((BatchStatement) statement).getStatements()
+				: Collections.singletonList(statement);
+		List<Object> isbns = new ArrayList<>();
+		for (Statement boundStatement : statements) {
+			isbns.add(this.boundIsbns.get(boundStatement));
+		}
+		if (isbns.contains("3")) {
+			return Mono.error(new InvalidQueryException("bad row"));
+		}
+		this.writtenIsbns.addAll(isbns);
+		return Mono.just(mock(ReactiveResultSet.class));
+	}
+
+}
@@ -77,6 +77,15 @@ public class CassandraSinkPropertiesTests {
 		assertThat(properties.getIngestQuery(), equalTo(query));
 	}
 
+	@Test
+	public void ingestChunkSizeCanBeCustomized() {
+		TestPropertyValues.of("cassandra.ingest-chunk-size:" + 500).applyTo(this.context);
+		this.context.register(Conf.class);
+		this.context.refresh();
+		CassandraSinkProperties properties = this.context.getBean(CassandraSinkProperties.class);
+		assertThat(properties.getIngestChunkSize(), equalTo(500));
+	}
+
 	@Test
 	public void statementExpressionCanBeCustomized() {
 		String queryDsl = "Select(FOO.BAR).From(FOO)";
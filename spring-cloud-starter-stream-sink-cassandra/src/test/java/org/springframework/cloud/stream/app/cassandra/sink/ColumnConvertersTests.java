@@ -0,0 +1,163 @@
+/*
+ * Copyright 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.cloud.stream.app.cassandra.sink;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.instanceOf;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.junit.Assert.fail;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.Map;
+import java.util.UUID;
+
+import org.junit.Test;
+
+import com.datastax.driver.core.CodecRegistry;
+import com.datastax.driver.core.DataType;
+import com.datastax.driver.core.LocalDate;
+
+public class ColumnConvertersTests {
+
+	private final CodecRegistry codecRegistry = CodecRegistry.DEFAULT_INSTANCE;
+
+	private final ColumnConverters columnConverters = new ColumnConverters(new DateTimeParser("dd/MM/yyyy HH:mm"));
+
+	@Test
+	public void testUuidLookingTextIsNotConverted() {
+		String uuid = UUID.randomUUID().toString();
+		assertThat(this.columnConverters.forType(DataType.text(), this.codecRegistry).convert(uuid), equalTo(uuid));
+		assertThat(this.columnConverters.forType(DataType.uuid(), this.codecRegistry).convert(uuid),
+				equalTo(UUID.fromString(uuid)));
+	}
+
+	@Test
+	public void testScalarConversions() {
+		assertThat(this.columnConverters.forType(DataType.bigint(), this.codecRegistry).convert(10), equalTo(10L));
+		assertThat(this.columnConverters.forType(DataType.cint(), this.codecRegistry).convert("42"), equalTo(42));
+		assertThat(this.columnConverters.forType(DataType.decimal(), this.codecRegistry).convert(1.5),
+				equalTo(BigDecimal.valueOf(1.5)));
+		assertThat(this.columnConverters.forType(DataType.timestamp(), this.codecRegistry).convert(1000L),
+				equalTo(new Date(1000L)));
+		assertThat(this.columnConverters.forType(DataType.timestamp(), this.codecRegistry)
+				.convert("1970-01-01T00:00:01.000Z"), equalTo(new Date(1000L)));
+		assertThat(this.columnConverters.forType(DataType.timestamp(), this.codecRegistry)
+				.convert("1970-01-01T02:00:01+02:00"), equalTo(new Date(1000L)));
+		assertThat(this.columnConverters.forType(DataType.timestamp(), this.codecRegistry)
+				.convert("01/01/1970 00:01"), equalTo(new Date(60_000L)));
+		assertThat(this.columnConverters.forType(DataType.date(), this.codecRegistry).convert("2019-05-17"),
+				equalTo(LocalDate.fromYearMonthDay(2019, 5, 17)));
+		assertThat(this.columnConverters.forType(DataType.blob(), this.codecRegistry).convert("AQI="),
+				equalTo(ByteBuffer.wrap(new byte[] { 1, 2 })));
+	}
+
+	@Test
+	public void testIntegralConversionsAreExact() {
+		assertThat(this.columnConverters.forType(DataType.tinyint(), this.codecRegistry).convert(100L),
+				equalTo((byte) 100));
+		assertThat(this.columnConverters.forType(DataType.cint(), this.codecRegistry).convert(3.0), equalTo(3));
+		assertThat(this.columnConverters.forType(DataType.varint(), this.codecRegistry)
+				.convert(new BigInteger("18446744073709551616")), equalTo(new BigInteger("18446744073709551616")));
+		assertThat(this.columnConverters.forType(DataType.varint(), this.codecRegistry).convert(1e20),
+				equalTo(new BigInteger("100000000000000000000")));
+
+		assertNotConverted(DataType.tinyint(), 300);
+		assertNotConverted(DataType.smallint(), 40000L);
+		assertNotConverted(DataType.cint(), 3.7);
+		assertNotConverted(DataType.cint(), 1L << 40);
+		assertNotConverted(DataType.bigint(), new BigInteger("18446744073709551616"));
+		assertNotConverted(DataType.bigint(), new BigDecimal("1.5"));
+		assertNotConverted(DataType.varint(), 2.5);
+	}
+
+	@Test
+	public void testCollectionConversions() {
+		Object list = this.columnConverters.forType(DataType.list(DataType.bigint()), this.codecRegistry)
+				.convert(Arrays.asList(1, 2));
+		assertThat(list, equalTo(Arrays.asList(1L, 2L)));
+
+		Object map = this.columnConverters.forType(DataType.map(DataType.cint(), DataType.uuid()), this.codecRegistry)
+				.convert(Collections.singletonMap("1", "a0d0f5b2-6ef0-11e9-a923-1681be663d3e"));
+		assertThat(map, instanceOf(Map.class));
+		assertThat(((Map<?, ?>) map).get(1),
+				equalTo(UUID.fromString("a0d0f5b2-6ef0-11e9-a923-1681be663d3e")));
+	}
+
+	@Test
+	public void testWriteTimestampConversions() {
+		ColumnConverter converter = this.columnConverters.writeTimestamp();
+		assertThat(converter.convert(1556668800123L), equalTo(1556668800123000L));
+		assertThat(converter.convert("1556668800123"), equalTo(1556668800123000L));
+		assertThat(converter.convert("2019-05-01T00:00:00.5Z"), equalTo(1556668800500000L));
+		assertThat(converter.convert(new Date(1556668800000L)), equalTo(1556668800000000L));
+	}
+
+	@Test
+	public void testPatternWithoutDateIsNotAnUnexpectedError() {
+		ColumnConverter converter = new ColumnConverters(new DateTimeParser("HH:mm"))
+				.forType(DataType.timestamp(), this.codecRegistry);
+		try {
+			converter.convert("10:15");
+			fail("IllegalArgumentException expected");
+		}
+		catch (IllegalArgumentException ex) {
+			assertThat(ex.getCause().getMessage(), equalTo("Cannot parse date/time value: 10:15"));
+		}
+		assertThat(ColumnConverters.lenient(new ColumnConverter[] { converter })[0].convert("10:15"),
+				instanceOf(ColumnConverters.InvalidValue.class));
+	}
+
+	@Test
+	public void testDigitOnlyPatternPrecedesEpochMillis() {
+		ColumnConverter converter = new ColumnConverters(new DateTimeParser("yyyyMMdd"))
+				.forType(DataType.timestamp(), this.codecRegistry);
+		assertThat(converter.convert("20190101"), equalTo(new Date(1546300800000L)));
+		assertThat(converter.convert("1546300800000"), equalTo(new Date(1546300800000L)));
+	}
+
+	@Test
+	public void testLenientConversionDefersTheErrorToTheRow() {
+		ColumnConverter[] converters = ColumnConverters.lenient(new ColumnConverter[] {
+				this.columnConverters.forType(DataType.cint(), this.codecRegistry) });
+		assertThat(converters[0].convert("42"), equalTo(42));
+		Object invalid = converters[0].convert("forty two");
+		assertThat(invalid, instanceOf(ColumnConverters.InvalidValue.class));
+		try {
+			ColumnConverters.InvalidValue.check(Arrays.asList("id", invalid));
+			fail("IllegalArgumentException expected");
+		}
+		catch (IllegalArgumentException ex) {
+			assertThat(ex.getMessage(), equalTo("Cannot convert value [forty two] to the column type"));
+		}
+	}
+
+	private void assertNotConverted(DataType type, Object value) {
+		try {
+			this.columnConverters.forType(type, this.codecRegistry).convert(value);
+			fail("IllegalArgumentException expected for " + value + " as " + type);
+		}
+		catch (IllegalArgumentException ex) {
+			assertThat(ex.getMessage(), equalTo("Cannot convert value [" + value + "] to the column type"));
+		}
+	}
+
+}
@@ -0,0 +1,73 @@
+/*
+ * Copyright 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.springframework.cloud.stream.app.cassandra.sink;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+
+import org.springframework.integration.channel.QueueChannel;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.support.GenericMessage;
+
+public class CounterAggregatorTests {
+
+	@Test
+	public void testIncrementsAreSummedPerKey() {
+		CounterAggregator counterAggregator = new CounterAggregator(new int[] { 0, 1 }, new int[] { 2 }, 1000, 100);
+		QueueChannel outputChannel = new QueueChannel();
+		counterAggregator.setOutputChannel(outputChannel);
+
+		counterAggregator.handleMessage(new GenericMessage<>(Arrays.asList(
+				Arrays.asList(1L, 0L, "a"),
+				Arrays.asList(2L, 1L, "b"),
+				Arrays.asList(3L, null, "a"))));
+		counterAggregator.handleMessage(new GenericMessage<>(Arrays.asList(Arrays.<Object>asList(4L, 5L, "b"))));
+		assertThat(outputChannel.receive(0), nullValue());
+
+		counterAggregator.flush();
+
+		Message<?> message = outputChannel.receive(0);
+		@SuppressWarnings("unchecked")
+		List<List<Object>> rows = (List<List<Object>>) message.getPayload();
+		assertThat(rows.size(), equalTo(2));
+		assertThat(rows.contains(Arrays.<Object>asList(4L, 0L, "a")), equalTo(true));
+		assertThat(rows.contains(Arrays.<Object>asList(6L, 6L, "b")), equalTo(true));
+
+		counterAggregator.flush();
+		assertThat(outputChannel.receive(0), nullValue());
+	}
+
+	@Test
+	public void testDeltasAreEmittedAtMaxKeys() {
+		CounterAggregator counterAggregator = new CounterAggregator(new int[] { 0 }, new int[] { 1 }, 1000, 2);
+		QueueChannel outputChannel = new QueueChannel();
+		counterAggregator.setOutputChannel(outputChannel);
+
+		counterAggregator.handleMessage(new GenericMessage<>(Arrays.asList(Arrays.asList(1L, "a"))));
+		assertThat(outputChannel.receive(0), nullValue());
+		counterAggregator.handleMessage(new GenericMessage<>(Arrays.asList(Arrays.asList(1L, "b"))));
+		assertThat(((List<?>) outputChannel.receive(0).getPayload()).size(), equalTo(2));
+	}
+
+}
@@ -0,0 +1,65 @@
+/*
+ * Copyright 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.springframework.cloud.stream.app.cassandra.sink;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+import java.util.Arrays;
+
+import org.junit.Test;
+
+public class DeduplicatorTests {
+
+	@Test
+	public void testRecordedKeysAreDuplicates() {
+		Deduplicator deduplicator = new Deduplicator(10, 60_000);
+		assertThat(deduplicator.isDuplicate("a"), equalTo(false));
+		deduplicator.record("a");
+		deduplicator.record(Arrays.asList(1, "x"));
+		assertThat(deduplicator.isDuplicate("a"), equalTo(true));
+		assertThat(deduplicator.isDuplicate(Arrays.asList(1, "x")), equalTo(true));
+		assertThat(deduplicator.isDuplicate("b"), equalTo(false));
+		assertThat(deduplicator.getHits(), equalTo(2L));
+		assertThat(deduplicator.getMisses(), equalTo(2L));
+		assertThat(deduplicator.getHitRatio(), equalTo(0.5));
+	}
+
+	@Test
+	public void testOldestKeysAreEvictedAtMaxEntries() {
+		Deduplicator deduplicator = new Deduplicator(2, 60_000);
+		deduplicator.record("a");
+		deduplicator.record("b");
+		deduplicator.record("a");
+		deduplicator.record("c");
+		assertThat(deduplicator.getSize(), equalTo(2));
+		assertThat(deduplicator.isDuplicate("b"), equalTo(false));
+		assertThat(deduplicator.isDuplicate("a"), equalTo(true));
+		assertThat(deduplicator.isDuplicate("c"), equalTo(true));
+	}
+
+	@Test
+	public void testKeysExpireAfterWindow() throws InterruptedException {
+		Deduplicator deduplicator = new Deduplicator(10, 50);
+		deduplicator.record("a");
+		Thread.sleep(100);
+		assertThat(deduplicator.isDuplicate("a"), equalTo(false));
+		assertThat(deduplicator.getSize(), equalTo(0));
+	}
+
+}
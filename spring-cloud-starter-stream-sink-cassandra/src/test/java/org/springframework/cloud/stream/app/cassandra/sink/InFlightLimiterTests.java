@@ -0,0 +1,73 @@
+/*
+ * Copyright 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.cloud.stream.app.cassandra.sink;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+public class InFlightLimiterTests {
+
+	@Test
+	public void testAcquireBlocksUntilRelease() throws Exception {
+		InFlightLimiter inFlightLimiter = new InFlightLimiter(2, 0);
+		SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+		inFlightLimiter.bindTo(meterRegistry);
+
+		inFlightLimiter.acquire(10);
+		inFlightLimiter.acquire(10);
+		assertThat(meterRegistry.get("cassandra.sink.inflight.requests").gauge().value(), equalTo(2.0));
+		assertThat(meterRegistry.get("cassandra.sink.inflight.bytes").gauge().value(), equalTo(20.0));
+
+		CountDownLatch acquired = new CountDownLatch(1);
+		Thread thread = new Thread(() -> {
+			try {
+				inFlightLimiter.acquire(10);
+				acquired.countDown();
+			}
+			catch (InterruptedException ex) {
+				Thread.currentThread().interrupt();
+			}
+		});
+		thread.start();
+
+		assertThat(acquired.await(100, TimeUnit.MILLISECONDS), equalTo(false));
+		inFlightLimiter.release(10);
+		assertThat(acquired.await(10, TimeUnit.SECONDS), equalTo(true));
+		assertThat(inFlightLimiter.getInFlightRequests(), equalTo(2));
+		assertThat(meterRegistry.get("cassandra.sink.inflight.wait").timeGauge().value(TimeUnit.NANOSECONDS) > 0,
+				equalTo(true));
+	}
+
+	@Test
+	public void testOversizedWriteIsLetThroughAlone() throws Exception {
+		InFlightLimiter inFlightLimiter = new InFlightLimiter(0, 100);
+		inFlightLimiter.acquire(1000);
+		assertThat(inFlightLimiter.getInFlightBytes(), equalTo(1000L));
+		inFlightLimiter.release(1000);
+		inFlightLimiter.acquire(60);
+		inFlightLimiter.acquire(40);
+		assertThat(inFlightLimiter.getInFlightRequests(), equalTo(2));
+	}
+
+}
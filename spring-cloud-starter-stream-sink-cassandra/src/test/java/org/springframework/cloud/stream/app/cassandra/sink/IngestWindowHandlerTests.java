@@ -0,0 +1,105 @@
+/*
+ * Copyright 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.cloud.stream.app.cassandra.sink;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import org.springframework.integration.channel.QueueChannel;
+import org.springframework.integration.support.MessageBuilder;
+import org.springframework.messaging.Message;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskScheduler;
+
+public class IngestWindowHandlerTests {
+
+	private final ThreadPoolTaskScheduler taskScheduler = new ThreadPoolTaskScheduler();
+
+	private final QueueChannel outputChannel = new QueueChannel();
+
+	@Before
+	public void setUp() {
+		this.taskScheduler.initialize();
+	}
+
+	@After
+	public void tearDown() {
+		this.taskScheduler.shutdown();
+	}
+
+	@Test
+	public void testDedupKeysAreRecordedByDownstream() {
+		IngestWindowHandler ingestWindowHandler = ingestWindowHandler(2);
+		Deduplicator deduplicator = new Deduplicator(100, 60000);
+		ingestWindowHandler.setDeduplicator(deduplicator, "key");
+
+		ingestWindowHandler.handleMessage(message("k1", "a", "1"));
+		ingestWindowHandler.handleMessage(message("k1", "a", "1"));
+		assertThat(this.outputChannel.receive(0), nullValue());
+		ingestWindowHandler.handleMessage(message("k2", "a", "2"));
+
+		Message<?> window = this.outputChannel.receive(0);
+		assertThat(window.getPayload(), equalTo(Arrays.asList(Arrays.asList("a", "1"), Arrays.asList("a", "2"))));
+		assertThat(window.getHeaders().get(IngestWindowHandler.DEDUP_KEYS_HEADER),
+				equalTo(new HashSet<>(Arrays.asList("k1", "k2"))));
+		assertThat(deduplicator.isDuplicate("k1"), equalTo(false));
+	}
+
+	@Test
+	public void testLastValueWinsPerKeyInCoalescingWindow() {
+		IngestWindowHandler ingestWindowHandler = ingestWindowHandler(3);
+		ingestWindowHandler.setCoalescing(new int[] { 2 });
+
+		ingestWindowHandler.handleMessage(message("m1", "a1", "b1", "k1"));
+		ingestWindowHandler.handleMessage(message("m2", "a2", "b2", "k2"));
+		ingestWindowHandler.handleMessage(message("m3", "a3", JsonRowReader.UNSET, "k1"));
+		assertThat(this.outputChannel.receive(0), nullValue());
+		ingestWindowHandler.handleMessage(message("m4", "a4", "b4", "k3"));
+
+		@SuppressWarnings("unchecked")
+		List<TimestampedRow> rows = (List<TimestampedRow>) this.outputChannel.receive(0).getPayload();
+		assertThat(rows, equalTo(Arrays.asList(Arrays.asList("a3", "b1", "k1"), Arrays.asList("a2", "b2", "k2"),
+				Arrays.asList("a4", "b4", "k3"))));
+		// the coalesced row is written with the timestamp of its last update
+		assertThat(rows.get(0).getTimestamp() > rows.get(1).getTimestamp(), equalTo(true));
+		assertThat(rows.get(0).getTimestamp() < rows.get(2).getTimestamp(), equalTo(true));
+		assertThat(this.outputChannel.receive(0), nullValue());
+	}
+
+	private IngestWindowHandler ingestWindowHandler(int maxRows) {
+		IngestWindowHandler ingestWindowHandler = new IngestWindowHandler(maxRows, 0, 60000);
+		ingestWindowHandler.setTaskScheduler(this.taskScheduler);
+		ingestWindowHandler.setOutputChannel(this.outputChannel);
+		return ingestWindowHandler;
+	}
+
+	private static Message<?> message(String key, Object... row) {
+		return MessageBuilder.withPayload(Collections.singletonList(Arrays.asList(row)))
+				.setHeader("key", key)
+				.build();
+	}
+
+}
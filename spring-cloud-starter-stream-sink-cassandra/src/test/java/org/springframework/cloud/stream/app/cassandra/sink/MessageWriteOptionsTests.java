@@ -0,0 +1,97 @@
+/*
+ * Copyright 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.cloud.stream.app.cassandra.sink;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.sameInstance;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.junit.Assert.fail;
+
+import java.time.Instant;
+import java.util.Collections;
+import java.util.Date;
+
+import org.junit.Test;
+
+import org.springframework.integration.support.MessageBuilder;
+import org.springframework.messaging.MessageHeaders;
+
+import com.datastax.driver.core.ConsistencyLevel;
+
+public class MessageWriteOptionsTests {
+
+	private final MessageWriteOptions.Resolver resolver =
+			new MessageWriteOptions.Resolver("eventTime", "ttl", "consistency", new DateTimeParser());
+
+	@Test
+	public void testOptionsFromHeaders() {
+		MessageHeaders headers = MessageBuilder.withPayload("test")
+				.setHeader("eventTime", "2019-05-01T00:00:00Z")
+				.setHeader("ttl", "3600")
+				.setHeader("consistency", "local_quorum")
+				.build()
+				.getHeaders();
+		MessageWriteOptions options = this.resolver.resolve(headers);
+		assertThat(options.getTimestamp(), equalTo(1556668800000000L));
+		assertThat(options.getTtl(), equalTo(3600));
+		assertThat(options.getConsistencyLevel(), equalTo(ConsistencyLevel.LOCAL_QUORUM));
+	}
+
+	@Test
+	public void testEpochMillisEventTime() {
+		MessageWriteOptions options =
+				this.resolver.resolve(new MessageHeaders(Collections.singletonMap("eventTime", 1556668800123L)));
+		assertThat(options.getTimestamp(), equalTo(1556668800123000L));
+		assertThat(options.getTtl(), equalTo(-1));
+	}
+
+	@Test
+	public void testHeaderAndRowEventTimesHaveSameTimestamp() {
+		ColumnConverter rowTimestamp = new ColumnConverters(new DateTimeParser()).writeTimestamp();
+		Instant eventTime = Instant.parse("2019-05-01T00:00:00.123Z");
+		for (Object value : new Object[] { eventTime.toEpochMilli(), String.valueOf(eventTime.toEpochMilli()),
+				Date.from(eventTime), eventTime, eventTime.toString() }) {
+
+			long headerTimestamp =
+					this.resolver.resolve(new MessageHeaders(Collections.singletonMap("eventTime", value)))
+							.getTimestamp();
+			assertThat(headerTimestamp, equalTo(1556668800123000L));
+			assertThat(rowTimestamp.convert(value), equalTo(headerTimestamp));
+		}
+	}
+
+	@Test
+	public void testFractionalAndOutOfRangeTtlsAreRejected() {
+		assertThat(this.resolver.resolve(new MessageHeaders(Collections.singletonMap("ttl", 3600.0))).getTtl(),
+				equalTo(3600));
+		for (Object ttl : new Object[] { 3600.5, 1L << 32, "3600.5", -1 }) {
+			try {
+				this.resolver.resolve(new MessageHeaders(Collections.singletonMap("ttl", ttl)));
+				fail("IllegalArgumentException expected for " + ttl);
+			}
+			catch (IllegalArgumentException ex) {
+				// expected
+			}
+		}
+	}
+
+	@Test
+	public void testNoOptionsWithoutHeaders() {
+		assertThat(this.resolver.resolve(new MessageHeaders(null)), sameInstance(MessageWriteOptions.NONE));
+	}
+
+}
@@ -0,0 +1,208 @@
+/*
+ * Copyright 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.cloud.stream.app.cassandra.sink;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.instanceOf;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+import java.io.ByteArrayOutputStream;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.zip.GZIPOutputStream;
+
+import org.junit.Test;
+
+import org.springframework.cloud.stream.app.cassandra.query.InsertQueryColumnNameExtractor;
+import org.springframework.integration.channel.QueueChannel;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.MessageHeaders;
+import org.springframework.messaging.support.GenericMessage;
+import org.springframework.util.MimeType;
+
+import com.datastax.driver.core.CodecRegistry;
+import com.datastax.driver.core.DataType;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.cbor.CBORFactory;
+
+public class PayloadToMatrixTransformerTests {
+
+	private static final String QUERY = "insert into book (isbn, title, pages) values (?, ?, ?)";
+
+	@Test
+	public void testStreamingTransformation() throws Exception {
+		PayloadToMatrixTransformer transformer =
+				new PayloadToMatrixTransformer(QUERY, new InsertQueryColumnNameExtractor());
+
+		UUID isbn = UUID.randomUUID();
+		String json = "[{\"pages\": 10, \"isbn\": \"" + isbn + "\", \"extra\": {\"a\": [1, 2]}, \"title\": \"foo\"}," +
+				"{\"title\": \"bar\"}]";
+
+		List<List<Object>> rows = transformer.transformPayload(json.getBytes(StandardCharsets.UTF_8));
+
+		assertThat(rows.size(), equalTo(2));
+		assertThat(rows.get(0), equalTo(Arrays.<Object>asList(isbn, "foo", 10)));
+		assertThat(rows.get(1).get(0), nullValue());
+		assertThat(rows.get(1).get(1), equalTo("bar"));
+	}
+
+	@Test
+	public void testAbsentAndNullFieldsAreUnset() throws Exception {
+		PayloadToMatrixTransformer transformer =
+				new PayloadToMatrixTransformer(QUERY, new InsertQueryColumnNameExtractor());
+		transformer.setUnsetAbsent(true);
+
+		String json = "{\"isbn\": null, \"title\": \"foo\"}";
+
+		List<List<Object>> rows = transformer.transformPayload(json);
+
+		assertThat(rows.get(0), equalTo(Arrays.asList(null, "foo", JsonRowReader.UNSET)));
+
+		transformer.setUnsetNulls(true);
+
+		rows = transformer.transformPayload(json);
+
+		assertThat(rows.get(0), equalTo(Arrays.asList(JsonRowReader.UNSET, "foo", JsonRowReader.UNSET)));
+	}
+
+	@Test
+	public void testDecimalsAreReadExactly() throws Exception {
+		PayloadToMatrixTransformer transformer =
+				new PayloadToMatrixTransformer("insert into product (id, price, weight) values (?, ?, ?)",
+						new InsertQueryColumnNameExtractor());
+		ColumnConverters columnConverters = new ColumnConverters(new DateTimeParser());
+		transformer.setColumnConvertersResolver(() -> new ColumnConverter[] {
+				columnConverters.forType(DataType.uuid(), CodecRegistry.DEFAULT_INSTANCE),
+				columnConverters.forType(DataType.decimal(), CodecRegistry.DEFAULT_INSTANCE),
+				columnConverters.forType(DataType.cdouble(), CodecRegistry.DEFAULT_INSTANCE) });
+		transformer.setLenientConversion(true);
+
+		List<List<Object>> rows =
+				transformer.transformPayload("{\"price\": 12345678901234567.89, \"weight\": 0.10}");
+
+		assertThat(rows.get(0), equalTo(Arrays.asList(null, new BigDecimal("12345678901234567.89"), 0.1)));
+	}
+
+	@Test
+	public void testPayloadCodecByContentType() throws Exception {
+		PayloadToMatrixTransformer transformer =
+				new PayloadToMatrixTransformer(QUERY, new InsertQueryColumnNameExtractor());
+		ObjectMapper cborMapper = new ObjectMapper(new CBORFactory());
+		transformer.setPayloadCodecs(Collections.singletonList(
+				new JacksonPayloadCodec(cborMapper.getFactory(), MimeType.valueOf("application/cbor"))));
+
+		Map<String, Object> book = new LinkedHashMap<>();
+		book.put("title", "foo");
+		book.put("pages", 10);
+		byte[] cbor = cborMapper.writeValueAsBytes(Collections.singletonList(book));
+
+		Object rows = transformer.transform(new GenericMessage<>(cbor,
+				Collections.singletonMap(MessageHeaders.CONTENT_TYPE, "application/cbor"))).getPayload();
+
+		assertThat(rows, equalTo(Collections.singletonList(Arrays.asList(null, "foo", 10))));
+
+		rows = transformer.transform(new GenericMessage<>("{\"title\": \"bar\"}",
+				Collections.singletonMap(MessageHeaders.CONTENT_TYPE, "application/json"))).getPayload();
+
+		assertThat(rows, equalTo(Collections.singletonList(Arrays.asList(null, "bar", null))));
+	}
+
+	@Test
+	public void testGzipContentEncoding() throws Exception {
+		PayloadToMatrixSplitter splitter =
+				new PayloadToMatrixSplitter(
+						new PayloadToMatrixTransformer(QUERY, new InsertQueryColumnNameExtractor()), 2);
+		QueueChannel outputChannel = new QueueChannel();
+		splitter.setOutputChannel(outputChannel);
+
+		ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+		try (GZIPOutputStream gzip = new GZIPOutputStream(compressed)) {
+			gzip.write("[{\"pages\": 1}, {\"pages\": 2}, {\"pages\": 3}]".getBytes(StandardCharsets.UTF_8));
+		}
+
+		splitter.handleMessage(new GenericMessage<>(compressed.toByteArray(),
+				Collections.singletonMap(ContentEncodings.CONTENT_ENCODING_HEADER, "gzip")));
+
+		assertThat(outputChannel.getQueueSize(), equalTo(2));
+		assertThat(outputChannel.receive(0).getPayload(),
+				equalTo(Arrays.asList(Arrays.asList(null, null, 1), Arrays.asList(null, null, 2))));
+		assertThat(outputChannel.receive(0).getPayload(),
+				equalTo(Collections.singletonList(Arrays.asList(null, null, 3))));
+	}
+
+	@Test
+	public void testNewlineDelimitedJson() throws Exception {
+		PayloadToMatrixTransformer transformer =
+				new PayloadToMatrixTransformer(QUERY, new InsertQueryColumnNameExtractor());
+
+		List<List<Object>> rows = transformer.transformPayload("{\"pages\": 1}\n{\"pages\": 2}\n");
+
+		assertThat(rows, equalTo(Arrays.asList(Arrays.asList(null, null, 1), Arrays.asList(null, null, 2))));
+	}
+
+	@Test
+	public void testCsvWithHeader() throws Exception {
+		PayloadToMatrixTransformer transformer =
+				new PayloadToMatrixTransformer(QUERY, new InsertQueryColumnNameExtractor());
+		transformer.setPayloadCodecs(Collections.singletonList(new CsvPayloadCodec(',')));
+
+		String csv = "title,extra,pages\nfoo,x,10\n\"bar, baz\",y,\n";
+
+		List<List<Object>> rows = transformer.transformPayload(csv, MimeType.valueOf("text/csv"));
+
+		assertThat(rows,
+				equalTo(Arrays.asList(Arrays.asList(null, "foo", "10"), Arrays.asList(null, "bar, baz", null))));
+	}
+
+	@Test
+	public void testSingleEntityIsAcceptedAsArray() throws Exception {
+		PayloadToMatrixTransformer transformer =
+				new PayloadToMatrixTransformer(QUERY, new InsertQueryColumnNameExtractor());
+
+		List<List<Object>> rows = transformer.transformPayload("{\"title\": \"foo\"}");
+
+		assertThat(rows.size(), equalTo(1));
+		assertThat(rows.get(0).get(1), equalTo("foo"));
+	}
+
+	@Test
+	public void testChunkedSplitting() {
+		PayloadToMatrixSplitter splitter =
+				new PayloadToMatrixSplitter(
+						new PayloadToMatrixTransformer(QUERY, new InsertQueryColumnNameExtractor()), 2);
+		QueueChannel outputChannel = new QueueChannel();
+		splitter.setOutputChannel(outputChannel);
+
+		splitter.handleMessage(
+				new GenericMessage<>("[{\"pages\": 1}, {\"pages\": 2}, {\"pages\": 3}, {\"pages\": 4}, {\"pages\": 5}]"));
+
+		assertThat(outputChannel.getQueueSize(), equalTo(3));
+		Message<?> chunk = outputChannel.receive(0);
+		assertThat(chunk.getPayload(), instanceOf(List.class));
+		assertThat(((List<?>) chunk.getPayload()).size(), equalTo(2));
+		assertThat(((List<?>) outputChannel.receive(0).getPayload()).size(), equalTo(2));
+		assertThat(((List<?>) outputChannel.receive(0).getPayload()).size(), equalTo(1));
+	}
+
+}
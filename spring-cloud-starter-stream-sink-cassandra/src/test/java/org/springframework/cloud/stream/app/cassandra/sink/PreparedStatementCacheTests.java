@@ -0,0 +1,60 @@
+/*
+ * Copyright 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.cloud.stream.app.cassandra.sink;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.sameInstance;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.BDDMockito.given;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+import org.junit.Test;
+
+import org.springframework.data.cassandra.ReactiveSession;
+
+import com.datastax.driver.core.PreparedStatement;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import reactor.core.publisher.Mono;
+
+public class PreparedStatementCacheTests {
+
+	@Test
+	public void testStatementsAreCachedAndEvicted() {
+		ReactiveSession session = mock(ReactiveSession.class);
+		given(session.prepare(anyString())).willAnswer(invocation -> Mono.just(mock(PreparedStatement.class)));
+
+		PreparedStatementCache cache = new PreparedStatementCache(2);
+		SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+		cache.bindTo(meterRegistry);
+
+		PreparedStatement first = cache.prepare(session, "insert into t (a) values (?)").block();
+		assertThat(cache.prepare(session, "insert into t (a) values (?)").block(), sameInstance(first));
+		cache.prepare(session, "insert into t (b) values (?)").block();
+		cache.prepare(session, "insert into t (c) values (?)").block();
+
+		verify(session, times(3)).prepare(anyString());
+		assertThat(meterRegistry.get("cassandra.sink.statement.cache.hits").functionCounter().count(), equalTo(1.0));
+		assertThat(meterRegistry.get("cassandra.sink.statement.cache.misses").functionCounter().count(), equalTo(3.0));
+		assertThat(meterRegistry.get("cassandra.sink.statement.cache.evictions").functionCounter().count(),
+				equalTo(1.0));
+		assertThat(meterRegistry.get("cassandra.sink.statement.cache.size").gauge().value(), equalTo(2.0));
+	}
+
+}
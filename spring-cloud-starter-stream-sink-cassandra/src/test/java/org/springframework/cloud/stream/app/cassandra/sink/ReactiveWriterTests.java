@@ -0,0 +1,130 @@
+/*
+ * Copyright 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.cloud.stream.app.cassandra.sink;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.Test;
+
+import org.springframework.messaging.Message;
+import org.springframework.messaging.MessageHandlingException;
+import org.springframework.messaging.support.GenericMessage;
+
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.MonoProcessor;
+
+public class ReactiveWriterTests {
+
+	@Test
+	public void testInputBlocksUntilWritesComplete() throws Exception {
+		List<MonoProcessor<Void>> writes = Collections.synchronizedList(new ArrayList<>());
+		ReactiveWriter reactiveWriter = new ReactiveWriter(message -> {
+			MonoProcessor<Void> write = MonoProcessor.create();
+			writes.add(write);
+			return write;
+		}, 4, 2);
+		reactiveWriter.start();
+
+		reactiveWriter.handleMessage(new GenericMessage<>("a"));
+		reactiveWriter.handleMessage(new GenericMessage<>("b"));
+		assertThat(writes.size(), equalTo(2));
+
+		CountDownLatch handled = new CountDownLatch(1);
+		Thread thread = new Thread(() -> {
+			reactiveWriter.handleMessage(new GenericMessage<>("c"));
+			handled.countDown();
+		});
+		thread.start();
+
+		assertThat(handled.await(100, TimeUnit.MILLISECONDS), equalTo(false));
+		writes.get(0).onError(new IllegalStateException("test"));
+		assertThat(handled.await(10, TimeUnit.SECONDS), equalTo(true));
+		assertThat(writes.size(), equalTo(3));
+
+		writes.get(1).onComplete();
+		writes.get(2).onComplete();
+		reactiveWriter.stop();
+	}
+
+	@Test
+	public void testBlockedInputFailsWhenStopped() throws Exception {
+		MonoProcessor<Void> write = MonoProcessor.create();
+		ReactiveWriter reactiveWriter = new ReactiveWriter(message -> write, 1, 1);
+		reactiveWriter.start();
+		reactiveWriter.handleMessage(new GenericMessage<>("a"));
+
+		AtomicReference<Exception> failure = new AtomicReference<>();
+		CountDownLatch handled = new CountDownLatch(1);
+		Thread thread = new Thread(() -> {
+			try {
+				reactiveWriter.handleMessage(new GenericMessage<>("b"));
+			}
+			catch (Exception ex) {
+				failure.set(ex);
+			}
+			handled.countDown();
+		});
+		thread.start();
+		assertThat(handled.await(100, TimeUnit.MILLISECONDS), equalTo(false));
+
+		Thread stopper = new Thread(reactiveWriter::stop);
+		stopper.start();
+		while (reactiveWriter.isRunning()) {
+			Thread.sleep(10);
+		}
+		write.onComplete();
+		stopper.join(10_000);
+
+		assertThat(handled.await(10, TimeUnit.SECONDS), equalTo(true));
+		assertThat(failure.get() instanceof MessageHandlingException, equalTo(true));
+	}
+
+	@Test
+	public void testRowsAreCombinedIntoWindows() {
+		List<Object> payloads = Collections.synchronizedList(new ArrayList<>());
+		ReactiveWriter reactiveWriter = new ReactiveWriter(message -> {
+			payloads.add(message.getPayload());
+			return Mono.empty();
+		}, 1, 10);
+		reactiveWriter.setWindow(3, 60_000);
+		reactiveWriter.start();
+
+		reactiveWriter.handleMessage(message(Arrays.asList(1, "a")));
+		reactiveWriter.handleMessage(message(Arrays.asList(2, "b")));
+		reactiveWriter.handleMessage(new GenericMessage<>("entity"));
+		reactiveWriter.handleMessage(message(Arrays.asList(3, "c")));
+		reactiveWriter.stop();
+
+		assertThat(payloads, equalTo(Arrays.asList("entity",
+				Arrays.asList(Arrays.asList(1, "a"), Arrays.asList(2, "b")),
+				Collections.singletonList(Arrays.asList(3, "c")))));
+	}
+
+	private static Message<?> message(List<?> row) {
+		return new GenericMessage<>(Collections.singletonList(row));
+	}
+
+}
@@ -0,0 +1,65 @@
+/*
+ * Copyright 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.cloud.stream.app.cassandra.sink;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+import org.springframework.dao.QueryTimeoutException;
+
+import com.datastax.driver.core.ConsistencyLevel;
+import com.datastax.driver.core.WriteType;
+import com.datastax.driver.core.exceptions.WriteTimeoutException;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+public class SinkMetricsTests {
+
+	private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+
+	private final SinkMetrics sinkMetrics = new SinkMetrics(this.meterRegistry, "test", "INSERT");
+
+	@Test
+	public void testMetricsAreTaggedByTable() {
+		String table = SinkMetrics.tableOf("insert into other.book (isbn) values (?)");
+		this.sinkMetrics.recordTransform(table, 1024, 10, TimeUnit.MILLISECONDS.toNanos(1));
+		this.sinkMetrics.recordWrite(table, 10, TimeUnit.MILLISECONDS.toNanos(5));
+
+		assertThat(this.meterRegistry.get("cassandra.sink.payload.size")
+				.tag("keyspace", "other").tag("table", "book").tag("type", "INSERT")
+				.summary().totalAmount(), equalTo(1024.0));
+		assertThat(this.meterRegistry.get("cassandra.sink.rows").tag("table", "book").counter().count(),
+				equalTo(10.0));
+		assertThat(this.meterRegistry.get("cassandra.sink.write").tag("table", "book").timer().count(), equalTo(1L));
+	}
+
+	@Test
+	public void testErrorsAreTaggedByDriverException() {
+		WriteTimeoutException driverException =
+				new WriteTimeoutException(ConsistencyLevel.ONE, WriteType.SIMPLE, 0, 1);
+		this.sinkMetrics.recordWriteError("book", TimeUnit.MILLISECONDS.toNanos(5),
+				new QueryTimeoutException("timeout", driverException));
+
+		assertThat(this.meterRegistry.get("cassandra.sink.write.errors")
+				.tag("keyspace", "test").tag("exception", "WriteTimeoutException")
+				.counter().count(), equalTo(1.0));
+	}
+
+}
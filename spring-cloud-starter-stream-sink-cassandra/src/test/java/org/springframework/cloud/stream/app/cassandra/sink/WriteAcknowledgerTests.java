@@ -0,0 +1,169 @@
+/*
+ * Copyright 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.cloud.stream.app.cassandra.sink;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+
+import org.springframework.integration.acks.AcknowledgmentCallback;
+import org.springframework.integration.support.MessageBuilder;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.MessageHandlingException;
+
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.MonoProcessor;
+
+public class WriteAcknowledgerTests {
+
+	private final List<String> acknowledged = new ArrayList<>();
+
+	private final WriteAcknowledger acknowledger = new WriteAcknowledger("ack", "partition", "offset");
+
+	@Test
+	public void testAcknowledgedInOrderPerPartition() {
+		MonoProcessor<Void> first = MonoProcessor.create();
+		MonoProcessor<Void> second = MonoProcessor.create();
+		MonoProcessor<Void> other = MonoProcessor.create();
+		this.acknowledger.track(message("first", 0), first).subscribe();
+		this.acknowledger.track(message("second", 0), second).subscribe();
+		this.acknowledger.track(message("other", 1), other).subscribe();
+		second.onComplete();
+		other.onComplete();
+		assertThat(this.acknowledged, equalTo(Arrays.asList("other")));
+		first.onComplete();
+		assertThat(this.acknowledged, equalTo(Arrays.asList("other", "first", "second")));
+	}
+
+	@Test
+	public void testPartialMessagesAreNotAcknowledged() {
+		Message<?> partial = MessageBuilder.fromMessage(message("partial", 0))
+				.setHeader(WriteAcknowledger.PARTIAL_HEADER, true)
+				.build();
+		MonoProcessor<Void> write = MonoProcessor.create();
+		this.acknowledger.track(partial, write).subscribe();
+		this.acknowledger.track(message("last", 0), Mono.empty()).subscribe();
+		assertThat(this.acknowledged.isEmpty(), equalTo(true));
+		write.onComplete();
+		assertThat(this.acknowledged, equalTo(Arrays.asList("last")));
+	}
+
+	@Test
+	public void testFailureStopsAcknowledgmentsOfPartition() {
+		MonoProcessor<Void> failed = MonoProcessor.create();
+		MonoProcessor<Void> next = MonoProcessor.create();
+		this.acknowledger.track(message("failed", 0), failed).subscribe(null, ex -> { });
+		this.acknowledger.track(message("next", 0), next).subscribe();
+		failed.onError(new IllegalStateException("test"));
+		next.onComplete();
+		assertRejected(message("later", 0));
+		this.acknowledger.track(message("other", 1), Mono.empty()).subscribe();
+		assertThat(this.acknowledged, equalTo(Arrays.asList("other")));
+	}
+
+	@Test
+	public void testAcknowledgmentsResumeOnRedelivery() {
+		MonoProcessor<Void> failed = MonoProcessor.create();
+		this.acknowledger.track(offset(message("failed", 0), 5), failed).subscribe(null, ex -> { });
+		this.acknowledger.track(offset(message("next", 0), 6), Mono.empty()).subscribe();
+		failed.onError(new IllegalStateException("test"));
+		assertRejected(offset(message("later", 0), 7));
+		assertThat(this.acknowledged.isEmpty(), equalTo(true));
+
+		this.acknowledger.track(offset(message("redelivered", 0), 5), Mono.empty()).subscribe();
+		this.acknowledger.track(offset(message("next", 0), 6), Mono.empty()).subscribe();
+		assertThat(this.acknowledged, equalTo(Arrays.asList("redelivered", "next")));
+	}
+
+	@Test
+	public void testFailureRequeuesPendingCallbacksOfPartition() {
+		List<String> statuses = new ArrayList<>();
+		MonoProcessor<Void> failed = MonoProcessor.create();
+		MonoProcessor<Void> next = MonoProcessor.create();
+		this.acknowledger.track(callback(statuses, "failed"), failed).subscribe(null, ex -> { });
+		this.acknowledger.track(callback(statuses, "next"), next).subscribe();
+		failed.onError(new IllegalStateException("test"));
+		assertThat(statuses, equalTo(Arrays.asList("failed:REQUEUE", "next:REQUEUE")));
+
+		next.onComplete();
+		this.acknowledger.track(callback(statuses, "redelivered"), Mono.empty()).subscribe();
+		assertThat(statuses, equalTo(Arrays.asList("failed:REQUEUE", "next:REQUEUE", "redelivered:ACCEPT")));
+	}
+
+	@Test
+	public void testAcknowledgedInOrderAfterPartitionIsIdle() {
+		this.acknowledger.track(message("first", 0), Mono.empty()).subscribe();
+		MonoProcessor<Void> second = MonoProcessor.create();
+		this.acknowledger.track(message("second", 0), second).subscribe();
+		this.acknowledger.track(message("third", 0), Mono.empty()).subscribe();
+		assertThat(this.acknowledged, equalTo(Arrays.asList("first")));
+		second.onComplete();
+		assertThat(this.acknowledged, equalTo(Arrays.asList("first", "second", "third")));
+	}
+
+	private void assertRejected(Message<?> message) {
+		try {
+			this.acknowledger.track(message, Mono.empty());
+			fail("MessageHandlingException expected");
+		}
+		catch (MessageHandlingException ex) {
+			assertThat(ex.getFailedMessage(), equalTo(message));
+		}
+	}
+
+	private Message<?> message(String name, int partition) {
+		return MessageBuilder.withPayload(name)
+				.setHeader("ack", new Acknowledgment(name))
+				.setHeader("partition", partition)
+				.build();
+	}
+
+	private static Message<?> offset(Message<?> message, long offset) {
+		return MessageBuilder.fromMessage(message)
+				.setHeader("offset", offset)
+				.build();
+	}
+
+	private static Message<?> callback(List<String> statuses, String name) {
+		AcknowledgmentCallback callback = status -> statuses.add(name + ":" + status);
+		return MessageBuilder.withPayload(name)
+				.setHeader("ack", callback)
+				.setHeader("partition", 0)
+				.build();
+	}
+
+	private final class Acknowledgment {
+
+		private final String name;
+
+		Acknowledgment(String name) {
+			this.name = name;
+		}
+
+		public void acknowledge() {
+			WriteAcknowledgerTests.this.acknowledged.add(this.name);
+		}
+
+	}
+
+}
@@ -0,0 +1,170 @@
+/*
+ * Copyright 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.cloud.stream.app.cassandra.sink;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+import org.springframework.messaging.MessageHandlingException;
+import org.springframework.messaging.support.GenericMessage;
+
+public class WriteLanesTests {
+
+	@Test
+	public void testRowsOfSameKeyAreWrittenInOrder() {
+		assertRowsOfSameKeyAreWrittenInOrder(new WriteLanes(4, 16));
+	}
+
+	@Test
+	public void testRowsOfSameKeyAreWrittenInOrderOnSharedThreads() {
+		WriteLanes writeLanes = new WriteLanes(1000, 16);
+		writeLanes.setSharedThreads(4);
+		assertRowsOfSameKeyAreWrittenInOrder(writeLanes);
+	}
+
+	@Test
+	public void testRowsOfSameKeyAreSplitIntoRounds() {
+		WriteLanes writeLanes = new WriteLanes(1, 16);
+		writeLanes.setKeyPositionsResolvers(() -> new int[] { 0 }, () -> new int[] { 0 });
+		List<Integer> writeSizes = Collections.synchronizedList(new ArrayList<>());
+		writeLanes.setOutputChannel((message, timeout) -> writeSizes.add(((List<?>) message.getPayload()).size()));
+		writeLanes.start();
+
+		writeLanes.handleMessage(new GenericMessage<>(Arrays.asList(
+				Arrays.asList("a", 1), Arrays.asList("b", 1), Arrays.asList("a", 2), Arrays.asList("c", 1))));
+		writeLanes.stop();
+
+		assertThat(writeSizes, equalTo(Arrays.asList(3, 1)));
+	}
+
+	@Test
+	public void testUnkeyedWritesCompleteBeforeKeyedWrites() {
+		WriteLanes writeLanes = new WriteLanes(4, 16);
+		AtomicInteger resolutions = new AtomicInteger();
+		// not resolved on start and for the first message
+		writeLanes.setKeyPositionsResolvers(() -> resolutions.getAndIncrement() < 2 ? null : new int[] { 0 },
+				() -> null);
+		List<List<?>> written = Collections.synchronizedList(new ArrayList<>());
+		writeLanes.setOutputChannel((message, timeout) -> {
+			List<?> rows = (List<?>) message.getPayload();
+			if (rows.size() == 1) {
+				try {
+					Thread.sleep(100);
+				}
+				catch (InterruptedException ex) {
+					Thread.currentThread().interrupt();
+				}
+			}
+			for (Object row : rows) {
+				written.add((List<?>) row);
+			}
+			return true;
+		});
+		writeLanes.start();
+
+		writeLanes.handleMessage(new GenericMessage<>(Collections.singletonList(Arrays.asList("p0", 0))));
+		List<List<?>> keyedRows = new ArrayList<>();
+		for (int p = 0; p < 10; p++) {
+			keyedRows.add(Arrays.asList("p" + p, 1));
+		}
+		writeLanes.handleMessage(new GenericMessage<>(keyedRows));
+		writeLanes.stop();
+
+		assertThat(written.size(), equalTo(11));
+		assertThat(written.get(0), equalTo(Arrays.asList("p0", 0)));
+	}
+
+	@Test
+	public void testFailedWriteFailsNextMessageOfLane() {
+		WriteLanes writeLanes = new WriteLanes(1, 16);
+		writeLanes.setKeyPositionsResolvers(() -> new int[] { 0 }, () -> null);
+		List<List<?>> written = Collections.synchronizedList(new ArrayList<>());
+		writeLanes.setOutputChannel((message, timeout) -> {
+			List<?> rows = (List<?>) message.getPayload();
+			if (rows.contains(Arrays.asList("p0", "fail"))) {
+				throw new IllegalStateException("write failed");
+			}
+			for (Object row : rows) {
+				written.add((List<?>) row);
+			}
+			return true;
+		});
+		writeLanes.start();
+
+		writeLanes.handleMessage(new GenericMessage<>(Collections.singletonList(Arrays.asList("p0", "fail"))));
+		// wait for the failed write
+		writeLanes.stop();
+		writeLanes.start();
+		try {
+			writeLanes.handleMessage(new GenericMessage<>(Collections.singletonList(Arrays.asList("p1", "next"))));
+			fail("MessageHandlingException expected");
+		}
+		catch (MessageHandlingException ex) {
+			assertThat(ex.getMostSpecificCause().getMessage(), equalTo("write failed"));
+		}
+		writeLanes.handleMessage(new GenericMessage<>(Collections.singletonList(Arrays.asList("p1", "retry"))));
+		writeLanes.stop();
+
+		assertThat(written, equalTo(Collections.singletonList(Arrays.asList("p1", "retry"))));
+	}
+
+	private void assertRowsOfSameKeyAreWrittenInOrder(WriteLanes writeLanes) {
+		writeLanes.setKeyPositionsResolvers(() -> new int[] { 0 }, () -> new int[] { 0, 1 });
+		List<List<?>> written = Collections.synchronizedList(new ArrayList<>());
+		writeLanes.setOutputChannel((message, timeout) -> {
+			List<?> rows = (List<?>) message.getPayload();
+			for (Object row : rows) {
+				written.add((List<?>) row);
+			}
+			return true;
+		});
+		writeLanes.start();
+
+		for (int i = 0; i < 100; i++) {
+			writeLanes.handleMessage(new GenericMessage<>(Arrays.asList(
+					Arrays.asList("p" + (i % 10), "c", i),
+					Arrays.asList("p" + (i % 10), "c", -i))));
+		}
+		writeLanes.stop();
+
+		assertThat(written.size(), equalTo(200));
+		for (int p = 0; p < 10; p++) {
+			List<Object> values = new ArrayList<>();
+			for (List<?> row : written) {
+				if (row.get(0).equals("p" + p)) {
+					values.add(row.get(2));
+				}
+			}
+			List<Object> expected = new ArrayList<>();
+			for (int i = p; i < 100; i += 10) {
+				expected.add(i);
+				expected.add(-i);
+			}
+			assertThat(values, equalTo(expected));
+		}
+	}
+
+}
@@ -0,0 +1,150 @@
+/*
+ * Copyright 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.springframework.cloud.stream.app.cassandra.sink;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.allOf;
+import static org.hamcrest.Matchers.greaterThanOrEqualTo;
+import static org.hamcrest.Matchers.lessThanOrEqualTo;
+
+import java.net.InetSocketAddress;
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+import org.springframework.cloud.stream.app.cassandra.query.IngestQuery;
+import org.springframework.dao.QueryTimeoutException;
+
+import com.datastax.driver.core.ConsistencyLevel;
+import com.datastax.driver.core.DataType;
+import com.datastax.driver.core.WriteType;
+import com.datastax.driver.core.exceptions.InvalidQueryException;
+import com.datastax.driver.core.exceptions.OverloadedException;
+import com.datastax.driver.core.exceptions.WriteTimeoutException;
+import reactor.core.publisher.Mono;
+
+public class WriteRetryPolicyTests {
+
+	private static final InetSocketAddress ADDRESS = new InetSocketAddress("localhost", 9042);
+
+	@Test
+	public void testIdempotentQueries() {
+		assertThat(WriteRetryPolicy.isIdempotentQuery("insert into book (isbn, title) values (?, ?)"), equalTo(true));
+		assertThat(WriteRetryPolicy.isIdempotentQuery("update book set title = ? where isbn = ?"), equalTo(true));
+		assertThat(WriteRetryPolicy.isIdempotentQuery("update book set tags = tags + {'a'} where isbn = ?"),
+				equalTo(true));
+		assertThat(WriteRetryPolicy.isIdempotentQuery("insert into book (isbn) values (?) IF NOT EXISTS"),
+				equalTo(false));
+		assertThat(WriteRetryPolicy.isIdempotentQuery("update book set title = ? where isbn = ? if title = ?"),
+				equalTo(false));
+		assertThat(WriteRetryPolicy.isIdempotentQuery("update stats set hits = hits + ? where id = ?"),
+				equalTo(false));
+		assertThat(WriteRetryPolicy.isIdempotentQuery("update book set authors = authors + ['a'] where isbn = ?"),
+				equalTo(false));
+		assertThat(WriteRetryPolicy.isIdempotentQuery("update book set authors = ['a'] + authors where isbn = ?"),
+				equalTo(false));
+		assertThat(WriteRetryPolicy.isIdempotentQuery("insert into event (id, ts) values (uuid(), now())"),
+				equalTo(false));
+		assertThat(WriteRetryPolicy.isIdempotentQuery("update book set authors = ? + authors where isbn = ?"),
+				equalTo(false));
+		assertThat(WriteRetryPolicy.isIdempotentQuery("update book set tags = tags + ? where isbn = ?"),
+				equalTo(false));
+	}
+
+	@Test
+	public void testIdempotentQueriesByColumnTypes() {
+		DataType set = DataType.set(DataType.text());
+		DataType list = DataType.list(DataType.text());
+		assertThat(isIdempotentQuery("update book set tags = tags + ? where isbn = ?", "tags", set), equalTo(true));
+		assertThat(isIdempotentQuery("update book set tags = tags + ? where isbn = ?", "tags", list), equalTo(false));
+		assertThat(isIdempotentQuery("update book set tags = tags - ? where isbn = ?", "tags", list), equalTo(true));
+		assertThat(isIdempotentQuery("update book set tags = ? + tags where isbn = ?", "tags", list), equalTo(false));
+		assertThat(isIdempotentQuery("update stats set hits = hits - ? where id = ?", "hits", DataType.counter()),
+				equalTo(false));
+	}
+
+	private static boolean isIdempotentQuery(String query, String column, DataType type) {
+		Map<String, DataType> columnTypes = Collections.singletonMap(column, type);
+		return WriteRetryPolicy.isIdempotentQuery(IngestQuery.parse(query), columnTypes::get);
+	}
+
+	@Test
+	public void testRetryableErrors() {
+		Throwable overloaded = new OverloadedException(ADDRESS, "overloaded");
+		Throwable timeout = new QueryTimeoutException("timeout",
+				new WriteTimeoutException(ConsistencyLevel.ONE, WriteType.SIMPLE, 0, 1));
+		Throwable invalid = new InvalidQueryException("invalid");
+		assertThat(WriteRetryPolicy.isRetryable(overloaded, false), equalTo(true));
+		assertThat(WriteRetryPolicy.isRetryable(timeout, true), equalTo(true));
+		assertThat(WriteRetryPolicy.isRetryable(timeout, false), equalTo(false));
+		assertThat(WriteRetryPolicy.isRetryable(invalid, true), equalTo(false));
+	}
+
+	@Test
+	public void testWriteIsRetriedUntilMaxAttempts() {
+		WriteRetryPolicy retryPolicy = new WriteRetryPolicy(3, 1, 2, 10, 0);
+		AtomicInteger attempts = new AtomicInteger();
+		Mono<Void> write = Mono.defer(() -> {
+			attempts.incrementAndGet();
+			return Mono.error(new OverloadedException(ADDRESS, "overloaded"));
+		});
+		try {
+			retryPolicy.apply(write, true).block();
+		}
+		catch (OverloadedException ex) {
+			// expected after the last attempt
+		}
+		assertThat(attempts.get(), equalTo(3));
+
+		attempts.set(0);
+		Mono<Void> recovered = Mono.defer(() -> attempts.incrementAndGet() < 2
+				? Mono.error(new OverloadedException(ADDRESS, "overloaded"))
+				: Mono.empty());
+		retryPolicy.apply(recovered, true).block();
+		assertThat(attempts.get(), equalTo(2));
+	}
+
+	@Test
+	public void testNonRetryableErrorIsNotRetried() {
+		WriteRetryPolicy retryPolicy = new WriteRetryPolicy(3, 1, 2, 10, 0);
+		AtomicInteger attempts = new AtomicInteger();
+		Mono<Void> write = Mono.defer(() -> {
+			attempts.incrementAndGet();
+			return Mono.error(new WriteTimeoutException(ConsistencyLevel.ONE, WriteType.SIMPLE, 0, 1));
+		});
+		try {
+			retryPolicy.apply(write, false).block();
+		}
+		catch (WriteTimeoutException ex) {
+			// expected without retries for a non-idempotent write
+		}
+		assertThat(attempts.get(), equalTo(1));
+	}
+
+	@Test
+	public void testBackoffIsExponentialWithinJitterAndCapped() {
+		WriteRetryPolicy retryPolicy = new WriteRetryPolicy(10, 100, 2, 1000, 0.5);
+		assertThat(retryPolicy.backoff(1), allOf(greaterThanOrEqualTo(50L), lessThanOrEqualTo(150L)));
+		assertThat(retryPolicy.backoff(3), allOf(greaterThanOrEqualTo(200L), lessThanOrEqualTo(600L)));
+		assertThat(retryPolicy.backoff(10), allOf(greaterThanOrEqualTo(500L), lessThanOrEqualTo(1000L)));
+	}
+
+}